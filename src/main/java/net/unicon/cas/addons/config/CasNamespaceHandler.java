@@ -1,6 +1,7 @@
 package net.unicon.cas.addons.config;
 
 import com.github.inspektr.audit.support.Slf4jLoggingAuditTrailManager;
+import com.hazelcast.config.MapConfig;
 
 import net.unicon.cas.addons.authentication.handler.StormpathAuthenticationHandler;
 import net.unicon.cas.addons.authentication.internal.DefaultAuthenticationSupport;
@@ -16,9 +17,13 @@ import net.unicon.cas.addons.serviceregistry.RegisteredServicesReloadDisablingBe
 import net.unicon.cas.addons.serviceregistry.services.authorization.DefaultRegisteredServiceAuthorizer;
 import net.unicon.cas.addons.serviceregistry.services.authorization.ServiceAuthorizationAction;
 import net.unicon.cas.addons.serviceregistry.services.internal.DefaultRegisteredServicesPolicies;
+import net.unicon.cas.addons.support.EntropyPool;
+import net.unicon.cas.addons.support.EntropyPoolAwareBeanPostProcessor;
 import net.unicon.cas.addons.support.ResourceChangeDetectingEventNotifier;
 import net.unicon.cas.addons.support.TimingAspectRemovingBeanFactoryPostProcessor;
 import net.unicon.cas.addons.ticket.registry.HazelcastTicketRegistry;
+import net.unicon.cas.addons.ticket.registry.MappedTicketRegistry;
+import net.unicon.cas.addons.ticket.registry.OffHeapTicketRegistry;
 import net.unicon.cas.addons.web.flow.ServiceRedirectionAction;
 import net.unicon.cas.addons.web.view.RequestParameterCasLoginViewSelector;
 
@@ -78,6 +83,9 @@ public class CasNamespaceHandler extends NamespaceHandlerSupport {
         registerBeanDefinitionParser("disable-perf4j-timing-aspect", new TimingAspectRemovingBFPPBeanDefinitionParser());
         registerBeanDefinitionParser("events-redis-recorder", new EventsRedisRecorderBeanDefinitionParser());
         registerBeanDefinitionParser("hazelcast-ticket-registry", new HazelcastTicketRegistryBeanDefinitionParser());
+        registerBeanDefinitionParser("off-heap-ticket-registry", new OffHeapTicketRegistryBeanDefinitionParser());
+        registerBeanDefinitionParser("mapped-ticket-registry", new MappedTicketRegistryBeanDefinitionParser());
+        registerBeanDefinitionParser("entropy-pool", new EntropyPoolBeanDefinitionParser());
         registerBeanDefinitionParser("service-redirection-action", new ServiceRedirectionActionBeanDefinitionParser());
         registerBeanDefinitionParser("request-param-login-view-selector", new RequestParameterLoginViewSelectorBeanDefinitionParser());
     }
@@ -111,6 +119,20 @@ public class CasNamespaceHandler extends NamespaceHandlerSupport {
         @Override
         protected void doParse(Element element, BeanDefinitionBuilder builder) {
             builder.addConstructorArgValue(element.getAttribute("config-file"));
+            if (StringUtils.hasText(element.getAttribute("precompile-regex-patterns"))) {
+                builder.addPropertyValue("precompileRegexPatterns", element.getAttribute("precompile-regex-patterns"));
+            }
+            if (StringUtils.hasText(element.getAttribute("combine-regex-patterns"))) {
+                builder.addPropertyValue("combineRegexPatterns", element.getAttribute("combine-regex-patterns"));
+            }
+            if (Boolean.valueOf(element.getAttribute("read-write"))) {
+                if (StringUtils.hasText(element.getAttribute("journal"))) {
+                    builder.addPropertyValue("journalEnabled", element.getAttribute("journal"));
+                }
+                if (StringUtils.hasText(element.getAttribute("journal-compaction-threshold"))) {
+                    builder.addPropertyValue("journalCompactionThreshold", element.getAttribute("journal-compaction-threshold"));
+                }
+            }
             builder.setInitMethodName("loadServices");
         }
 
@@ -617,6 +639,43 @@ public class CasNamespaceHandler extends NamespaceHandlerSupport {
             builder.addConstructorArgReference(element.getAttribute("hazelcast-instance"))
                     .addConstructorArgValue(element.getAttribute("tgt-entries-ttl-seconds"))
                     .addConstructorArgValue(element.getAttribute("st-entries-ttl-seconds"));
+            final Element tgtMapElement = DomUtils.getChildElementByTagName(element, "tgt-map");
+            if (tgtMapElement != null) {
+                builder.addConstructorArgValue(parseMapConfig(tgtMapElement))
+                        .addConstructorArgValue(parseMapConfig(DomUtils.getChildElementByTagName(element, "st-map")))
+                        .addConstructorArgValue(parseMapConfig(DomUtils.getChildElementByTagName(element, "proxy-map")));
+            }
+            if (StringUtils.hasText(element.getAttribute("tgt-near-cache"))) {
+                builder.addPropertyValue("ticketGrantingTicketNearCacheEnabled", element.getAttribute("tgt-near-cache"));
+            }
+            if (StringUtils.hasText(element.getAttribute("tgt-near-cache-max-size"))) {
+                builder.addPropertyValue("ticketGrantingTicketNearCacheMaxSize", element.getAttribute("tgt-near-cache-max-size"));
+            }
+            if (StringUtils.hasText(element.getAttribute("tgt-near-cache-ttl-seconds"))) {
+                builder.addPropertyValue("ticketGrantingTicketNearCacheTimeToLiveInSeconds", element.getAttribute("tgt-near-cache-ttl-seconds"));
+            }
+            if (StringUtils.hasText(element.getAttribute("async-st-writes"))) {
+                builder.addPropertyValue("asyncServiceTicketWritesEnabled", element.getAttribute("async-st-writes"));
+            }
+            if (StringUtils.hasText(element.getAttribute("max-pending-st-writes"))) {
+                builder.addPropertyValue("maxPendingServiceTicketWrites", element.getAttribute("max-pending-st-writes"));
+            }
+            if (StringUtils.hasText(element.getAttribute("metrics"))) {
+                builder.addPropertyReference("metrics", element.getAttribute("metrics"));
+            }
+        }
+
+        private AbstractBeanDefinition parseMapConfig(final Element element) {
+            final BeanDefinitionBuilder mapConfigBuilder = BeanDefinitionBuilder.genericBeanDefinition(MapConfig.class)
+                    .addPropertyValue("name", element.getAttribute("name"));
+            final String[][] attributesToProperties = {{"time-to-live-seconds", "timeToLiveSeconds"}, {"max-idle-seconds", "maxIdleSeconds"},
+                    {"in-memory-format", "inMemoryFormat"}, {"backup-count", "backupCount"}, {"async-backup-count", "asyncBackupCount"}};
+            for (final String[] attributeToProperty : attributesToProperties) {
+                if (StringUtils.hasText(element.getAttribute(attributeToProperty[0]))) {
+                    mapConfigBuilder.addPropertyValue(attributeToProperty[1], element.getAttribute(attributeToProperty[0]));
+                }
+            }
+            return mapConfigBuilder.getBeanDefinition();
         }
 
         @Override
@@ -625,6 +684,94 @@ public class CasNamespaceHandler extends NamespaceHandlerSupport {
         }
     }
 
+    /**
+     * Parses <pre>off-heap-ticket-registry</pre> elements into bean definitions of type {@link OffHeapTicketRegistry}
+     */
+    private static class OffHeapTicketRegistryBeanDefinitionParser extends AbstractSingleBeanDefinitionParser {
+
+        @Override
+        protected String resolveId(Element element, AbstractBeanDefinition definition, ParserContext parserContext) throws BeanDefinitionStoreException {
+            return "ticketRegistry";
+        }
+
+        @Override
+        protected void doParse(Element element, BeanDefinitionBuilder builder) {
+            builder.addConstructorArgValue(element.getAttribute("tgt-timeout-seconds"))
+                    .addConstructorArgValue(element.getAttribute("st-timeout-seconds"));
+            if (StringUtils.hasText(element.getAttribute("slab-size-mb"))) {
+                builder.addPropertyValue("slabSizeInMegabytes", element.getAttribute("slab-size-mb"));
+            }
+            if (StringUtils.hasText(element.getAttribute("max-slabs"))) {
+                builder.addPropertyValue("maxSlabs", element.getAttribute("max-slabs"));
+            }
+        }
+
+        @Override
+        protected Class<?> getBeanClass(Element element) {
+            return OffHeapTicketRegistry.class;
+        }
+    }
+
+    /**
+     * Parses <pre>mapped-ticket-registry</pre> elements into bean definitions of type {@link MappedTicketRegistry}
+     */
+    private static class MappedTicketRegistryBeanDefinitionParser extends AbstractSingleBeanDefinitionParser {
+
+        @Override
+        protected String resolveId(Element element, AbstractBeanDefinition definition, ParserContext parserContext) throws BeanDefinitionStoreException {
+            return "ticketRegistry";
+        }
+
+        @Override
+        protected void doParse(Element element, BeanDefinitionBuilder builder) {
+            builder.addConstructorArgValue(element.getAttribute("directory"))
+                    .addConstructorArgValue(element.getAttribute("tgt-timeout-seconds"))
+                    .addConstructorArgValue(element.getAttribute("st-timeout-seconds"));
+            if (StringUtils.hasText(element.getAttribute("segment-size-mb"))) {
+                builder.addPropertyValue("segmentSizeInMegabytes", element.getAttribute("segment-size-mb"));
+            }
+            if (StringUtils.hasText(element.getAttribute("max-segments"))) {
+                builder.addPropertyValue("maxSegments", element.getAttribute("max-segments"));
+            }
+        }
+
+        @Override
+        protected Class<?> getBeanClass(Element element) {
+            return MappedTicketRegistry.class;
+        }
+    }
+
+    /**
+     * Parses <pre>entropy-pool</pre> elements into a bean definition of type {@link EntropyPool} with bean id of
+     * <strong>entropyPool</strong>, and a bean definition of type {@link EntropyPoolAwareBeanPostProcessor} giving it to the
+     * generators of ticket and SAML ids
+     */
+    private static class EntropyPoolBeanDefinitionParser extends AbstractSingleBeanDefinitionParser {
+
+        @Override
+        protected void doParse(Element element, ParserContext parserContext, BeanDefinitionBuilder builder) {
+            final BeanDefinitionBuilder entropyPoolBuilder = BeanDefinitionBuilder.genericBeanDefinition(EntropyPool.class);
+            final String stripes = element.getAttribute("stripes");
+            final String bufferSize = element.getAttribute("buffer-size-bytes");
+            if (StringUtils.hasText(stripes) || StringUtils.hasText(bufferSize)) {
+                entropyPoolBuilder.addConstructorArgValue(StringUtils.hasText(stripes) ? stripes : 2 * Runtime.getRuntime().availableProcessors())
+                        .addConstructorArgValue(StringUtils.hasText(bufferSize) ? bufferSize : 4096);
+            }
+            parserContext.getRegistry().registerBeanDefinition("entropyPool", entropyPoolBuilder.getBeanDefinition());
+            builder.addConstructorArgReference("entropyPool");
+        }
+
+        @Override
+        protected Class<?> getBeanClass(Element element) {
+            return EntropyPoolAwareBeanPostProcessor.class;
+        }
+
+        @Override
+        protected boolean shouldGenerateId() {
+            return true;
+        }
+    }
+
     /**
      * Parses <pre>service-redirection-action</pre> elements into bean definitions of type {@link ServiceRedirectionAction}
      */
@@ -1,6 +1,7 @@
 package net.unicon.cas.addons.info;
 
 import net.unicon.cas.addons.ticket.BulkRetrievalOfTicketsNotSupportedException;
+import net.unicon.cas.addons.ticket.SingleSignOnSessionsSummary;
 
 import java.util.Collection;
 import java.util.Map;
@@ -57,4 +58,15 @@ public interface SingleSignOnSessionsReport {
 	 */
 	Collection<Map<String, Object>> getActiveSsoSessions() throws BulkRetrievalOfTicketsNotSupportedException;
 
+	/**
+	 * Get aggregate metrics of active (unexpired) CAS' SSO sessions: their number, in total and per principal, and
+	 * histograms of the age of their authentication and of their number of uses.
+	 * <p/>
+	 * Prefer this method to {@link #getActiveSsoSessions()} when only aggregates are needed, as it does not build a view
+	 * of each session.
+	 *
+	 * @return metrics of the active SSO sessions, never <strong>null</strong>
+	 */
+	SingleSignOnSessionsSummary getActiveSsoSessionsSummary() throws BulkRetrievalOfTicketsNotSupportedException;
+
 }
@@ -35,6 +35,8 @@ public class SingleSignOnSessionsReportResource {
 
 	private static final String ROOT_REPORT_ACTIVE_SESSIONS_KEY = "activeSsoSessions";
 
+	private static final String ROOT_REPORT_ACTIVE_SESSIONS_SUMMARY_KEY = "activeSsoSessionsSummary";
+
 	private static final String ROOT_REPORT_NA_KEY = "notAvailable";
 
 	private static final Logger logger = LoggerFactory.getLogger(SingleSignOnSessionsReportResource.class);
@@ -52,7 +54,6 @@ public class SingleSignOnSessionsReportResource {
 	public Response showActiveSsoSessions() {
 		Map<String, Object> sessionsMap = new HashMap<String, Object>(1);
 		Collection<Map<String, Object>> activeSessions = null;
-		String jsonRepresentation = null;
 
 		try {
 			activeSessions = this.singleSignOnSessionsReport.getActiveSsoSessions();
@@ -63,8 +64,30 @@ public class SingleSignOnSessionsReportResource {
 			sessionsMap.put(ROOT_REPORT_NA_KEY, e.getMessage());
 		}
 
+		return toJsonResponse(sessionsMap);
+	}
+
+	@GET
+	@Path("summary")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response showActiveSsoSessionsSummary() {
+		Map<String, Object> summaryMap = new HashMap<String, Object>(1);
+
+		try {
+			summaryMap.put(ROOT_REPORT_ACTIVE_SESSIONS_SUMMARY_KEY, this.singleSignOnSessionsReport.getActiveSsoSessionsSummary());
+		}
+		catch (BulkRetrievalOfTicketsNotSupportedException e) {
+			logger.warn(e.getMessage(), e.getCause());
+			summaryMap.put(ROOT_REPORT_NA_KEY, e.getMessage());
+		}
+		return toJsonResponse(summaryMap);
+	}
+
+	private Response toJsonResponse(Map<String, Object> reportMap) {
+		String jsonRepresentation = null;
+
 		try {
-			jsonRepresentation = this.jsonMapper.writeValueAsString(sessionsMap);
+			jsonRepresentation = this.jsonMapper.writeValueAsString(reportMap);
 		}
 		catch (JsonProcessingException e) {
 			logger.error("An exception has been caught during an attempt to serialize <active sso sessions report>", e);
@@ -0,0 +1,71 @@
+package net.unicon.cas.addons.info;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import net.unicon.cas.addons.ticket.registry.TicketRegistryMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Collections;
+
+/**
+ * RESTful HTTP resource to expose <code>TicketRegistryMetrics</code> of this CAS node as <i>application/json</i> media type.
+ * <p/>
+ * Metrics are only recorded when the ticket registry is configured with them: without a <code>TicketRegistryMetrics</code>
+ * bean, they are reported as not available.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@Component
+@Path("/ticketRegistryMetrics")
+public class TicketRegistryMetricsResource {
+
+	private TicketRegistryMetrics ticketRegistryMetrics;
+
+	private final ObjectMapper jsonMapper = new ObjectMapper();
+
+	private static final String ROOT_REPORT_NA_KEY = "notAvailable";
+
+	private static final Logger logger = LoggerFactory.getLogger(TicketRegistryMetricsResource.class);
+
+	public TicketRegistryMetricsResource() {
+		this.jsonMapper.enable(SerializationFeature.INDENT_OUTPUT);
+	}
+
+	@Autowired(required = false)
+	public void setTicketRegistryMetrics(TicketRegistryMetrics ticketRegistryMetrics) {
+		this.ticketRegistryMetrics = ticketRegistryMetrics;
+	}
+
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response showTicketRegistryMetrics() {
+		String jsonRepresentation = null;
+
+		try {
+			if (this.ticketRegistryMetrics == null) {
+				jsonRepresentation = this.jsonMapper.writeValueAsString(Collections.singletonMap(ROOT_REPORT_NA_KEY,
+						"No metrics are recorded by the ticket registry"));
+			}
+			else {
+				jsonRepresentation = this.jsonMapper.writeValueAsString(this.ticketRegistryMetrics.toMap());
+			}
+		}
+		catch (JsonProcessingException e) {
+			logger.error("An exception has been caught during an attempt to serialize <ticket registry metrics>", e);
+			//HTTP 500
+			return Response.serverError().build();
+		}
+		//HTTP 200
+		return Response.ok(jsonRepresentation).build();
+	}
+}
@@ -3,6 +3,7 @@ package net.unicon.cas.addons.info.internal;
 import net.unicon.cas.addons.info.SingleSignOnSessionsReport;
 import net.unicon.cas.addons.support.ThreadSafe;
 import net.unicon.cas.addons.ticket.BulkRetrievalOfTicketsNotSupportedException;
+import net.unicon.cas.addons.ticket.SingleSignOnSessionsSummary;
 import net.unicon.cas.addons.ticket.TicketSupport;
 import org.jasig.cas.ticket.TicketGrantingTicket;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -44,4 +45,9 @@ public class DefaultSingleSignOnSessionsReport implements SingleSignOnSessionsRe
 		}
 		return Collections.unmodifiableCollection(activeSessions);
 	}
+
+	@Override
+	public SingleSignOnSessionsSummary getActiveSsoSessionsSummary() throws BulkRetrievalOfTicketsNotSupportedException {
+		return this.ticketSupport.getSingleSignOnSessionsSummary();
+	}
 }
@@ -1,5 +1,7 @@
 package net.unicon.cas.addons.response.view.saml;
 
+import net.unicon.cas.addons.support.EntropyPool;
+import net.unicon.cas.addons.support.EntropyPoolAware;
 import org.jasig.cas.authentication.principal.SamlService;
 import org.jasig.cas.authentication.principal.WebApplicationService;
 import org.jasig.cas.util.CasHTTPSOAP11Encoder;
@@ -42,23 +44,31 @@ import java.util.Map;
  * small changes to the {@link #newSamlObject(Class)} method. Given the way {@link org.jasig.cas.web.view.AbstractSaml10ResponseView}
  * is implemented and the finality of {@link org.jasig.cas.web.view.AbstractSaml10ResponseView#newSamlObject(Class)},
  * the entire class structure was ported over and tweaks made to SAML object creation.</p>
+ * <p>When given an {@link EntropyPool}, the random bytes of the ids of SAML objects are taken from the pool.</p>
  * @see #newSamlObject(Class)
  * @see Saml10SuccessResponseView
  * @author Misagh Moayyed
  * @since 1.7
  */
-public abstract class NoSamlNamespaceAbstractSaml10ResponseView extends AbstractCasView {
+public abstract class NoSamlNamespaceAbstractSaml10ResponseView extends AbstractCasView implements EntropyPoolAware {
 
     private static final String DEFAULT_ELEMENT_NAME_FIELD = "DEFAULT_ELEMENT_NAME";
 
     private static final String DEFAULT_ENCODING = "UTF-8";
 
+    /** Count of random bytes of an id, as used by <code>SecureRandomIdentifierGenerator</code>. */
+    private static final int ID_RANDOM_BYTES = 16;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     private final SamlArgumentExtractor samlArgumentExtractor = new SamlArgumentExtractor();
 
     private final HTTPSOAP11Encoder encoder = new CasHTTPSOAP11Encoder();
 
     private final SecureRandomIdentifierGenerator idGenerator;
 
+    private volatile EntropyPool entropyPool;
+
     @NotNull
     private String encoding = DEFAULT_ENCODING;
 
@@ -71,6 +81,11 @@ public abstract class NoSamlNamespaceAbstractSaml10ResponseView extends Abstract
         this.encoding = encoding;
     }
 
+    @Override
+    public void setEntropyPool(final EntropyPool entropyPool) {
+        this.entropyPool = entropyPool;
+    }
+
     static {
         try {
             // Initialize OpenSAML default configuration
@@ -133,7 +148,20 @@ public abstract class NoSamlNamespaceAbstractSaml10ResponseView extends Abstract
 
 
     protected final String generateId() {
-        return this.idGenerator.generateIdentifier();
+        final EntropyPool pool = this.entropyPool;
+        if (pool == null) {
+            return this.idGenerator.generateIdentifier();
+        }
+        //Same format as SecureRandomIdentifierGenerator: an underscore followed by the bytes in hex
+        final byte[] bytes = new byte[ID_RANDOM_BYTES];
+        pool.nextBytes(bytes);
+        final char[] id = new char[1 + 2 * ID_RANDOM_BYTES];
+        id[0] = '_';
+        for (int i = 0; i < ID_RANDOM_BYTES; i++) {
+            id[1 + 2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            id[2 + 2 * i] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(id);
     }
 
     protected final <T extends SAMLObject> T newSamlObject(final Class<T> objectType) {
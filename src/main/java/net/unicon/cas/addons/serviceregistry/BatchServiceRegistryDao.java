@@ -0,0 +1,33 @@
+package net.unicon.cas.addons.serviceregistry;
+
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.services.ServiceRegistryDao;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Extension of <code>ServiceRegistryDao</code> for registries able to apply a whole batch of changes at once, e.g. with
+ * a single write to the underlying store, instead of one write per service definition.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+public interface BatchServiceRegistryDao extends ServiceRegistryDao {
+
+    /**
+     * Save the given service definitions, replacing existing definitions with the same ids and assigning ids to new ones.
+     *
+     * @param registeredServices service definitions to save
+     * @return the saved service definitions
+     */
+    List<RegisteredService> saveAll(Collection<RegisteredService> registeredServices);
+
+    /**
+     * Delete the given service definitions.
+     *
+     * @param registeredServices service definitions to delete
+     * @return the number of service definitions which existed and have been deleted
+     */
+    int deleteAll(Collection<RegisteredService> registeredServices);
+}
@@ -0,0 +1,99 @@
+package net.unicon.cas.addons.serviceregistry;
+
+import net.unicon.cas.addons.support.ThreadSafe;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.services.ReloadableServicesManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Implementation of <code>ReloadableServicesManager</code> which resolves services through the lookup index maintained
+ * by {@link JsonServiceRegistryDao} instead of scanning all of the registered services in turn, like the default CAS
+ * services manager does. Lookup cost thus stays close to constant regardless of the number of registered services.
+ * <p/>
+ * This implementation does not keep a copy of the registered services; it reads through to the DAO, which refreshes
+ * itself whenever the underlying JSON resource changes. Therefore {@link #reload()} has nothing to do.
+ * <p/>
+ * To use, replace CAS' default <code>servicesManager</code> bean definition with this class, passing the
+ * <code>serviceRegistryDao</code> as the constructor argument.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@ThreadSafe
+public final class IndexedServicesManager implements ReloadableServicesManager {
+
+    private final JsonServiceRegistryDao serviceRegistryDao;
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexedServicesManager.class);
+
+    public IndexedServicesManager(final JsonServiceRegistryDao serviceRegistryDao) {
+        this.serviceRegistryDao = serviceRegistryDao;
+    }
+
+    @Override
+    public RegisteredService save(final RegisteredService registeredService) {
+        return this.serviceRegistryDao.save(registeredService);
+    }
+
+    @Override
+    public RegisteredService delete(final long id) {
+        final RegisteredService registeredService = this.serviceRegistryDao.findServiceById(id);
+        if (registeredService != null) {
+            this.serviceRegistryDao.delete(registeredService);
+        }
+        return registeredService;
+    }
+
+    @Override
+    public RegisteredService findServiceBy(final Service service) {
+        return this.serviceRegistryDao.findServiceBy(service);
+    }
+
+    @Override
+    public RegisteredService findServiceBy(final long id) {
+        final RegisteredService registeredService = this.serviceRegistryDao.findServiceById(id);
+        return registeredService == null ? null : copyOf(registeredService);
+    }
+
+    /**
+     * @return copies of the registered services, so that callers cannot modify the instances of the lookup index
+     */
+    @Override
+    public Collection<RegisteredService> getAllServices() {
+        final List<RegisteredService> services = this.serviceRegistryDao.getServicesIndex().getServices();
+        final List<RegisteredService> copies = new ArrayList<RegisteredService>(services.size());
+        for (final RegisteredService registeredService : services) {
+            copies.add(copyOf(registeredService));
+        }
+        return Collections.unmodifiableList(copies);
+    }
+
+    @Override
+    public boolean matchesExistingService(final Service service) {
+        return findServiceBy(service) != null;
+    }
+
+    @Override
+    public void reload() {
+        logger.debug("Registered services are read through from the [{}] lookup index. Nothing to reload.",
+                this.serviceRegistryDao.getClass().getSimpleName());
+    }
+
+    /**
+     * Clones the given service like the CAS services manager does, falling back to the service itself if it cannot be.
+     */
+    private static RegisteredService copyOf(final RegisteredService registeredService) {
+        try {
+            return registeredService.clone();
+        } catch (final CloneNotSupportedException e) {
+            return registeredService;
+        }
+    }
+}
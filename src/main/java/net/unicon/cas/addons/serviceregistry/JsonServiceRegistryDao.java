@@ -3,38 +3,59 @@ package net.unicon.cas.addons.serviceregistry;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.PatternSyntaxException;
 
 import net.unicon.cas.addons.support.GuardedBy;
 import net.unicon.cas.addons.support.ResourceChangeDetectingEventNotifier;
 import net.unicon.cas.addons.support.ThreadSafe;
 
-import org.jasig.cas.services.InMemoryServiceRegistryDaoImpl;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.services.AbstractRegisteredService;
 import org.jasig.cas.services.RegisteredService;
 import org.jasig.cas.services.ReloadableServicesManager;
-import org.jasig.cas.services.ServiceRegistryDao;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.context.ApplicationListener;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Implementation of <code>ServiceRegistryDao</code> that reads services definition from JSON configuration file at the Spring Application Context
- * initialization time. After un-marshaling services from JSON blob, delegates the storage and retrieval to <code>InMemoryServiceRegistryDaoImpl</code>
+ * initialization time. After un-marshaling services from JSON blob, keeps them in an immutable {@link RegisteredServicesIndex} snapshot
+ * which is atomically swapped whenever services are saved, deleted or reloaded, so that reads never block.
  * <p/>
  * This class implements ${link ApplicationListener<ResourceChangeDetectingEventNotifier.ResourceChangedEvent>} to reload services definitions in real-time.
+ * Reloads only re-bind the records that were added or changed, and a {@link RegisteredServicesChangedEvent} carrying the delta is
+ * published once it has been applied.
+ * <p/>
+ * The snapshot also serves as a lookup index so that {@link #findServiceBy(Service)} does not have to evaluate every registered
+ * service's pattern in turn. See {@link IndexedServicesManager}.
  * This class is thread safe.
  *
  * @author Dmitriy Kopylenko
@@ -42,11 +63,15 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * @since 0.8
  */
 @ThreadSafe
-public class JsonServiceRegistryDao implements ServiceRegistryDao,
+public class JsonServiceRegistryDao implements BatchServiceRegistryDao, ApplicationEventPublisherAware,
 		ApplicationListener<ResourceChangeDetectingEventNotifier.ResourceChangedEvent> {
 
-	@GuardedBy("mutexMonitor")
-	private final InMemoryServiceRegistryDaoImpl delegateServiceRegistryDao = new InMemoryServiceRegistryDaoImpl();
+	/**
+	 * Immutable snapshot of the registered services. Readers just dereference it and never block;
+	 * writers build a new snapshot off to the side and publish it with a single reference swap.
+	 */
+	private final AtomicReference<RegisteredServicesIndex> servicesSnapshot =
+			new AtomicReference<RegisteredServicesIndex>(new RegisteredServicesIndex(new ArrayList<RegisteredService>()));
 
 	protected final ObjectMapper objectMapper = new ObjectMapper();
 
@@ -54,7 +79,27 @@ public class JsonServiceRegistryDao implements ServiceRegistryDao,
 
 	private ReloadableServicesManager servicesManager;
 
-	private final Object mutexMonitor = new Object();
+	private ApplicationEventPublisher applicationEventPublisher;
+
+	private volatile boolean precompileRegexPatterns = false;
+
+	private volatile boolean combineRegexPatterns = false;
+
+	/**
+	 * SHA1 digest (hex) of the contents this DAO itself last wrote to the services registry resource, if any.
+	 */
+	private volatile String selfWrittenSha1Hex;
+
+	/**
+	 * Content digests of the records read by the last load, keyed by service id. Used to detect which records changed.
+	 */
+	@GuardedBy("writeMonitor")
+	private Map<Long, String> recordDigests = new HashMap<Long, String>();
+
+	/**
+	 * Serializes writers (save, delete and reload) among themselves. Readers never acquire it.
+	 */
+	private final Object writeMonitor = new Object();
 
 	private static final String REGEX_PREFIX = "^";
 
@@ -62,6 +107,10 @@ public class JsonServiceRegistryDao implements ServiceRegistryDao,
 
 	private static final String SERVICES_ID_KEY = "serviceId";
 
+	protected static final String ID_KEY = "id";
+
+	private static final String DIGEST_ALGORITHM = "SHA-1";
+
 	protected final Logger logger = LoggerFactory.getLogger(this.getClass());
 
 	public JsonServiceRegistryDao(final Resource servicesConfigFile) {
@@ -72,118 +121,417 @@ public class JsonServiceRegistryDao implements ServiceRegistryDao,
 		this.servicesManager = servicesManager;
 	}
 
+	/**
+	 * When set to true, <code>^</code>-prefixed service ids are compiled and attached to their service definitions while loading,
+	 * and a service id that fails to compile aborts the load (keeping the previously loaded services in place) instead of
+	 * silently falling back to an ANT-style definition. Defaults to false.
+	 */
+	public final void setPrecompileRegexPatterns(final boolean precompileRegexPatterns) {
+		this.precompileRegexPatterns = precompileRegexPatterns;
+	}
+
+	/**
+	 * When set to true, regular expression service ids within the safe subset supported by {@link RegexServicesAutomaton}
+	 * are matched together by a single combined automaton, in one pass over the service URL, rather than one by one.
+	 * Service ids outside of that subset keep being matched individually. Defaults to false.
+	 */
+	public final void setCombineRegexPatterns(final boolean combineRegexPatterns) {
+		synchronized (this.writeMonitor) {
+			this.combineRegexPatterns = combineRegexPatterns;
+			publishServices(this.servicesSnapshot.get().getServicesInLoadOrder());
+		}
+	}
+
+	@Override
+	public final void setApplicationEventPublisher(final ApplicationEventPublisher applicationEventPublisher) {
+		this.applicationEventPublisher = applicationEventPublisher;
+	}
+
 	@Override
 	public final RegisteredService save(RegisteredService registeredService) {
-		synchronized (this.mutexMonitor) {
-			return saveInternal(registeredService);
+		final RegisteredService saved;
+		synchronized (this.writeMonitor) {
+			saved = saveInternal(registeredService);
 		}
+		afterWrite();
+		return saved;
 	}
 
 	@Override
 	public final boolean delete(RegisteredService registeredService) {
-		synchronized (this.mutexMonitor) {
-			return deleteInternal(registeredService);
+		final boolean deleted;
+		synchronized (this.writeMonitor) {
+			deleted = deleteInternal(registeredService);
 		}
+		afterWrite();
+		return deleted;
 	}
 
+	/**
+	 * Save all of the given services with a single snapshot swap, then reload the services manager once.
+	 */
 	@Override
-	public final RegisteredService findServiceById(long id) {
-		synchronized (this.mutexMonitor) {
-			return this.delegateServiceRegistryDao.findServiceById(id);
+	public final List<RegisteredService> saveAll(final Collection<RegisteredService> registeredServices) {
+		final List<RegisteredService> saved;
+		synchronized (this.writeMonitor) {
+			saved = saveAllInternal(new ArrayList<RegisteredService>(registeredServices));
 		}
+		afterWrite();
+		reloadServicesManager();
+		return saved;
+	}
+
+	/**
+	 * Delete all of the given services with a single snapshot swap, then reload the services manager once.
+	 */
+	@Override
+	public final int deleteAll(final Collection<RegisteredService> registeredServices) {
+		final int deleted;
+		synchronized (this.writeMonitor) {
+			deleted = deleteAllInternal(registeredServices);
+		}
+		afterWrite();
+		if (deleted > 0) {
+			reloadServicesManager();
+		}
+		return deleted;
+	}
+
+	@Override
+	public final RegisteredService findServiceById(long id) {
+		return this.servicesSnapshot.get().findServiceById(id);
 	}
 
 	@Override
 	public final List<RegisteredService> load() {
-		synchronized (this.mutexMonitor) {
-            return this.delegateServiceRegistryDao.load();
+		return this.servicesSnapshot.get().getServicesInLoadOrder();
+	}
+
+	/**
+	 * Find the first registered service in evaluation order matching the given service using the lookup index
+	 * built at services (re)load time.
+	 *
+	 * @param service to find the registered service for
+	 * @return matching registered service or <code>null</code> if there is none
+	 */
+	public final RegisteredService findServiceBy(final Service service) {
+		return this.servicesSnapshot.get().findServiceBy(service);
+	}
+
+	/**
+	 * @return the current immutable snapshot and lookup index of registered services
+	 */
+	public final RegisteredServicesIndex getServicesIndex() {
+		return this.servicesSnapshot.get();
+	}
+
+	@GuardedBy("writeMonitor")
+	protected RegisteredService saveInternal(final RegisteredService registeredService) {
+		final RegisteredServicesIndex current = this.servicesSnapshot.get();
+		if (registeredService.getId() < 0 && registeredService instanceof AbstractRegisteredService) {
+			((AbstractRegisteredService) registeredService).setId(current.highestId() + 1);
 		}
+		//In-memory modification: make sure the next reload re-binds this record from the resource
+		this.recordDigests.remove(registeredService.getId());
+		this.servicesSnapshot.set(current.withSaved(registeredService));
+		return registeredService;
 	}
 
-    protected RegisteredService saveInternal(final RegisteredService registeredService) {
-        return this.delegateServiceRegistryDao.save(registeredService);
-    }
+	@GuardedBy("writeMonitor")
+	protected boolean deleteInternal(final RegisteredService registeredService) {
+		final RegisteredServicesIndex current = this.servicesSnapshot.get();
+		final RegisteredServicesIndex updated = current.withDeleted(registeredService.getId());
+		this.recordDigests.remove(registeredService.getId());
+		this.servicesSnapshot.set(updated);
+		return updated != current;
+	}
+
+	@GuardedBy("writeMonitor")
+	protected List<RegisteredService> saveAllInternal(final List<RegisteredService> registeredServices) {
+		final RegisteredServicesIndex current = this.servicesSnapshot.get();
+		long highestId = current.highestId();
+		for (final RegisteredService registeredService : registeredServices) {
+			highestId = Math.max(highestId, registeredService.getId());
+		}
+		for (final RegisteredService registeredService : registeredServices) {
+			if (registeredService.getId() < 0 && registeredService instanceof AbstractRegisteredService) {
+				((AbstractRegisteredService) registeredService).setId(++highestId);
+			}
+			this.recordDigests.remove(registeredService.getId());
+		}
+		this.servicesSnapshot.set(current.withSavedAll(registeredServices));
+		return registeredServices;
+	}
+
+	@GuardedBy("writeMonitor")
+	protected int deleteAllInternal(final Collection<RegisteredService> registeredServices) {
+		final RegisteredServicesIndex current = this.servicesSnapshot.get();
+		final Set<Long> ids = new HashSet<Long>();
+		for (final RegisteredService registeredService : registeredServices) {
+			if (current.findServiceById(registeredService.getId()) != null) {
+				ids.add(registeredService.getId());
+			}
+			this.recordDigests.remove(registeredService.getId());
+		}
+		this.servicesSnapshot.set(current.withDeletedAll(ids));
+		return ids.size();
+	}
+
+	private void reloadServicesManager() {
+		if (this.servicesManager != null) {
+			this.servicesManager.reload();
+		}
+	}
+
+	/**
+	 * Hook invoked after every save or delete, once the write lock has been released, so that e.g. waiting for the change
+	 * to reach the disk does not hold up other writers. Does nothing by default.
+	 */
+	protected void afterWrite() {
+	}
+
+	/**
+	 * Hook for subclasses which keep changes to the service definitions outside of the services registry resource. Invoked
+	 * with the write lock held on every (re)load, after the services have been read from the resource and before they are
+	 * published. Does nothing by default.
+	 *
+	 * @param resolvedServices services read from the resource, to apply the changes to
+	 * @return ids of the service definitions which have been added, replaced or removed
+	 */
+	@GuardedBy("writeMonitor")
+	protected Set<Long> applyPendingChanges(final List<RegisteredService> resolvedServices) {
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Record the SHA1 digest of contents about to be written to the services registry resource by this DAO itself, so that
+	 * the change event it causes does not trigger a redundant reload. The written changes must be published to the
+	 * snapshot by the writer.
+	 *
+	 * @param sha1Hex SHA1 digest of the written contents, as hex
+	 */
+	protected final void expectSelfWrittenContent(final String sha1Hex) {
+		this.selfWrittenSha1Hex = sha1Hex;
+	}
+
+	/**
+	 * Run the given task holding the lock which serializes saves, deletes and reloads.
+	 */
+	protected final void runWithWriteLock(final Runnable task) {
+		synchronized (this.writeMonitor) {
+			task.run();
+		}
+	}
+
+	/**
+	 * Atomically publish the given services as the new snapshot.
+	 */
+	protected final void publishServices(final List<RegisteredService> registeredServices) {
+		this.servicesSnapshot.set(new RegisteredServicesIndex(registeredServices, this.combineRegexPatterns));
+	}
 
-    protected boolean deleteInternal(final RegisteredService registeredService) {
-        return this.delegateServiceRegistryDao.delete(registeredService);
-    }
 	/**
 	 * This method is used as a Spring bean loadServices-method
 	 * as well as the reloading method when the change in the services definition resource is detected at runtime
+	 * <p/>
+	 * The resource is read with a streaming parser: the <code>services</code> array is walked record by record and each record
+	 * is bound straight to its <code>RegisteredService</code> type, so only one record's tree is held in memory at a time instead
+	 * of an object graph of the whole resource.
+	 * <p/>
+	 * Reloads are incremental: records whose content digest did not change since the previous load keep their already bound
+	 * <code>RegisteredService</code> instances (along with anything those cache, e.g. compiled patterns). Only added and changed
+	 * records are bound anew.
 	 */
-    @SuppressWarnings("unchecked")
     public final List<RegisteredService> loadServices() {
         logger.info("Loading Registered Services from: [ {} ]...", this.servicesConfigFile);
         final List<RegisteredService> resolvedServices = new ArrayList<RegisteredService>();
-        
+        synchronized (this.writeMonitor) {
+            loadServicesIncrementally(resolvedServices);
+        }
+        return resolvedServices;
+    }
+
+    /**
+     * Load the services from the resource, diffing them against the current snapshot, and publish the result as the new snapshot.
+     *
+     * @param resolvedServices list to collect all of the loaded services into
+     * @return the delta against the previous snapshot or <code>null</code> if the resource does not exist and there are no
+     * pending changes
+     */
+    @GuardedBy("writeMonitor")
+    private RegisteredServicesChangedEvent loadServicesIncrementally(final List<RegisteredService> resolvedServices) {
         try {
-            
-            final Map<String, List> m = unmarshalServicesRegistryResourceIntoMap();
-            
-            if (m != null) {
-              final Iterator<Map> i = m.get(SERVICES_KEY).iterator();
-              while (i.hasNext()) {
-                  final Map<?, ?> record = i.next();
-                  final String svcId = ((String) record.get(SERVICES_ID_KEY));
-                  final RegisteredService svc = getRegisteredServiceInstance(svcId);
-                  if (svc != null) {
-                      resolvedServices.add(this.objectMapper.convertValue(record, svc.getClass()));
-                      logger.debug("Unmarshaled {}: {}", svc.getClass().getSimpleName(), record);
-                  }
-              }
-  
-              synchronized (this.mutexMonitor) {
-                  this.delegateServiceRegistryDao.setRegisteredServices(resolvedServices);
-              }
+            final InputStream stream = openServicesRegistryResource();
+            final IncrementalLoad load = new IncrementalLoad(this.servicesSnapshot.get(), resolvedServices);
+            if (stream != null) {
+                final JsonParser parser = this.objectMapper.getFactory().createParser(stream);
+                try {
+                    readServices(parser, load);
+                } finally {
+                    parser.close();
+                    IOUtils.closeQuietly(stream);
+                }
             }
+
+            final Set<Long> pendingChanges = applyPendingChanges(resolvedServices);
+            if (stream == null && pendingChanges.isEmpty()) {
+                return null;
+            }
+            for (final Long id : pendingChanges) {
+                //Not what the resource holds for this id: make sure the next reload re-binds the record
+                load.digests.remove(id);
+            }
+            this.recordDigests = load.digests;
+            publishServices(resolvedServices);
+            return load.toChangedEvent();
         } catch (final Throwable e) {
             throw new RuntimeException(e);
         }
-        return resolvedServices;
     }
 
-    private Map<String, List> unmarshalServicesRegistryResourceIntoMap() throws IOException {
+    private InputStream openServicesRegistryResource() throws IOException {
         try {
-          final InputStream stream = this.servicesConfigFile.getInputStream();
-          
-          if (stream != null) {
-              return this.objectMapper.readValue(stream, Map.class);
-          }  
+          return this.servicesConfigFile.getInputStream();
         } catch (final FileNotFoundException e) {
             logger.warn("Resource [{}] does not exist or has no service definitions.", this.servicesConfigFile);
         }
         
         return null;
     }
+
+    /**
+     * Walk the root object token by token, handing each record of the <code>services</code> array over as soon as it is read.
+     * Any other root level fields are skipped.
+     */
+    private void readServices(final JsonParser parser, final IncrementalLoad load) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Services registry resource must contain a JSON object", parser.getCurrentLocation());
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String fieldName = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if (!SERVICES_KEY.equals(fieldName) || value != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                final JsonNode record = parser.readValueAsTree();
+                load.accept(record);
+            }
+        }
+    }
+
+    /**
+     * Bind a service definition record to the <code>RegisteredService</code> type its service id calls for.
+     */
+    protected final RegisteredService bindRecord(final JsonNode record) throws IOException {
+        final JsonNode svcIdNode = record.get(SERVICES_ID_KEY);
+        final Class<? extends RegisteredService> svcClass =
+                getRegisteredServiceClass(svcIdNode != null ? svcIdNode.asText() : null);
+        final RegisteredService svc = this.objectMapper.treeToValue(record, svcClass);
+        if (this.precompileRegexPatterns && svc instanceof RegexRegisteredServiceWithAttributes) {
+            ((RegexRegisteredServiceWithAttributes) svc).precompileServicePattern();
+        }
+        logger.debug("Unmarshaled {}: {}", svcClass.getSimpleName(), record);
+        return svc;
+    }
+
+    /**
+     * State of a single (re)load: compares each record's content digest with the one recorded by the previous load
+     * and only binds records that were added or changed.
+     */
+    private final class IncrementalLoad {
+
+        private final RegisteredServicesIndex previous;
+
+        private final List<RegisteredService> resolvedServices;
+
+        private final Map<Long, String> digests = new HashMap<Long, String>();
+
+        private final MessageDigest sha1;
+
+        private IncrementalLoad(final RegisteredServicesIndex previous, final List<RegisteredService> resolvedServices)
+                throws NoSuchAlgorithmException {
+            this.previous = previous;
+            this.resolvedServices = resolvedServices;
+            this.sha1 = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+
+        private void accept(final JsonNode record) throws IOException {
+            final String digest = Hex.encodeHexString(this.sha1.digest(objectMapper.writeValueAsBytes(record)));
+            final JsonNode idNode = record.get(ID_KEY);
+            final RegisteredService existing = idNode != null ? this.previous.findServiceById(idNode.asLong()) : null;
+
+            final RegisteredService svc;
+            if (existing != null && digest.equals(recordDigests.get(existing.getId()))) {
+                svc = existing;
+            }
+            else {
+                svc = bindRecord(record);
+            }
+            this.resolvedServices.add(svc);
+            this.digests.put(svc.getId(), digest);
+        }
+
+        /**
+         * Compare the services as finally resolved with the previous snapshot: re-used instances are unchanged.
+         */
+        private RegisteredServicesChangedEvent toChangedEvent() {
+            final List<RegisteredService> addedServices = new ArrayList<RegisteredService>();
+            final List<RegisteredService> changedServices = new ArrayList<RegisteredService>();
+            final Set<Long> resolvedIds = new HashSet<Long>();
+            for (final RegisteredService svc : this.resolvedServices) {
+                final RegisteredService existing = this.previous.findServiceById(svc.getId());
+                if (existing == null) {
+                    addedServices.add(svc);
+                }
+                else if (existing != svc) {
+                    changedServices.add(svc);
+                }
+                resolvedIds.add(svc.getId());
+            }
+            final List<RegisteredService> removedServices = new ArrayList<RegisteredService>();
+            for (final RegisteredService svc : this.previous.getServices()) {
+                if (!resolvedIds.contains(svc.getId())) {
+                    removedServices.add(svc);
+                }
+            }
+            return new RegisteredServicesChangedEvent(JsonServiceRegistryDao.this, addedServices, changedServices, removedServices);
+        }
+    }
         
     private boolean isValidRegexPattern(final String pattern) {
         boolean valid = false;
         try {
             if (pattern.startsWith(REGEX_PREFIX)) {
-                Pattern.compile(pattern);
+                RegexPatternCache.getSharedInstance().compile(pattern);
                 valid = true;
             }
         } catch (final PatternSyntaxException e) {
+            if (this.precompileRegexPatterns) {
+                throw new IllegalArgumentException(String.format("Service id [%s] of resource [%s] is not a valid regular expression",
+                        pattern, this.servicesConfigFile), e);
+            }
             logger.debug("Failed to identify [{}] as a regular expression", pattern);
         }
         return valid;
     }
 
     /**
-     * Constructs an instance of {@link RegisteredServiceWithAttributes} based on the
+     * Determines the type of {@link RegisteredServiceWithAttributes} based on the
      * syntax of the pattern defined. If the pattern is considered a valid regular expression,
-     * an instance of {@link RegexRegisteredServiceWithAttributes} is created. Otherwise,
+     * {@link RegexRegisteredServiceWithAttributes} is used. Otherwise,
      * {@link RegisteredServiceWithAttributesImpl}.
      * @see #isValidRegexPattern(String)
      * @param pattern the pattern of the service definition
-     * @return  an instance of {@link RegisteredServiceWithAttributes}
+     * @return  a type of {@link RegisteredServiceWithAttributes}
      */
-    private RegisteredService getRegisteredServiceInstance(final String pattern) {
-        if (isValidRegexPattern(pattern)) {
-            return new RegexRegisteredServiceWithAttributes();
+    private Class<? extends RegisteredService> getRegisteredServiceClass(final String pattern) {
+        if (pattern != null && isValidRegexPattern(pattern)) {
+            return RegexRegisteredServiceWithAttributes.class;
         }
 
-        return new RegisteredServiceWithAttributesImpl();
+        return RegisteredServiceWithAttributesImpl.class;
     }
 
     @Override
@@ -198,11 +546,46 @@ public class JsonServiceRegistryDao implements ServiceRegistryDao,
 			logger.error("An exception is caught while trying to access JSON resource: ", e);
 			return;
 		}
+		if (isSelfWrittenContent(resourceChangedEvent)) {
+			logger.debug("Ignoring change event for JSON resource {} caused by a write of this DAO", resourceChangedEvent.getResourceUri());
+			return;
+		}
 		logger.debug("Received change event for JSON resource {}. Reloading services...", resourceChangedEvent.getResourceUri());
-		synchronized (this.mutexMonitor) {
-			loadServices();
+		synchronized (this.writeMonitor) {
+			final RegisteredServicesChangedEvent changes = loadServicesIncrementally(new ArrayList<RegisteredService>());
+			if (changes == null || changes.isEmpty()) {
+				logger.debug("No service definitions have changed in JSON resource {}", resourceChangedEvent.getResourceUri());
+				return;
+			}
+			logger.info("Reloaded service definitions from JSON resource {}: {}", resourceChangedEvent.getResourceUri(), changes);
 			this.servicesManager.reload();
+			if (this.applicationEventPublisher != null) {
+				this.applicationEventPublisher.publishEvent(changes);
+			}
+		}
+	}
+
+	private boolean isSelfWrittenContent(final ResourceChangeDetectingEventNotifier.ResourceChangedEvent resourceChangedEvent) {
+		final String selfWritten = this.selfWrittenSha1Hex;
+		if (selfWritten == null) {
+			return false;
+		}
+		String changed = resourceChangedEvent.getResourceSha1Hex();
+		if (changed == null) {
+			InputStream stream = null;
+			try {
+				stream = this.servicesConfigFile.getInputStream();
+				changed = DigestUtils.sha1Hex(stream);
+			}
+			catch (final IOException e) {
+				logger.debug("Could not compute the digest of JSON resource {}", resourceChangedEvent.getResourceUri(), e);
+				return false;
+			}
+			finally {
+				IOUtils.closeQuietly(stream);
+			}
 		}
+		return selfWritten.equalsIgnoreCase(changed);
 	}
 
 	/**
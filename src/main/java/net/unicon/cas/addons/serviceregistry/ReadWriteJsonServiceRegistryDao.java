@@ -1,20 +1,38 @@
 package net.unicon.cas.addons.serviceregistry;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.unicon.cas.addons.support.GuardedBy;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
 import org.jasig.cas.services.AbstractRegisteredService;
 import org.jasig.cas.services.RegisteredService;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.core.io.Resource;
 
-import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
-import java.io.OutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * An extension of the JsonServiceRegistryDao that is able to support both read/write operations when
@@ -22,31 +40,91 @@ import java.util.Random;
  * <p/>
  * Note: This implementation is NOT transactional nor is it thread-safe. No such implementation can be possible on top
  * of an ordinary file system.
+ * <p/>
+ * By default, every save or delete re-reads and re-writes the whole services registry file. In journal mode
+ * (see {@link #setJournalEnabled(boolean)}) each save or delete instead appends a single record to a journal file next
+ * to the registry file, made durable with group <code>fsync</code>s, and applies the change to the in-memory services
+ * right away. The journal is compacted into the registry file in the background once it grows beyond
+ * {@link #setJournalCompactionThreshold(int)} records, and whatever is left of it is replayed on top of the registry
+ * file on (re)load, e.g. after a crash.
  *
  * @author Misagh Moayyed
  * @author Unicon, inc.
  * @since 1.6
  */
-public final class ReadWriteJsonServiceRegistryDao extends JsonServiceRegistryDao {
+public final class ReadWriteJsonServiceRegistryDao extends JsonServiceRegistryDao implements DisposableBean {
+
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final String JOURNAL_OPERATION_KEY = "op";
+
+    private static final String JOURNAL_SAVE_OPERATION = "save";
+
+    private static final String JOURNAL_DELETE_OPERATION = "delete";
+
+    private static final String JOURNAL_SERVICE_KEY = "service";
+
+    private static final int DEFAULT_JOURNAL_COMPACTION_THRESHOLD = 1000;
+
+    private ServicesJournal journal;
+
+    private int journalCompactionThreshold = DEFAULT_JOURNAL_COMPACTION_THRESHOLD;
+
+    private ExecutorService compactionExecutor;
+
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
 
     public ReadWriteJsonServiceRegistryDao(final Resource servicesConfigFile) {
         super(servicesConfigFile);
         this.objectMapper.setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
     }
 
+    /**
+     * When set to true, saves and deletes are appended to a journal file next to the services registry file
+     * (with the <code>.journal</code> suffix) instead of re-writing the whole registry file every time. Defaults to false.
+     * Must be set before the services are loaded.
+     */
+    public void setJournalEnabled(final boolean journalEnabled) {
+        if (!journalEnabled) {
+            this.journal = null;
+            return;
+        }
+        try {
+            this.journal = new ServicesJournal(new File(this.servicesConfigFile.getFile().getPath() + JOURNAL_SUFFIX));
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Journal mode requires the services registry resource to be a file", e);
+        }
+        this.compactionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "services-journal-compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Number of journal records beyond which the journal is compacted into the services registry file. Defaults to 1000.
+     */
+    public void setJournalCompactionThreshold(final int journalCompactionThreshold) {
+        this.journalCompactionThreshold = journalCompactionThreshold;
+    }
+
     @Override
     protected RegisteredService saveInternal(final RegisteredService registeredService) {
+        assignIdIfNecessary(registeredService);
+        if (this.journal != null) {
+            appendSaveToJournal(registeredService);
+            return super.saveInternal(registeredService);
+        }
+
         logger.debug("Loading service definitions from resource [{}]", this.servicesConfigFile.getFilename());
         final List<RegisteredService> resolvedServices = super.loadServices();
         final List<RegisteredService> col = new ArrayList<RegisteredService>(resolvedServices);
 
-        if (registeredService.getId() < 0) {
-            if (registeredService instanceof AbstractRegisteredService) {
-                final Random random = new Random(registeredService.hashCode());
-                final int serviceId = random.nextInt(Integer.MAX_VALUE);
-                ((AbstractRegisteredService) registeredService).setId(serviceId);
-            }
-        }
         boolean foundAndRemovedService = false;
         final Iterator<RegisteredService> it = col.iterator();
         while(!foundAndRemovedService && it.hasNext()) {
@@ -57,12 +135,23 @@ public final class ReadWriteJsonServiceRegistryDao extends JsonServiceRegistryDa
         }
         col.add(registeredService);
 
-        saveListOfRegisteredServices(col);
+        if (saveListOfRegisteredServices(col)) {
+            //The change event caused by this write is ignored: publish the change right away
+            super.saveInternal(registeredService);
+        }
         return registeredService;
     }
 
     @Override
     protected boolean deleteInternal(final RegisteredService registeredService) {
+        if (this.journal != null) {
+            if (findServiceById(registeredService.getId()) == null) {
+                return false;
+            }
+            appendDeleteToJournal(registeredService.getId());
+            return super.deleteInternal(registeredService);
+        }
+
         logger.debug("Loading service definitions from resource [{}]", this.servicesConfigFile.getFilename());
         final List<RegisteredService> resolvedServices = super.loadServices();
         final RegisteredService regServiceToDelete = findServiceById(registeredService.getId());
@@ -72,34 +161,307 @@ public final class ReadWriteJsonServiceRegistryDao extends JsonServiceRegistryDa
             final List<RegisteredService> col = new ArrayList<RegisteredService>(resolvedServices);
             col.remove(regServiceToDelete);
 
-            saveListOfRegisteredServices(col);
+            if (saveListOfRegisteredServices(col)) {
+                super.deleteInternal(regServiceToDelete);
+            }
             return true;
         }
         return false;
     }
 
-    private void saveListOfRegisteredServices(final List<RegisteredService> col) {
-        OutputStream out = null;
-        FileOutputStream fout = null;
+    /**
+     * Apply the whole batch with a single write of the registry file, or a single journal sync in journal mode.
+     */
+    @Override
+    protected List<RegisteredService> saveAllInternal(final List<RegisteredService> registeredServices) {
+        for (final RegisteredService registeredService : registeredServices) {
+            assignIdIfNecessary(registeredService);
+        }
+        if (this.journal != null) {
+            for (final RegisteredService registeredService : registeredServices) {
+                appendSaveToJournal(registeredService);
+            }
+            return super.saveAllInternal(registeredServices);
+        }
+
+        logger.debug("Loading service definitions from resource [{}]", this.servicesConfigFile.getFilename());
+        final Map<Long, RegisteredService> services = new LinkedHashMap<Long, RegisteredService>();
+        for (final RegisteredService svc : super.loadServices()) {
+            services.put(svc.getId(), svc);
+        }
+        for (final RegisteredService registeredService : registeredServices) {
+            services.remove(registeredService.getId());
+            services.put(registeredService.getId(), registeredService);
+        }
+        if (saveListOfRegisteredServices(new ArrayList<RegisteredService>(services.values()))) {
+            super.saveAllInternal(registeredServices);
+        }
+        return registeredServices;
+    }
+
+    @Override
+    protected int deleteAllInternal(final Collection<RegisteredService> registeredServices) {
+        if (this.journal != null) {
+            for (final RegisteredService registeredService : registeredServices) {
+                if (findServiceById(registeredService.getId()) != null) {
+                    appendDeleteToJournal(registeredService.getId());
+                }
+            }
+            return super.deleteAllInternal(registeredServices);
+        }
+
+        logger.debug("Loading service definitions from resource [{}]", this.servicesConfigFile.getFilename());
+        final Map<Long, RegisteredService> services = new LinkedHashMap<Long, RegisteredService>();
+        for (final RegisteredService svc : super.loadServices()) {
+            services.put(svc.getId(), svc);
+        }
+        int deleted = 0;
+        for (final RegisteredService registeredService : registeredServices) {
+            if (services.remove(registeredService.getId()) != null) {
+                deleted++;
+            }
+        }
+        if (deleted > 0 && saveListOfRegisteredServices(new ArrayList<RegisteredService>(services.values()))) {
+            super.deleteAllInternal(registeredServices);
+        }
+        return deleted;
+    }
 
+    @Override
+    protected void afterWrite() {
+        final ServicesJournal journal = this.journal;
+        if (journal != null) {
+            try {
+                journal.sync(journal.appendedSequence());
+            } catch (final IOException e) {
+                throw new RuntimeException("Could not sync journal " + journal.getFile(), e);
+            }
+        }
+    }
+
+    /**
+     * Replay the journal on top of the services read from the registry file. Records which cannot be parsed are logged
+     * and skipped, and replay carries on with the records following them. Skipped records stay in the journal until it is
+     * compacted.
+     */
+    @Override
+    protected Set<Long> applyPendingChanges(final List<RegisteredService> resolvedServices) {
+        final Set<Long> modifiedIds = new HashSet<Long>();
+        if (this.journal == null) {
+            return modifiedIds;
+        }
+        try {
+            final List<byte[]> records = this.journal.read();
+            if (records.isEmpty()) {
+                return modifiedIds;
+            }
+            final Map<Long, RegisteredService> services = new LinkedHashMap<Long, RegisteredService>();
+            for (final RegisteredService svc : resolvedServices) {
+                services.put(svc.getId(), svc);
+            }
+            int replayed = 0;
+            int skipped = 0;
+            for (final byte[] bytes : records) {
+                try {
+                    final JsonNode record = this.objectMapper.readTree(bytes);
+                    final String operation = record.path(JOURNAL_OPERATION_KEY).asText();
+                    if (JOURNAL_SAVE_OPERATION.equals(operation)) {
+                        final RegisteredService svc = bindRecord(record.get(JOURNAL_SERVICE_KEY));
+                        services.remove(svc.getId());
+                        services.put(svc.getId(), svc);
+                        modifiedIds.add(svc.getId());
+                    }
+                    else if (JOURNAL_DELETE_OPERATION.equals(operation) && record.get(ID_KEY) != null) {
+                        services.remove(record.get(ID_KEY).asLong());
+                        modifiedIds.add(record.get(ID_KEY).asLong());
+                    }
+                    else {
+                        throw new IllegalStateException("Unknown journal record " + record);
+                    }
+                } catch (final Exception e) {
+                    logger.error("Skipping record [{}] of journal [{}] which cannot be parsed: {}",
+                            replayed + skipped + 1, this.journal.getFile(), new String(bytes, "UTF-8"), e);
+                    skipped++;
+                    continue;
+                }
+                replayed++;
+            }
+            resolvedServices.clear();
+            resolvedServices.addAll(services.values());
+            if (skipped > 0) {
+                logger.warn("Replayed [{}] journal records from [{}] and skipped [{}] records which cannot be parsed",
+                        replayed, this.journal.getFile(), skipped);
+            }
+            else {
+                logger.info("Replayed [{}] journal records from [{}]", replayed, this.journal.getFile());
+            }
+            if (replayed + skipped >= this.journalCompactionThreshold) {
+                scheduleCompaction();
+            }
+            return modifiedIds;
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not replay journal " + this.journal.getFile(), e);
+        }
+    }
+
+    /**
+     * Write the current services to the registry file and empty the journal. Does nothing unless in journal mode.
+     */
+    public void compactJournal() {
+        final ServicesJournal journal = this.journal;
+        if (journal == null) {
+            return;
+        }
+        runWithWriteLock(new Runnable() {
+            @Override
+            public void run() {
+                if (journal.size() == 0) {
+                    return;
+                }
+                final List<RegisteredService> services = load();
+                if (!saveListOfRegisteredServices(services)) {
+                    logger.warn("Keeping journal [{}] as the services could not be written", journal.getFile());
+                    return;
+                }
+                try {
+                    journal.truncate();
+                    logger.debug("Compacted journal [{}] into [{}] service definitions", journal.getFile(), services.size());
+                } catch (final IOException e) {
+                    logger.error("Could not truncate journal [{}]", journal.getFile(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Compact the journal one last time and close it.
+     */
+    @Override
+    public void destroy() throws Exception {
+        if (this.journal == null) {
+            return;
+        }
+        this.compactionExecutor.shutdown();
+        this.compactionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        compactJournal();
+        this.journal.close();
+    }
+
+    private static void assignIdIfNecessary(final RegisteredService registeredService) {
+        if (registeredService.getId() < 0) {
+            if (registeredService instanceof AbstractRegisteredService) {
+                final Random random = new Random(registeredService.hashCode());
+                final int serviceId = random.nextInt(Integer.MAX_VALUE);
+                ((AbstractRegisteredService) registeredService).setId(serviceId);
+            }
+        }
+    }
+
+    @GuardedBy("writeMonitor")
+    private void appendSaveToJournal(final RegisteredService registeredService) {
+        final ObjectNode record = this.objectMapper.createObjectNode();
+        record.put(JOURNAL_OPERATION_KEY, JOURNAL_SAVE_OPERATION);
+        record.put(JOURNAL_SERVICE_KEY, this.objectMapper.<JsonNode>valueToTree(registeredService));
+        appendToJournal(record);
+    }
+
+    @GuardedBy("writeMonitor")
+    private void appendDeleteToJournal(final long id) {
+        final ObjectNode record = this.objectMapper.createObjectNode();
+        record.put(JOURNAL_OPERATION_KEY, JOURNAL_DELETE_OPERATION);
+        record.put(ID_KEY, id);
+        appendToJournal(record);
+    }
+
+    @GuardedBy("writeMonitor")
+    private void appendToJournal(final JsonNode record) {
         try {
-            fout = new FileOutputStream(this.servicesConfigFile.getFile());
-            out = new BufferedOutputStream(fout);
+            this.journal.append(this.objectMapper.writeValueAsBytes(record));
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not append to journal " + this.journal.getFile(), e);
+        }
+        if (this.journal.size() >= this.journalCompactionThreshold) {
+            scheduleCompaction();
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (this.compactionExecutor.isShutdown() || !this.compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        this.compactionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compactionScheduled.set(false);
+                try {
+                    compactJournal();
+                } catch (final RuntimeException e) {
+                    logger.error("Could not compact journal", e);
+                }
+            }
+        });
+    }
 
+    /**
+     * Write the services to a temporary file next to the registry file, sync it and move it over the registry file in one
+     * atomic step, so that the registry file is never seen half-written, neither by a concurrent change detection poll
+     * nor after a crash. The change event caused by the move is recognized by its digest and does not trigger a reload.
+     *
+     * @return true if the services have been written
+     */
+    private boolean saveListOfRegisteredServices(final List<RegisteredService> col) {
+        File tempFile = null;
+        try {
+            final File file = this.servicesConfigFile.getFile().getAbsoluteFile();
             final Map<String, Object> map = new LinkedHashMap<String, Object>(col.size());
             map.put(SERVICES_KEY, col);
 
             logger.debug("Writing [{}] service definitions to resource [{}]", col.size(), this.servicesConfigFile.getFilename());
-            this.objectMapper.writerWithDefaultPrettyPrinter().writeValue(out, map);
+            final byte[] contents = this.objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(map);
 
-            fout.flush();
-            out.flush();
+            tempFile = File.createTempFile(file.getName(), TEMP_FILE_SUFFIX, file.getParentFile());
+            final FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                out.write(contents);
+                out.getFD().sync();
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
 
+            expectSelfWrittenContent(DigestUtils.sha1Hex(contents));
+            moveIntoPlace(tempFile, file);
+            syncDirectory(file.getParentFile());
+            return true;
         } catch (final Exception e) {
             logger.error(e.getMessage(), e);
+            return false;
+        } finally {
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+                logger.warn("Could not delete temporary file [{}]", tempFile);
+            }
+        }
+    }
+
+    private static void moveIntoPlace(final File source, final File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Make the rename itself durable. Not every platform supports syncing a directory, hence best effort only.
+     */
+    private void syncDirectory(final File directory) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            channel.force(true);
+        } catch (final IOException e) {
+            logger.debug("Could not sync directory [{}]", directory, e);
         } finally {
-            IOUtils.closeQuietly(fout);
-            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(channel);
         }
     }
 }
@@ -0,0 +1,99 @@
+package net.unicon.cas.addons.serviceregistry;
+
+import net.unicon.cas.addons.support.ThreadSafe;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Bounded cache of compiled regular expression <code>Pattern</code>s keyed by pattern string.
+ * <p/>
+ * Shared by {@link JsonServiceRegistryDao}, which compiles <code>^</code>-prefixed service ids to validate them at load time,
+ * and {@link RegexRegisteredServiceWithAttributes}, which needs the compiled pattern for matching. Each distinct pattern
+ * is therefore compiled once, no matter how many times the registry is reloaded.
+ * <p/>
+ * The bound is approximate: once the cache grows beyond its maximum size, arbitrary entries are evicted. Patterns
+ * that fail to compile are never cached.
+ * <p/>
+ * This class is thread safe. Lookups never block.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@ThreadSafe
+public final class RegexPatternCache {
+
+    private static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private static final RegexPatternCache SHARED_INSTANCE = new RegexPatternCache(DEFAULT_MAXIMUM_SIZE);
+
+    private final ConcurrentMap<String, Pattern> patterns = new ConcurrentHashMap<String, Pattern>();
+
+    private final int maximumSize;
+
+    public RegexPatternCache(final int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size of the pattern cache must be positive");
+        }
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @return the cache instance shared by the services registry loader and the regex service definitions
+     */
+    public static RegexPatternCache getSharedInstance() {
+        return SHARED_INSTANCE;
+    }
+
+    /**
+     * Get the compiled form of the given regular expression, compiling and caching it if necessary.
+     *
+     * @param regex regular expression to compile
+     * @return compiled pattern
+     * @throws PatternSyntaxException if the expression's syntax is invalid
+     */
+    public Pattern compile(final String regex) throws PatternSyntaxException {
+        if (regex == null) {
+            throw new IllegalArgumentException("Pattern cannot be null.");
+        }
+        final Pattern cached = this.patterns.get(regex);
+        if (cached != null) {
+            return cached;
+        }
+        final Pattern compiled = Pattern.compile(regex);
+        final Pattern existing = this.patterns.putIfAbsent(regex, compiled);
+        if (existing != null) {
+            return existing;
+        }
+        evictIfNecessary();
+        return compiled;
+    }
+
+    /**
+     * @return the number of currently cached patterns
+     */
+    public int size() {
+        return this.patterns.size();
+    }
+
+    /**
+     * Discard all cached patterns.
+     */
+    public void clear() {
+        this.patterns.clear();
+    }
+
+    private void evictIfNecessary() {
+        if (this.patterns.size() <= this.maximumSize) {
+            return;
+        }
+        final Iterator<String> it = this.patterns.keySet().iterator();
+        while (this.patterns.size() > this.maximumSize && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
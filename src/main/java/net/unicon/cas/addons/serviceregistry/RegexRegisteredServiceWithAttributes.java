@@ -2,11 +2,16 @@ package net.unicon.cas.addons.serviceregistry;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.regex.Pattern;
 
+import org.jasig.cas.authentication.principal.Service;
 import org.jasig.cas.services.RegexRegisteredService;
 
 /**
  * An extension to <code>RegexRegisteredService</code> with extra arbitrary attributes
+ * <p/>
+ * Compiled service id patterns are obtained from the shared {@link RegexPatternCache}, so service definitions
+ * with the same pattern (e.g. the same definition re-loaded from the JSON registry) do not compile it again.
  *
  * @author Eric Pierce (epierce@usf.edu)
  * @since 0.5
@@ -17,6 +22,8 @@ public class RegexRegisteredServiceWithAttributes extends RegexRegisteredService
 
     private Map<String, Object> extraAttributes = new HashMap<String, Object>();
 
+    private transient volatile Pattern servicePattern;
+
     @Override
     public Map<String, Object> getExtraAttributes() {
         return this.extraAttributes;
@@ -25,4 +32,33 @@ public class RegexRegisteredServiceWithAttributes extends RegexRegisteredService
     public void setExtraAttributes(final Map<String, Object> extraAttributes) {
         this.extraAttributes = extraAttributes;
     }
-}
\ No newline at end of file
+
+    @Override
+    public void setServiceId(final String id) {
+        super.setServiceId(id);
+        this.servicePattern = null;
+    }
+
+    @Override
+    public boolean matches(final Service service) {
+        return service != null && getServicePattern().matcher(service.getId()).matches();
+    }
+
+    /**
+     * Resolve the compiled service id pattern ahead of the first match.
+     *
+     * @throws java.util.regex.PatternSyntaxException if the service id is not a valid regular expression
+     */
+    public void precompileServicePattern() {
+        getServicePattern();
+    }
+
+    private Pattern getServicePattern() {
+        Pattern pattern = this.servicePattern;
+        if (pattern == null) {
+            pattern = RegexPatternCache.getSharedInstance().compile(this.serviceId);
+            this.servicePattern = pattern;
+        }
+        return pattern;
+    }
+}
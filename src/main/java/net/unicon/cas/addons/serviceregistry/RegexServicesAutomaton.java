@@ -0,0 +1,589 @@
+package net.unicon.cas.addons.serviceregistry;
+
+import net.unicon.cas.addons.support.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Multi-pattern matcher which combines many regular expression service ids into a single automaton, so that
+ * matching a service URL costs one pass over the URL regardless of the number of combined patterns.
+ * <p/>
+ * Only a safe subset of the regular expression syntax can be combined: literal characters (escaped or not),
+ * <code>.</code>, the <code>\d \D \w \W \s \S</code> classes, simple character classes (<code>[a-z_.]</code>,
+ * <code>[^/]</code>) and the <code>*</code>, <code>+</code>, <code>?</code> quantifiers applied to a single one of those,
+ * optionally anchored with a leading <code>^</code> and a trailing <code>$</code>. Within that subset, matching
+ * the whole input gives exactly the same result as <code>Pattern.matcher(input).matches()</code>. Use
+ * {@link #parse(String)} to find out whether a pattern can be combined; patterns that cannot must be matched individually.
+ * <p/>
+ * The automaton is a Thompson-style NFA, evaluated as a DFA whose states are built lazily on first use and then cached,
+ * up to a maximum number of states. Beyond that bound, transitions are still computed correctly but not cached.
+ * Every pattern is associated with a <i>rank</i> and {@link #match(String)} returns the lowest rank among the
+ * patterns matching the input.
+ * <p/>
+ * This class is thread safe. Lookups never block.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@ThreadSafe
+final class RegexServicesAutomaton {
+
+    static final int NO_MATCH = -1;
+
+    private static final int DEFAULT_MAXIMUM_CACHED_STATES = 10000;
+
+    private static final int ASCII_TRANSITIONS = 128;
+
+    /**
+     * Per NFA position: what the position consumes, or <code>null</code> for accepting positions.
+     */
+    private final CharMatcher[] atoms;
+
+    /**
+     * Per NFA position: whether the position may be skipped without consuming anything (<code>*</code>, <code>?</code>).
+     */
+    private final boolean[] optional;
+
+    /**
+     * Per NFA position: whether the position loops on itself after consuming (<code>*</code>).
+     */
+    private final boolean[] repeating;
+
+    /**
+     * Per NFA position: rank of the pattern accepted at this position, for accepting positions only.
+     */
+    private final int[] acceptedRanks;
+
+    private final int maximumCachedStates;
+
+    private final ConcurrentMap<StateKey, DfaState> states = new ConcurrentHashMap<StateKey, DfaState>();
+
+    private final DfaState initialState;
+
+    private RegexServicesAutomaton(final List<Atom> positions, final int maximumCachedStates) {
+        final int size = positions.size();
+        this.atoms = new CharMatcher[size];
+        this.optional = new boolean[size];
+        this.repeating = new boolean[size];
+        this.acceptedRanks = new int[size];
+        for (int i = 0; i < size; i++) {
+            final Atom atom = positions.get(i);
+            this.atoms[i] = atom.matcher;
+            this.optional[i] = atom.optional;
+            this.repeating[i] = atom.repeating;
+            this.acceptedRanks[i] = atom.acceptedRank;
+        }
+        this.maximumCachedStates = maximumCachedStates;
+
+        final PositionSet initial = new PositionSet(size);
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || this.atoms[i - 1] == null) {
+                initial.addWithClosure(i);
+            }
+        }
+        this.initialState = intern(initial.toSortedArray(null));
+    }
+
+    /**
+     * Find the lowest rank among the combined patterns that match the whole input.
+     *
+     * @param input to match
+     * @return the lowest matching rank or {@link #NO_MATCH}
+     */
+    int match(final String input) {
+        DfaState state = this.initialState;
+        for (int i = 0; i < input.length(); ) {
+            final int codePoint = input.codePointAt(i);
+            i += Character.charCount(codePoint);
+            state = next(state, codePoint);
+            if (state.positions.length == 0) {
+                return NO_MATCH;
+            }
+        }
+        return state.acceptedRank;
+    }
+
+    /**
+     * @return the number of DFA states built so far
+     */
+    int cachedStates() {
+        return this.states.size();
+    }
+
+    private DfaState next(final DfaState state, final int codePoint) {
+        DfaState next = state.cachedTransition(codePoint);
+        if (next != null) {
+            return next;
+        }
+        final PositionSet target = new PositionSet(this.atoms.length);
+        for (final int position : state.positions) {
+            final CharMatcher matcher = this.atoms[position];
+            if (matcher != null && matcher.matches(codePoint)) {
+                target.addWithClosure(this.repeating[position] ? position : position + 1);
+            }
+        }
+        next = intern(target.toSortedArray(state.positions));
+        if (next.cached) {
+            state.cacheTransition(codePoint, next);
+        }
+        return next;
+    }
+
+    private DfaState intern(final int[] positions) {
+        final StateKey key = new StateKey(positions);
+        final DfaState existing = this.states.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (this.states.size() >= this.maximumCachedStates) {
+            return new DfaState(positions, acceptedRankOf(positions), false);
+        }
+        final DfaState created = new DfaState(positions, acceptedRankOf(positions), true);
+        final DfaState raced = this.states.putIfAbsent(key, created);
+        return raced != null ? raced : created;
+    }
+
+    private int acceptedRankOf(final int[] positions) {
+        int rank = NO_MATCH;
+        for (final int position : positions) {
+            if (this.atoms[position] == null && (rank == NO_MATCH || this.acceptedRanks[position] < rank)) {
+                rank = this.acceptedRanks[position];
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Parse a regular expression into a sequence of atoms if it belongs to the supported subset.
+     *
+     * @param regex to parse
+     * @return atoms of the expression or <code>null</code> if the expression cannot be combined
+     */
+    static List<Atom> parse(final String regex) {
+        int i = regex.startsWith("^") ? 1 : 0;
+        int end = regex.length();
+        if (end > i && regex.charAt(end - 1) == '$' && !isEscaped(regex, end - 1)) {
+            end--;
+        }
+        final List<Atom> atoms = new ArrayList<Atom>();
+        while (i < end) {
+            final char c = regex.charAt(i);
+            final CharMatcher matcher;
+            if (c == '\\') {
+                if (i + 1 >= end) {
+                    return null;
+                }
+                final char escaped = regex.charAt(i + 1);
+                final CharMatcher predefined = CharClass.predefined(escaped);
+                if (predefined != null) {
+                    matcher = predefined;
+                }
+                else if (!Character.isLetterOrDigit(escaped)) {
+                    matcher = new Literal(escaped);
+                }
+                else {
+                    return null;
+                }
+                i += 2;
+            }
+            else if (c == '.') {
+                matcher = AnyCharacter.INSTANCE;
+                i++;
+            }
+            else if (c == '[') {
+                final CharClass.Parsed parsed = CharClass.parse(regex, i + 1, end);
+                if (parsed == null) {
+                    return null;
+                }
+                matcher = parsed.charClass;
+                i = parsed.next;
+            }
+            else if ("()|{}[]*+?^$".indexOf(c) >= 0) {
+                return null;
+            }
+            else {
+                final int codePoint = regex.codePointAt(i);
+                matcher = new Literal(codePoint);
+                i += Character.charCount(codePoint);
+            }
+
+            char quantifier = 0;
+            if (i < end && "*+?".indexOf(regex.charAt(i)) >= 0) {
+                quantifier = regex.charAt(i);
+                i++;
+                if (i < end && regex.charAt(i) == '?') {
+                    //Reluctant quantifiers accept the same inputs as greedy ones when the whole input has to match
+                    i++;
+                }
+                else if (i < end && regex.charAt(i) == '+') {
+                    //Possessive quantifiers do not
+                    return null;
+                }
+            }
+            if (i < end && regex.charAt(i) == '{') {
+                return null;
+            }
+            switch (quantifier) {
+                case '*':
+                    atoms.add(new Atom(matcher, true, true));
+                    break;
+                case '+':
+                    atoms.add(new Atom(matcher, false, false));
+                    atoms.add(new Atom(matcher, true, true));
+                    break;
+                case '?':
+                    atoms.add(new Atom(matcher, true, false));
+                    break;
+                default:
+                    atoms.add(new Atom(matcher, false, false));
+            }
+        }
+        return atoms;
+    }
+
+    private static boolean isEscaped(final String regex, final int position) {
+        int backslashes = 0;
+        for (int i = position - 1; i >= 0 && regex.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+
+    /**
+     * Accumulates parsed patterns along with their ranks and builds the combined automaton.
+     */
+    static final class Builder {
+
+        private final List<Atom> positions = new ArrayList<Atom>();
+
+        private int patterns;
+
+        /**
+         * @param regex regular expression to combine
+         * @param rank  to report when the pattern matches
+         * @return false if the expression is not supported and has been left out
+         */
+        boolean add(final String regex, final int rank) {
+            final List<Atom> atoms = parse(regex);
+            if (atoms == null) {
+                return false;
+            }
+            this.positions.addAll(atoms);
+            this.positions.add(Atom.accepting(rank));
+            this.patterns++;
+            return true;
+        }
+
+        boolean isEmpty() {
+            return this.patterns == 0;
+        }
+
+        RegexServicesAutomaton build() {
+            return new RegexServicesAutomaton(this.positions, DEFAULT_MAXIMUM_CACHED_STATES);
+        }
+
+        RegexServicesAutomaton build(final int maximumCachedStates) {
+            return new RegexServicesAutomaton(this.positions, maximumCachedStates);
+        }
+    }
+
+    /**
+     * A single NFA position of a parsed pattern.
+     */
+    static final class Atom {
+
+        private final CharMatcher matcher;
+
+        private final boolean optional;
+
+        private final boolean repeating;
+
+        private final int acceptedRank;
+
+        private Atom(final CharMatcher matcher, final boolean optional, final boolean repeating) {
+            this(matcher, optional, repeating, NO_MATCH);
+        }
+
+        private Atom(final CharMatcher matcher, final boolean optional, final boolean repeating, final int acceptedRank) {
+            this.matcher = matcher;
+            this.optional = optional;
+            this.repeating = repeating;
+            this.acceptedRank = acceptedRank;
+        }
+
+        private static Atom accepting(final int rank) {
+            return new Atom(null, false, false, rank);
+        }
+    }
+
+    /**
+     * Set of NFA positions under construction, closed over positions which may be skipped.
+     */
+    private final class PositionSet {
+
+        private final boolean[] members;
+
+        private int[] elements = new int[8];
+
+        private int size;
+
+        private PositionSet(final int capacity) {
+            this.members = new boolean[capacity];
+        }
+
+        private void addWithClosure(final int position) {
+            int current = position;
+            while (current < this.members.length && !this.members[current]) {
+                this.members[current] = true;
+                if (this.size == this.elements.length) {
+                    this.elements = Arrays.copyOf(this.elements, this.size * 2);
+                }
+                this.elements[this.size++] = current;
+                if (atoms[current] == null || !optional[current]) {
+                    break;
+                }
+                current++;
+            }
+        }
+
+        private int[] toSortedArray(final int[] candidate) {
+            final int[] sorted = Arrays.copyOf(this.elements, this.size);
+            Arrays.sort(sorted);
+            return Arrays.equals(sorted, candidate) ? candidate : sorted;
+        }
+    }
+
+    private static final class StateKey {
+
+        private final int[] positions;
+
+        private final int hash;
+
+        private StateKey(final int[] positions) {
+            this.positions = positions;
+            this.hash = Arrays.hashCode(positions);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof StateKey && Arrays.equals(this.positions, ((StateKey) o).positions);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    private static final class DfaState {
+
+        private final int[] positions;
+
+        private final int acceptedRank;
+
+        private final boolean cached;
+
+        private final AtomicReferenceArray<DfaState> asciiTransitions = new AtomicReferenceArray<DfaState>(ASCII_TRANSITIONS);
+
+        private final ConcurrentMap<Integer, DfaState> otherTransitions = new ConcurrentHashMap<Integer, DfaState>();
+
+        private DfaState(final int[] positions, final int acceptedRank, final boolean cached) {
+            this.positions = positions;
+            this.acceptedRank = acceptedRank;
+            this.cached = cached;
+        }
+
+        private DfaState cachedTransition(final int codePoint) {
+            return codePoint < ASCII_TRANSITIONS ? this.asciiTransitions.get(codePoint) : this.otherTransitions.get(codePoint);
+        }
+
+        private void cacheTransition(final int codePoint, final DfaState next) {
+            if (!this.cached) {
+                return;
+            }
+            if (codePoint < ASCII_TRANSITIONS) {
+                this.asciiTransitions.set(codePoint, next);
+            }
+            else {
+                this.otherTransitions.put(codePoint, next);
+            }
+        }
+    }
+
+    private interface CharMatcher {
+        boolean matches(int codePoint);
+    }
+
+    private static final class Literal implements CharMatcher {
+
+        private final int codePoint;
+
+        private Literal(final int codePoint) {
+            this.codePoint = codePoint;
+        }
+
+        @Override
+        public boolean matches(final int codePoint) {
+            return this.codePoint == codePoint;
+        }
+    }
+
+    /**
+     * <code>.</code> without the DOTALL flag: anything but a line terminator.
+     */
+    private static final class AnyCharacter implements CharMatcher {
+
+        private static final AnyCharacter INSTANCE = new AnyCharacter();
+
+        @Override
+        public boolean matches(final int codePoint) {
+            return codePoint != '\n' && codePoint != '\r' && codePoint != 0x85
+                    && codePoint != 0x2028 && codePoint != 0x2029;
+        }
+    }
+
+    /**
+     * Character class made of inclusive code point ranges, optionally negated.
+     */
+    private static final class CharClass implements CharMatcher {
+
+        private static final int[] DIGITS = {'0', '9'};
+
+        private static final int[] WORD_CHARACTERS = {'a', 'z', 'A', 'Z', '_', '_', '0', '9'};
+
+        private static final int[] WHITESPACE = {' ', ' ', '\t', '\t', '\n', '\n', 0x0B, 0x0B, '\f', '\f', '\r', '\r'};
+
+        private final int[] ranges;
+
+        private final boolean negated;
+
+        private CharClass(final int[] ranges, final boolean negated) {
+            this.ranges = ranges;
+            this.negated = negated;
+        }
+
+        @Override
+        public boolean matches(final int codePoint) {
+            boolean inRanges = false;
+            for (int i = 0; i < this.ranges.length && !inRanges; i += 2) {
+                inRanges = codePoint >= this.ranges[i] && codePoint <= this.ranges[i + 1];
+            }
+            return inRanges != this.negated;
+        }
+
+        private static int[] predefinedRanges(final char c) {
+            switch (Character.toLowerCase(c)) {
+                case 'd':
+                    return DIGITS;
+                case 'w':
+                    return WORD_CHARACTERS;
+                case 's':
+                    return WHITESPACE;
+                default:
+                    return null;
+            }
+        }
+
+        private static CharClass predefined(final char c) {
+            final int[] ranges = predefinedRanges(c);
+            return ranges == null ? null : new CharClass(ranges, Character.isUpperCase(c));
+        }
+
+        /**
+         * Parse a simple character class starting right after its opening bracket.
+         */
+        private static Parsed parse(final String regex, final int start, final int end) {
+            int i = start;
+            boolean negated = false;
+            if (i < end && regex.charAt(i) == '^') {
+                negated = true;
+                i++;
+            }
+            if (i < end && regex.charAt(i) == ']') {
+                return null;
+            }
+            final List<int[]> ranges = new ArrayList<int[]>();
+            while (i < end && regex.charAt(i) != ']') {
+                final char c = regex.charAt(i);
+                if (c == '[' || (c == '&' && i + 1 < end && regex.charAt(i + 1) == '&')) {
+                    return null;
+                }
+                final int low;
+                if (c == '\\') {
+                    if (i + 1 >= end) {
+                        return null;
+                    }
+                    final char escaped = regex.charAt(i + 1);
+                    if (Character.isLetterOrDigit(escaped)) {
+                        final int[] predefined = Character.isLowerCase(escaped) ? predefinedRanges(escaped) : null;
+                        if (predefined == null) {
+                            return null;
+                        }
+                        ranges.add(predefined);
+                        i += 2;
+                        continue;
+                    }
+                    low = escaped;
+                    i += 2;
+                }
+                else {
+                    low = regex.codePointAt(i);
+                    i += Character.charCount(low);
+                }
+                int high = low;
+                if (i + 1 < end && regex.charAt(i) == '-' && regex.charAt(i + 1) != ']') {
+                    final char h = regex.charAt(i + 1);
+                    if (h == '\\') {
+                        if (i + 2 >= end || Character.isLetterOrDigit(regex.charAt(i + 2))) {
+                            return null;
+                        }
+                        high = regex.charAt(i + 2);
+                        i += 3;
+                    }
+                    else if (h == '[') {
+                        return null;
+                    }
+                    else {
+                        high = regex.codePointAt(i + 1);
+                        i += 1 + Character.charCount(high);
+                    }
+                    if (high < low) {
+                        return null;
+                    }
+                }
+                ranges.add(new int[]{low, high});
+            }
+            if (i >= end) {
+                return null;
+            }
+            int length = 0;
+            for (final int[] range : ranges) {
+                length += range.length;
+            }
+            final int[] flattened = new int[length];
+            int offset = 0;
+            for (final int[] range : ranges) {
+                System.arraycopy(range, 0, flattened, offset, range.length);
+                offset += range.length;
+            }
+            return new Parsed(new CharClass(flattened, negated), i + 1);
+        }
+
+        private static final class Parsed {
+
+            private final CharClass charClass;
+
+            private final int next;
+
+            private Parsed(final CharClass charClass, final int next) {
+                this.charClass = charClass;
+                this.next = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package net.unicon.cas.addons.serviceregistry;
+
+import org.jasig.cas.services.RegisteredService;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Application event carrying the delta between two consecutive states of a services registry, i.e. service definitions
+ * that have been added, changed or removed by the latest reload.
+ * <p/>
+ * Intended to be processed by subscribed <code>ApplicationListener</code>s managed by ApplicationContext which would like
+ * to react to individual service definition changes instead of re-processing the whole registry.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+public class RegisteredServicesChangedEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = -1402286346352395410L;
+
+    private final List<RegisteredService> addedServices;
+
+    private final List<RegisteredService> changedServices;
+
+    private final List<RegisteredService> removedServices;
+
+    public RegisteredServicesChangedEvent(final Object source, final List<RegisteredService> addedServices,
+                                          final List<RegisteredService> changedServices,
+                                          final List<RegisteredService> removedServices) {
+        super(source);
+        this.addedServices = Collections.unmodifiableList(addedServices);
+        this.changedServices = Collections.unmodifiableList(changedServices);
+        this.removedServices = Collections.unmodifiableList(removedServices);
+    }
+
+    public List<RegisteredService> getAddedServices() {
+        return this.addedServices;
+    }
+
+    public List<RegisteredService> getChangedServices() {
+        return this.changedServices;
+    }
+
+    public List<RegisteredService> getRemovedServices() {
+        return this.removedServices;
+    }
+
+    /**
+     * @return true if this event carries no changes at all
+     */
+    public boolean isEmpty() {
+        return this.addedServices.isEmpty() && this.changedServices.isEmpty() && this.removedServices.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[added=%s, changed=%s, removed=%s]", getClass().getSimpleName(),
+                this.addedServices.size(), this.changedServices.size(), this.removedServices.size());
+    }
+}
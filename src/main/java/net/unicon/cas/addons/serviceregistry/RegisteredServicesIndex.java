@@ -0,0 +1,543 @@
+package net.unicon.cas.addons.serviceregistry;
+
+import net.unicon.cas.addons.support.Immutable;
+import org.apache.commons.lang.builder.CompareToBuilder;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.services.RegexRegisteredService;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.services.RegisteredServiceImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot and lookup index over a collection of <code>RegisteredService</code>s which narrows down the set of
+ * service definitions that have to be evaluated against an incoming <code>Service</code>, instead of trying
+ * every registered service's pattern in turn.
+ * <p/>
+ * The index consists of:
+ * <ul>
+ * <li>exact-match hash buckets for ANT-style service definitions ({@link RegisteredServiceImpl}) whose
+ * <code>serviceId</code> contains no wildcards</li>
+ * <li>a prefix trie keyed by the literal leading part (typically scheme and host) of ANT-style service ids</li>
+ * <li>a prefix trie keyed by the literal leading part of <code>^</code>-anchored regular expression service ids
+ * ({@link RegexRegisteredService})</li>
+ * <li>a catch-all bucket for definitions without a usable literal prefix, which are always evaluated</li>
+ * </ul>
+ * Optionally, regular expression service ids within the subset supported by {@link RegexServicesAutomaton} can be
+ * combined into a single automaton instead, which finds the best ranked of them in one pass over the service URL.
+ * Only the remaining candidates ranked ahead of the automaton's match then have to be evaluated individually.
+ * <p/>
+ * The index only ever produces a superset of the possibly matching definitions. Candidates are evaluated with
+ * <code>RegisteredService#matches</code> in the order of <code>RegisteredService#compareTo</code>, i.e.
+ * <code>evaluationOrder</code> with ties broken by name then by service id, so the first match is the same one the default linear scan of the CAS services manager would have found.
+ * <p/>
+ * Instances of this class are immutable and thus safe to share among threads without synchronization. Modifications
+ * ({@link #withSaved(RegisteredService)}, {@link #withDeleted(long)}) produce new instances, leaving the original intact,
+ * which allows them to be published as a whole with a single reference swap.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@Immutable
+public final class RegisteredServicesIndex {
+
+    private static final int[] NO_RANKS = new int[0];
+
+    private static final String REGEX_META_CHARACTERS = ".[]{}()*+?^$|";
+
+    private static final String REGEX_OPTIONAL_QUANTIFIERS = "?*{";
+
+    private static final String ANT_WILDCARDS = "*?{";
+
+    private static final char ANT_PATH_SEPARATOR = '/';
+
+    /**
+     * Orders service definitions the way the CAS services manager evaluates them, that is by their own
+     * <code>compareTo</code>. Definitions which are not comparable, or have no name, are ordered the same way
+     * <code>AbstractRegisteredService#compareTo</code> does, by evaluation order, then by name, then by service id,
+     * without failing on missing names.
+     */
+    static final Comparator<RegisteredService> EVALUATION_ORDER_COMPARATOR = new Comparator<RegisteredService>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(final RegisteredService s1, final RegisteredService s2) {
+            if (s1 instanceof Comparable && s1.getName() != null && s2.getName() != null) {
+                return ((Comparable<RegisteredService>) s1).compareTo(s2);
+            }
+            return new CompareToBuilder()
+                    .append(s1.getEvaluationOrder(), s2.getEvaluationOrder())
+                    .append(s1.getName() != null ? s1.getName().toLowerCase() : null, s2.getName() != null ? s2.getName().toLowerCase() : null)
+                    .append(s1.getServiceId(), s2.getServiceId())
+                    .toComparison();
+        }
+    };
+
+    /**
+     * Service definitions keyed by id, in the order they were given to this index.
+     */
+    private final Map<Long, RegisteredService> servicesById;
+
+    private final boolean combineRegexPatterns;
+
+    /**
+     * Evaluation order and lookup structures. Built up front by the public constructor, but only on first use by the
+     * indexes derived with {@link #withSavedAll(Collection)} and {@link #withDeletedAll(Collection)}, so that a series of
+     * writes does not re-sort and re-index all of the definitions every time. Concurrent first uses may each build them;
+     * the results are equivalent, so whichever is published last wins.
+     */
+    private volatile Lookup lookup;
+
+    public RegisteredServicesIndex(final Collection<RegisteredService> registeredServices) {
+        this(registeredServices, false);
+    }
+
+    /**
+     * @param registeredServices   service definitions to index
+     * @param combineRegexPatterns whether to combine the supported regular expression service ids into one automaton
+     */
+    public RegisteredServicesIndex(final Collection<RegisteredService> registeredServices, final boolean combineRegexPatterns) {
+        this(byId(registeredServices), combineRegexPatterns);
+        this.lookup = new Lookup(this.servicesById.values(), combineRegexPatterns);
+    }
+
+    private RegisteredServicesIndex(final Map<Long, RegisteredService> servicesById, final boolean combineRegexPatterns) {
+        this.servicesById = Collections.unmodifiableMap(servicesById);
+        this.combineRegexPatterns = combineRegexPatterns;
+    }
+
+    /**
+     * Find the first service definition in evaluation order that matches the given service.
+     *
+     * @param service to find the matching definition for
+     * @return matching service definition or <code>null</code> if no definition matches
+     */
+    public RegisteredService findServiceBy(final Service service) {
+        if (service == null || service.getId() == null) {
+            return null;
+        }
+        return lookup().findServiceBy(service);
+    }
+
+    /**
+     * @param id of the service definition
+     * @return service definition with the given id or <code>null</code> if there is none
+     */
+    public RegisteredService findServiceById(final long id) {
+        return this.servicesById.get(id);
+    }
+
+    /**
+     * Create a new index with the given service definition added, replacing any existing definition with the same id.
+     *
+     * @param registeredService to add or replace
+     * @return new index including the given service definition
+     */
+    public RegisteredServicesIndex withSaved(final RegisteredService registeredService) {
+        return withSavedAll(Collections.singletonList(registeredService));
+    }
+
+    /**
+     * Create a new index with the given service definitions added, replacing any existing definitions with the same ids.
+     *
+     * @param registeredServices to add or replace
+     * @return new index including the given service definitions
+     */
+    public RegisteredServicesIndex withSavedAll(final Collection<RegisteredService> registeredServices) {
+        final Map<Long, RegisteredService> services = new LinkedHashMap<Long, RegisteredService>(this.servicesById);
+        for (final RegisteredService registeredService : registeredServices) {
+            services.remove(registeredService.getId());
+            services.put(registeredService.getId(), registeredService);
+        }
+        return new RegisteredServicesIndex(services, this.combineRegexPatterns);
+    }
+
+    /**
+     * Create a new index without the service definition with the given id.
+     *
+     * @param id of the service definition to remove
+     * @return new index without the service definition or this very instance if there is no such definition
+     */
+    public RegisteredServicesIndex withDeleted(final long id) {
+        return withDeletedAll(Collections.singleton(id));
+    }
+
+    /**
+     * Create a new index without the service definitions with the given ids.
+     *
+     * @param ids of the service definitions to remove
+     * @return new index without the service definitions or this very instance if there are no such definitions
+     */
+    public RegisteredServicesIndex withDeletedAll(final Collection<Long> ids) {
+        final Map<Long, RegisteredService> services = new LinkedHashMap<Long, RegisteredService>(this.servicesById);
+        boolean removed = false;
+        for (final Long id : ids) {
+            removed |= services.remove(id) != null;
+        }
+        return removed ? new RegisteredServicesIndex(services, this.combineRegexPatterns) : this;
+    }
+
+    /**
+     * @return the highest id among the indexed service definitions or 0 if there are none
+     */
+    public long highestId() {
+        long highest = 0;
+        for (final Long id : this.servicesById.keySet()) {
+            highest = Math.max(highest, id);
+        }
+        return highest;
+    }
+
+    /**
+     * @return all indexed service definitions in the order they were given to this index
+     */
+    public List<RegisteredService> getServicesInLoadOrder() {
+        return Collections.unmodifiableList(new ArrayList<RegisteredService>(this.servicesById.values()));
+    }
+
+    /**
+     * @return all indexed service definitions sorted by evaluation order
+     */
+    public List<RegisteredService> getServices() {
+        return lookup().unmodifiableServicesInEvaluationOrder;
+    }
+
+    /**
+     * @return whether supported regular expression service ids are combined into one automaton
+     */
+    public boolean isCombineRegexPatterns() {
+        return this.combineRegexPatterns;
+    }
+
+    /**
+     * @return the number of indexed service definitions
+     */
+    public int size() {
+        return this.servicesById.size();
+    }
+
+    private Lookup lookup() {
+        Lookup lookup = this.lookup;
+        if (lookup == null) {
+            lookup = new Lookup(this.servicesById.values(), this.combineRegexPatterns);
+            this.lookup = lookup;
+        }
+        return lookup;
+    }
+
+    private static Map<Long, RegisteredService> byId(final Collection<RegisteredService> registeredServices) {
+        final Map<Long, RegisteredService> byId = new LinkedHashMap<Long, RegisteredService>(registeredServices.size() * 2);
+        for (final RegisteredService svc : registeredServices) {
+            byId.put(svc.getId(), svc);
+        }
+        return byId;
+    }
+
+    /**
+     * Extract the leading literal part of a <code>^</code>-anchored regular expression, i.e. the characters every
+     * matching input must start with. Returns an empty string if no such part can be safely determined.
+     */
+    static String regexLiteralPrefix(final String pattern) {
+        if (!pattern.startsWith("^") || pattern.indexOf('|') >= 0) {
+            return "";
+        }
+        final StringBuilder prefix = new StringBuilder(pattern.length());
+        int i = 1;
+        while (i < pattern.length()) {
+            final char c = pattern.charAt(i);
+            final char literal;
+            final int next;
+            if (c == '\\') {
+                if (i + 1 >= pattern.length() || Character.isLetterOrDigit(pattern.charAt(i + 1))) {
+                    break;
+                }
+                literal = pattern.charAt(i + 1);
+                next = i + 2;
+            }
+            else if (REGEX_META_CHARACTERS.indexOf(c) >= 0) {
+                break;
+            }
+            else {
+                literal = c;
+                next = i + 1;
+            }
+            if (next < pattern.length()) {
+                final char quantifier = pattern.charAt(next);
+                if (REGEX_OPTIONAL_QUANTIFIERS.indexOf(quantifier) >= 0) {
+                    break;
+                }
+                if (quantifier == '+') {
+                    prefix.append(literal);
+                    break;
+                }
+            }
+            prefix.append(literal);
+            i = next;
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * Normalize a path the same way ANT path matching tokenizes it: tokens are trimmed and empty tokens are dropped,
+     * while leading and trailing separators are preserved.
+     */
+    static String canonicalAntPath(final String path) {
+        final StringBuilder canonical = new StringBuilder(path.length());
+        if (path.length() > 0 && path.charAt(0) == ANT_PATH_SEPARATOR) {
+            canonical.append(ANT_PATH_SEPARATOR);
+        }
+        int start = 0;
+        boolean first = true;
+        while (start <= path.length()) {
+            int end = path.indexOf(ANT_PATH_SEPARATOR, start);
+            if (end < 0) {
+                end = path.length();
+            }
+            final String token = path.substring(start, end).trim();
+            if (!token.isEmpty()) {
+                if (!first) {
+                    canonical.append(ANT_PATH_SEPARATOR);
+                }
+                canonical.append(token);
+                first = false;
+            }
+            start = end + 1;
+        }
+        if (!first && path.charAt(path.length() - 1) == ANT_PATH_SEPARATOR) {
+            canonical.append(ANT_PATH_SEPARATOR);
+        }
+        return canonical.toString();
+    }
+
+    /**
+     * Only the regex service types whose matching is known to be plain full-match of the service id are combined;
+     * subclasses may override <code>matches</code> with anything else.
+     */
+    private static boolean isCombinable(final RegisteredService svc) {
+        return svc.getClass() == RegexRegisteredService.class || svc.getClass() == RegexRegisteredServiceWithAttributes.class;
+    }
+
+    private static String stripTrailingSeparator(final String path) {
+        return path.length() > 0 && path.charAt(path.length() - 1) == ANT_PATH_SEPARATOR
+                ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private static int indexOfAny(final String str, final String chars) {
+        for (int i = 0; i < str.length(); i++) {
+            if (chars.indexOf(str.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] append(final int[] ranks, final int rank) {
+        final int[] result = Arrays.copyOf(ranks, ranks.length + 1);
+        result[ranks.length] = rank;
+        return result;
+    }
+
+    /**
+     * Service definitions in evaluation order, along with the structures narrowing down the candidates for a service.
+     */
+    private static final class Lookup {
+
+        /**
+         * Service definitions sorted by evaluation order. Position in this array is the service's <i>rank</i>.
+         */
+        private final RegisteredService[] servicesInEvaluationOrder;
+
+        private final List<RegisteredService> unmodifiableServicesInEvaluationOrder;
+
+        private final Map<String, int[]> exactAntMatches;
+
+        private final TrieNode antPrefixes;
+
+        private final TrieNode regexPrefixes;
+
+        private final int[] catchAll;
+
+        private final RegexServicesAutomaton regexAutomaton;
+
+        Lookup(final Collection<RegisteredService> registeredServices, final boolean combineRegexPatterns) {
+            final List<RegisteredService> sorted = new ArrayList<RegisteredService>(registeredServices);
+            Collections.sort(sorted, EVALUATION_ORDER_COMPARATOR);
+
+            this.servicesInEvaluationOrder = sorted.toArray(new RegisteredService[sorted.size()]);
+            this.unmodifiableServicesInEvaluationOrder = Collections.unmodifiableList(Arrays.asList(this.servicesInEvaluationOrder));
+
+            final Map<String, int[]> exact = new HashMap<String, int[]>();
+            final TrieNode antTrie = new TrieNode();
+            final TrieNode regexTrie = new TrieNode();
+            final RegexServicesAutomaton.Builder automaton = new RegexServicesAutomaton.Builder();
+            int[] unindexed = NO_RANKS;
+
+            for (int rank = 0; rank < this.servicesInEvaluationOrder.length; rank++) {
+                final RegisteredService svc = this.servicesInEvaluationOrder[rank];
+                final String serviceId = svc.getServiceId();
+
+                if (serviceId == null) {
+                    unindexed = append(unindexed, rank);
+                }
+                else if (combineRegexPatterns && isCombinable(svc) && automaton.add(serviceId, rank)) {
+                    continue;
+                }
+                else if (svc instanceof RegexRegisteredService) {
+                    final String prefix = regexLiteralPrefix(serviceId);
+                    if (prefix.isEmpty()) {
+                        unindexed = append(unindexed, rank);
+                    }
+                    else {
+                        regexTrie.getOrCreate(prefix).addRank(rank);
+                    }
+                }
+                else if (svc instanceof RegisteredServiceImpl) {
+                    final String lowerCaseServiceId = serviceId.toLowerCase();
+                    final int wildcardPosition = indexOfAny(lowerCaseServiceId, ANT_WILDCARDS);
+                    if (wildcardPosition < 0) {
+                        final String key = canonicalAntPath(lowerCaseServiceId);
+                        exact.put(key, append(exact.containsKey(key) ? exact.get(key) : NO_RANKS, rank));
+                    }
+                    else {
+                        final String prefix = stripTrailingSeparator(canonicalAntPath(lowerCaseServiceId.substring(0, wildcardPosition)));
+                        if (prefix.isEmpty()) {
+                            unindexed = append(unindexed, rank);
+                        }
+                        else {
+                            antTrie.getOrCreate(prefix).addRank(rank);
+                        }
+                    }
+                }
+                else {
+                    unindexed = append(unindexed, rank);
+                }
+            }
+            this.exactAntMatches = exact;
+            this.antPrefixes = antTrie;
+            this.regexPrefixes = regexTrie;
+            this.catchAll = unindexed;
+            this.regexAutomaton = automaton.isEmpty() ? null : automaton.build();
+        }
+
+        RegisteredService findServiceBy(final Service service) {
+            final String serviceId = service.getId();
+            final String antKey = canonicalAntPath(serviceId.toLowerCase());
+
+            final RankCollector candidates = new RankCollector(this.catchAll);
+            final int[] exact = this.exactAntMatches.get(antKey);
+            if (exact != null) {
+                candidates.addAll(exact);
+            }
+            this.regexPrefixes.collectAlongPath(serviceId, candidates);
+            this.antPrefixes.collectAlongPath(antKey, candidates);
+
+            final int combinedMatch = this.regexAutomaton != null ? this.regexAutomaton.match(serviceId) : RegexServicesAutomaton.NO_MATCH;
+            final int[] ranks = candidates.sortedRanks();
+            for (final int rank : ranks) {
+                if (combinedMatch != RegexServicesAutomaton.NO_MATCH && rank > combinedMatch) {
+                    break;
+                }
+                final RegisteredService svc = this.servicesInEvaluationOrder[rank];
+                if (svc.matches(service)) {
+                    return svc;
+                }
+            }
+            return combinedMatch != RegexServicesAutomaton.NO_MATCH ? this.servicesInEvaluationOrder[combinedMatch] : null;
+        }
+    }
+
+    /**
+     * Character trie node. Children are kept in arrays sorted by label and looked up by binary search, which keeps
+     * the per-node footprint small for registries with thousands of definitions.
+     */
+    private static final class TrieNode {
+
+        private char[] labels = new char[0];
+
+        private TrieNode[] children = new TrieNode[0];
+
+        private int[] ranks = NO_RANKS;
+
+        TrieNode getOrCreate(final String key) {
+            TrieNode node = this;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.getOrCreateChild(key.charAt(i));
+            }
+            return node;
+        }
+
+        void addRank(final int rank) {
+            this.ranks = append(this.ranks, rank);
+        }
+
+        void collectAlongPath(final String key, final RankCollector collector) {
+            TrieNode node = this;
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.child(key.charAt(i));
+                if (node != null && node.ranks.length > 0) {
+                    collector.addAll(node.ranks);
+                }
+            }
+        }
+
+        private TrieNode child(final char label) {
+            final int i = Arrays.binarySearch(this.labels, label);
+            return i >= 0 ? this.children[i] : null;
+        }
+
+        private TrieNode getOrCreateChild(final char label) {
+            final int i = Arrays.binarySearch(this.labels, label);
+            if (i >= 0) {
+                return this.children[i];
+            }
+            final int insertionPoint = -(i + 1);
+            final char[] newLabels = new char[this.labels.length + 1];
+            final TrieNode[] newChildren = new TrieNode[this.children.length + 1];
+            System.arraycopy(this.labels, 0, newLabels, 0, insertionPoint);
+            System.arraycopy(this.children, 0, newChildren, 0, insertionPoint);
+            System.arraycopy(this.labels, insertionPoint, newLabels, insertionPoint + 1, this.labels.length - insertionPoint);
+            System.arraycopy(this.children, insertionPoint, newChildren, insertionPoint + 1, this.children.length - insertionPoint);
+            final TrieNode child = new TrieNode();
+            newLabels[insertionPoint] = label;
+            newChildren[insertionPoint] = child;
+            this.labels = newLabels;
+            this.children = newChildren;
+            return child;
+        }
+    }
+
+    /**
+     * Per-lookup accumulator of candidate ranks.
+     */
+    private static final class RankCollector {
+
+        private int[] ranks;
+
+        private int size;
+
+        RankCollector(final int[] initial) {
+            this.ranks = Arrays.copyOf(initial, Math.max(8, initial.length + 8));
+            this.size = initial.length;
+        }
+
+        void addAll(final int[] more) {
+            if (this.size + more.length > this.ranks.length) {
+                this.ranks = Arrays.copyOf(this.ranks, Math.max(this.ranks.length * 2, this.size + more.length));
+            }
+            System.arraycopy(more, 0, this.ranks, this.size, more.length);
+            this.size += more.length;
+        }
+
+        int[] sortedRanks() {
+            Arrays.sort(this.ranks, 0, this.size);
+            return Arrays.copyOf(this.ranks, this.size);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package net.unicon.cas.addons.serviceregistry;
+
+import net.unicon.cas.addons.support.GuardedBy;
+import net.unicon.cas.addons.support.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only journal of service registry changes, one record per line.
+ * <p/>
+ * Records are appended without waiting for the disk. Callers then use {@link #sync(long)} to make their record durable:
+ * concurrent callers are served by a single <code>fsync</code>, which covers every record appended up to that point
+ * (group commit).
+ * <p/>
+ * A record is only considered written once its terminating line feed is. An incomplete trailing line, which is what a
+ * crash in the middle of an append leaves behind, is ignored and cut off before the journal is appended to again.
+ * Records which are complete but cannot be parsed are left to the reader to skip; they are discarded along with all of the
+ * others once the journal is truncated.
+ * <p/>
+ * This class is thread safe.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@ThreadSafe
+final class ServicesJournal implements Closeable {
+
+    private static final byte RECORD_SEPARATOR = '\n';
+
+    private final File file;
+
+    /**
+     * Held while forcing appended records to disk. Always acquired before this instance's own monitor.
+     */
+    private final Object syncMonitor = new Object();
+
+    @GuardedBy("this")
+    private FileChannel channel;
+
+    @GuardedBy("this")
+    private int records;
+
+    private volatile long appendedSequence;
+
+    private volatile long durableSequence;
+
+    private static final Logger logger = LoggerFactory.getLogger(ServicesJournal.class);
+
+    ServicesJournal(final File file) {
+        this.file = file;
+    }
+
+    File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Read all of the complete records of this journal.
+     *
+     * @return records in the order they were appended
+     */
+    synchronized List<byte[]> read() throws IOException {
+        final List<byte[]> result = new ArrayList<byte[]>();
+        if (this.file.exists()) {
+            final byte[] content = readFully();
+            int start = 0;
+            for (int i = 0; i < content.length; i++) {
+                if (content[i] == RECORD_SEPARATOR) {
+                    if (i > start) {
+                        result.add(Arrays.copyOfRange(content, start, i));
+                    }
+                    start = i + 1;
+                }
+            }
+            if (start < content.length) {
+                logger.warn("Ignoring incomplete trailing record of journal [{}]", this.file);
+            }
+        }
+        if (this.channel == null) {
+            this.records = result.size();
+        }
+        return result;
+    }
+
+    /**
+     * Append a record. It must not contain line feeds.
+     *
+     * @param record to append
+     * @return sequence number to pass to {@link #sync(long)} to make the record durable
+     */
+    synchronized long append(final byte[] record) throws IOException {
+        final FileChannel channel = openChannel();
+        final ByteBuffer buffer = ByteBuffer.allocate(record.length + 1);
+        buffer.put(record).put(RECORD_SEPARATOR).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        this.records++;
+        this.appendedSequence++;
+        return this.appendedSequence;
+    }
+
+    /**
+     * Wait until the record with the given sequence number, and all of the preceding ones, are on disk.
+     */
+    void sync(final long sequence) throws IOException {
+        if (this.durableSequence >= sequence) {
+            return;
+        }
+        synchronized (this.syncMonitor) {
+            if (this.durableSequence >= sequence) {
+                return;
+            }
+            final long target = this.appendedSequence;
+            final FileChannel channel = currentChannel();
+            if (channel != null) {
+                channel.force(false);
+            }
+            this.durableSequence = target;
+        }
+    }
+
+    /**
+     * @return the sequence number of the most recently appended record
+     */
+    long appendedSequence() {
+        return this.appendedSequence;
+    }
+
+    /**
+     * @return the number of records currently in the journal
+     */
+    synchronized int size() {
+        return this.records;
+    }
+
+    /**
+     * Discard all of the records, once their changes have been written elsewhere.
+     */
+    void truncate() throws IOException {
+        synchronized (this.syncMonitor) {
+            synchronized (this) {
+                final FileChannel channel = openChannel();
+                channel.truncate(0);
+                channel.force(false);
+                this.records = 0;
+                this.durableSequence = this.appendedSequence;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this.syncMonitor) {
+            synchronized (this) {
+                if (this.channel != null) {
+                    this.channel.force(false);
+                    this.channel.close();
+                    this.channel = null;
+                    this.durableSequence = this.appendedSequence;
+                }
+            }
+        }
+    }
+
+    private synchronized FileChannel currentChannel() {
+        return this.channel;
+    }
+
+    /**
+     * Open the journal for appending, cutting off an incomplete trailing record first.
+     */
+    @GuardedBy("this")
+    private FileChannel openChannel() throws IOException {
+        if (this.channel == null) {
+            final FileChannel channel = new RandomAccessFile(this.file, "rw").getChannel();
+            final long validLength = lastSeparatorPosition() + 1;
+            if (validLength < channel.size()) {
+                channel.truncate(validLength);
+            }
+            channel.position(validLength);
+            this.channel = channel;
+        }
+        return this.channel;
+    }
+
+    private long lastSeparatorPosition() throws IOException {
+        final byte[] content = readFully();
+        for (int i = content.length - 1; i >= 0; i--) {
+            if (content[i] == RECORD_SEPARATOR) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private byte[] readFully() throws IOException {
+        final RandomAccessFile in = new RandomAccessFile(this.file, "r");
+        try {
+            final byte[] content = new byte[(int) in.length()];
+            in.readFully(content);
+            return content;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -1,19 +1,34 @@
 package net.unicon.cas.addons.serviceregistry.mongodb;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.validation.constraints.NotNull;
 
+import net.unicon.cas.addons.serviceregistry.BatchServiceRegistryDao;
+import net.unicon.cas.addons.serviceregistry.RegisteredServicesIndex;
+import net.unicon.cas.addons.support.GuardedBy;
+
 import org.jasig.cas.services.AbstractRegisteredService;
 import org.jasig.cas.services.RegisteredService;
-import org.jasig.cas.services.ServiceRegistryDao;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -24,22 +39,61 @@ import org.springframework.transaction.annotation.Transactional;
  * <p>The class will automatically create a default collection to use with services. The name of the collection may be specified
  * through {@link #setCollectionName(String)}. It also presents the ability to drop an existing collection and start afresh
  * through the use of {@link #setDropCollection(boolean)}.</p>
+ * <p/>
+ * <p>Every write also increments a version counter kept in a companion collection (named after the services collection with
+ * a <code>.version</code> suffix), whether or not this instance caches the services itself: the counter is how the nodes which do
+ * learn about writes made elsewhere, and the nodes sharing a collection need not all be configured alike. In cached mode (see {@link #setCacheEnabled(boolean)}) the whole collection is kept in a local,
+ * immutable snapshot served without locking, so that {@link #findServiceById(long)} and {@link #load()} never touch the network.
+ * Writes through this DAO are applied to the snapshot right away; writes made by other nodes are picked up by polling the version
+ * counter and reloading the collection when it changed. Changes made to the collection by other means must increment the
+ * version counter too in order to be picked up.</p>
  *
  * @author <a href="mailto:mmoayyed@unicon.net">Misagh Moayyed</a>
  * @author Unicon, inc.
  * @since 1.0.1
  */
 @Repository
-public final class MongoServiceRegistryDao implements ServiceRegistryDao, InitializingBean {
+public final class MongoServiceRegistryDao implements BatchServiceRegistryDao, InitializingBean, DisposableBean {
 
 	private static final Logger log = LoggerFactory.getLogger(MongoServiceRegistryDao.class);
 
 	private static final String MONGODB_COLLECTION_NAME = RegisteredService.class.getSimpleName();
 
+	/**
+	 * Document field the services' <code>id</code> property is mapped to. Queries without an entity type are not mapped.
+	 */
+	private static final String MONGODB_ID_FIELD = "_id";
+
+	private static final String VERSION_COLLECTION_SUFFIX = ".version";
+
+	private static final String VERSION_FIELD = "version";
+
+	private static final long DEFAULT_CACHE_REFRESH_INTERVAL_MILLIS = 5000;
+
 	private String collectionName = MONGODB_COLLECTION_NAME;
 
 	private boolean dropCollection = false;
 
+	private boolean cacheEnabled = false;
+
+	private long cacheRefreshIntervalMillis = DEFAULT_CACHE_REFRESH_INTERVAL_MILLIS;
+
+	private final AtomicReference<RegisteredServicesIndex> cachedServices =
+			new AtomicReference<RegisteredServicesIndex>(new RegisteredServicesIndex(new ArrayList<RegisteredService>()));
+
+	/**
+	 * Serializes writes and refreshes of the cached services among themselves. Cache reads never acquire it.
+	 */
+	private final Object cacheMonitor = new Object();
+
+	/**
+	 * Version of the collection the cached services correspond to.
+	 */
+	@GuardedBy("cacheMonitor")
+	private long cachedVersion = -1;
+
+	private ScheduledExecutorService cacheRefresher;
+
 	@Autowired
 	@NotNull
 	private final MongoOperations mongoTemplate = null;
@@ -55,28 +109,69 @@ public final class MongoServiceRegistryDao implements ServiceRegistryDao, Initia
 			log.debug("Creating database collection: {}", this.collectionName);
 			this.mongoTemplate.createCollection(this.collectionName);
 		}
+
+		if (this.cacheEnabled) {
+			refreshCacheIfStale();
+			this.cacheRefresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "mongo-services-cache-refresher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.cacheRefresher.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						refreshCacheIfStale();
+					} catch (final RuntimeException e) {
+						log.warn("Could not refresh the cached registered services", e);
+					}
+				}
+			}, this.cacheRefreshIntervalMillis, this.cacheRefreshIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (this.cacheRefresher != null) {
+			this.cacheRefresher.shutdownNow();
+		}
 	}
 
 	@Override
 	@Transactional(readOnly = false)
 	public boolean delete(final RegisteredService svc) {
-		if (this.findServiceById(svc.getId()) != null) {
-			this.mongoTemplate.remove(svc, this.collectionName);
-			log.debug("Removed registered service: {}", svc);
-			return true;
+		synchronized (this.cacheMonitor) {
+			if (this.findServiceById(svc.getId()) != null) {
+				this.mongoTemplate.remove(svc, this.collectionName);
+				log.debug("Removed registered service: {}", svc);
+				incrementVersion();
+				if (this.cacheEnabled) {
+					this.cachedServices.set(this.cachedServices.get().withDeleted(svc.getId()));
+				}
+				return true;
+			}
+			return false;
 		}
-		return false;
 	}
 
 	@Override
 	@Transactional(readOnly = true)
 	public RegisteredService findServiceById(final long svcId) {
+		if (this.cacheEnabled) {
+			return this.cachedServices.get().findServiceById(svcId);
+		}
 		return this.mongoTemplate.findOne(new Query(Criteria.where("id").is(svcId)), RegisteredService.class, this.collectionName);
 	}
 
 	@Override
 	@Transactional(readOnly = true)
 	public List<RegisteredService> load() {
+		if (this.cacheEnabled) {
+			return this.cachedServices.get().getServicesInLoadOrder();
+		}
 		return this.mongoTemplate.findAll(RegisteredService.class, this.collectionName);
 	}
 
@@ -86,11 +181,93 @@ public final class MongoServiceRegistryDao implements ServiceRegistryDao, Initia
     if (svc.getId() == -1) {
         ((AbstractRegisteredService) svc).setId(svc.hashCode());
     }
-		this.mongoTemplate.save(svc, this.collectionName);
-		log.debug("Saved registered service: {}", svc);
+		synchronized (this.cacheMonitor) {
+			this.mongoTemplate.save(svc, this.collectionName);
+			log.debug("Saved registered service: {}", svc);
+			incrementVersion();
+			if (this.cacheEnabled) {
+				//What has just been written: no need for another round trip to read it back
+				this.cachedServices.set(this.cachedServices.get().withSaved(svc));
+				return svc;
+			}
+		}
 		return this.findServiceById(svc.getId());
 	}
 
+	/**
+	 * Save all of the given services, replacing the documents with the same ids, with a fixed number of round trips: the
+	 * documents about to be replaced are read, then removed with a single bulk remove, then the batch is written with a single
+	 * batch insert, and the version counter is incremented once for the whole batch. Should a service appear more than once in
+	 * the batch, the last one wins.
+	 * <p/>
+	 * The batch is not atomic. Readers which do not use the cache may briefly miss the replaced services between the remove
+	 * and the insert. Should the insert fail, whatever part of the batch made it is removed again and the documents read
+	 * beforehand are put back; only if that fails as well are all of the nodes' caches, this one included, made to reload.
+	 */
+	@Override
+	@Transactional(readOnly = false)
+	public List<RegisteredService> saveAll(final Collection<RegisteredService> registeredServices) {
+		final List<RegisteredService> batch = new ArrayList<RegisteredService>(registeredServices);
+		if (batch.isEmpty()) {
+			return batch;
+		}
+		final Map<Long, RegisteredService> servicesById = new LinkedHashMap<Long, RegisteredService>(batch.size() * 2);
+		for (final RegisteredService svc : batch) {
+			if (svc.getId() == -1) {
+				((AbstractRegisteredService) svc).setId(svc.hashCode());
+			}
+			servicesById.put(svc.getId(), svc);
+		}
+		final List<RegisteredService> toInsert = new ArrayList<RegisteredService>(servicesById.values());
+		final Query query = new Query(Criteria.where(MONGODB_ID_FIELD).in(new ArrayList<Long>(servicesById.keySet())));
+		synchronized (this.cacheMonitor) {
+			final List<RegisteredService> replaced = this.mongoTemplate.find(query, RegisteredService.class, this.collectionName);
+			this.mongoTemplate.remove(query, this.collectionName);
+			try {
+				this.mongoTemplate.insert(toInsert, this.collectionName);
+			} catch (final RuntimeException e) {
+				if (!restore(query, replaced)) {
+					//The collection is left in an unknown state: make every node, this one included, reload it
+					incrementVersion();
+					this.cachedVersion = -1;
+				}
+				throw e;
+			}
+			log.debug("Saved [{}] registered services, replacing [{}]", toInsert.size(), replaced.size());
+			incrementVersion();
+			if (this.cacheEnabled) {
+				this.cachedServices.set(this.cachedServices.get().withSavedAll(toInsert));
+			}
+		}
+		return batch;
+	}
+
+	/**
+	 * Delete all of the given services with a single bulk remove.
+	 */
+	@Override
+	@Transactional(readOnly = false)
+	public int deleteAll(final Collection<RegisteredService> registeredServices) {
+		if (registeredServices.isEmpty()) {
+			return 0;
+		}
+		final List<Long> ids = new ArrayList<Long>(registeredServices.size());
+		for (final RegisteredService svc : registeredServices) {
+			ids.add(svc.getId());
+		}
+		final Query query = new Query(Criteria.where(MONGODB_ID_FIELD).in(ids));
+		synchronized (this.cacheMonitor) {
+			final int existing = (int) this.mongoTemplate.count(query, this.collectionName);
+			this.mongoTemplate.remove(query, this.collectionName);
+			log.debug("Removed [{}] registered services", existing);
+			incrementVersion();
+			if (this.cacheEnabled) {
+				this.cachedServices.set(this.cachedServices.get().withDeletedAll(ids));
+			}
+			return existing;
+		}
+	}
+
 	/**
 	 * Optionally, specify the name of the mongodb collection where services are to be kept.
 	 * By default, the name of the collection is specified by the constant {@link #MONGODB_COLLECTION_NAME}
@@ -105,4 +282,91 @@ public final class MongoServiceRegistryDao implements ServiceRegistryDao, Initia
 	public void setDropCollection(final boolean dropCollection) {
 		this.dropCollection = dropCollection;
 	}
+
+	/**
+	 * When set to true, services are read from a local copy of the collection instead of the database. Defaults to false.
+	 */
+	public void setCacheEnabled(final boolean cacheEnabled) {
+		this.cacheEnabled = cacheEnabled;
+	}
+
+	/**
+	 * Interval, in milliseconds, at which the version of the collection is checked in order to refresh the local copy
+	 * of the collection in cached mode. Defaults to 5 seconds.
+	 */
+	public void setCacheRefreshIntervalMillis(final long cacheRefreshIntervalMillis) {
+		this.cacheRefreshIntervalMillis = cacheRefreshIntervalMillis;
+	}
+
+	/**
+	 * Reload the local copy of the collection if the version of the collection changed since it was last loaded.
+	 * Does nothing unless in cached mode.
+	 */
+	public void refreshCacheIfStale() {
+		if (!this.cacheEnabled) {
+			return;
+		}
+		synchronized (this.cacheMonitor) {
+			final CollectionVersion current = this.mongoTemplate.findOne(new Query(Criteria.where(MONGODB_ID_FIELD).is(this.collectionName)),
+					CollectionVersion.class, getVersionCollectionName());
+			final long version = current != null ? current.version : 0;
+			if (version != this.cachedVersion) {
+				final List<RegisteredService> services = this.mongoTemplate.findAll(RegisteredService.class, this.collectionName);
+				this.cachedServices.set(new RegisteredServicesIndex(services));
+				log.debug("Cached [{}] registered services at version [{}]", services.size(), version);
+				this.cachedVersion = version;
+			}
+		}
+	}
+
+	/**
+	 * Atomically increment the version of the collection. If no other node wrote to the collection since the cache was last
+	 * refreshed, the local write keeps the cache current and the new version is recorded as cached.
+	 * <p/>
+	 * Done on every write even when the cache is disabled, at the cost of one more round trip, since the nodes caching the same
+	 * collection would otherwise never pick the write up.
+	 */
+	@GuardedBy("cacheMonitor")
+	private void incrementVersion() {
+		final CollectionVersion incremented = this.mongoTemplate.findAndModify(
+				new Query(Criteria.where(MONGODB_ID_FIELD).is(this.collectionName)), new Update().inc(VERSION_FIELD, 1),
+				FindAndModifyOptions.options().upsert(true).returnNew(true), CollectionVersion.class, getVersionCollectionName());
+		if (incremented != null && incremented.version == this.cachedVersion + 1) {
+			this.cachedVersion = incremented.version;
+		}
+	}
+
+	/**
+	 * Put back the documents a failed batch save was to replace.
+	 *
+	 * @return true if the documents matching the query are the given ones again
+	 */
+	@GuardedBy("cacheMonitor")
+	private boolean restore(final Query query, final List<RegisteredService> replaced) {
+		try {
+			this.mongoTemplate.remove(query, this.collectionName);
+			if (!replaced.isEmpty()) {
+				this.mongoTemplate.insert(replaced, this.collectionName);
+			}
+			return true;
+		} catch (final RuntimeException e) {
+			log.error("Could not restore the [{}] registered services a failed batch save was to replace: {}",
+					replaced.size(), replaced, e);
+			return false;
+		}
+	}
+
+	private String getVersionCollectionName() {
+		return this.collectionName + VERSION_COLLECTION_SUFFIX;
+	}
+
+	/**
+	 * Document of the companion collection holding the version of a services collection.
+	 */
+	static final class CollectionVersion {
+
+		private String id;
+
+		private long version;
+	}
 }
@@ -0,0 +1,188 @@
+package net.unicon.cas.addons.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pool of random bytes shared by the generators of ids, which serves slices of large buffers filled from
+ * <code>SecureRandom</code> ahead of time, rather than having each id pull a few bytes from a shared <code>SecureRandom</code>.
+ * <p/>
+ * The pool is split into stripes, each with its own lock, <code>SecureRandom</code>, and two buffers: bytes are served
+ * from one, while the other is refilled by a background thread. Threads are spread over the stripes by id, and move on to
+ * the next stripe when theirs is busy. Should a buffer run out before the other one is refilled, it is refilled by the
+ * thread which needs the bytes.
+ * <p/>
+ * Generators get the pool through {@link EntropyPoolAware}.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@ThreadSafe
+public class EntropyPool implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(EntropyPool.class);
+
+    private final Stripe[] stripes;
+
+    private final ExecutorService refillExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "entropy-pool-refill");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Pool of twice as many stripes as there are processors, with buffers of 4KB.
+     */
+    public EntropyPool() {
+        this(2 * Runtime.getRuntime().availableProcessors(), 4096);
+    }
+
+    /**
+     * @param stripes count of stripes, rounded up to a power of 2
+     * @param bufferSize size in bytes of each of the 2 buffers of a stripe
+     */
+    public EntropyPool(final int stripes, final int bufferSize) {
+        if (stripes < 1 || bufferSize < 1) {
+            throw new IllegalArgumentException("Stripes and size of buffers must be positive: " + stripes + ", " + bufferSize);
+        }
+        int count = 1;
+        while (count < stripes) {
+            count <<= 1;
+        }
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe(bufferSize);
+        }
+        logger.info("Random bytes are served from [{}] stripes of 2 buffers of [{}] bytes", this.stripes.length, bufferSize);
+    }
+
+    /**
+     * @param bytes to fill with random bytes
+     */
+    public void nextBytes(final byte[] bytes) {
+        nextBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param bytes to fill with random bytes, from <code>offset</code> on
+     * @param offset of the first byte to fill
+     * @param length count of bytes to fill
+     */
+    public void nextBytes(final byte[] bytes, final int offset, final int length) {
+        final int mask = this.stripes.length - 1;
+        final int home = (int) Thread.currentThread().getId() & mask;
+        for (int i = 0; i < this.stripes.length; i++) {
+            final Stripe stripe = this.stripes[(home + i) & mask];
+            if (stripe.lock.tryLock()) {
+                try {
+                    stripe.serve(bytes, offset, length);
+                    return;
+                }
+                finally {
+                    stripe.lock.unlock();
+                }
+            }
+        }
+        //Every stripe is busy: wait for the one of this thread
+        final Stripe stripe = this.stripes[home];
+        stripe.lock.lock();
+        try {
+            stripe.serve(bytes, offset, length);
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Stops refilling buffers in the background. The pool can still be used, buffers being refilled by the threads which
+     * need the bytes.
+     */
+    @Override
+    public void destroy() {
+        this.refillExecutor.shutdownNow();
+    }
+
+    private final class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final SecureRandom random = new SecureRandom();
+
+        @GuardedBy("lock")
+        private byte[] buffer;
+
+        @GuardedBy("lock")
+        private int position;
+
+        /**
+         * Refilled buffer, null while it is being refilled.
+         */
+        @GuardedBy("lock")
+        private byte[] spare;
+
+        Stripe(final int bufferSize) {
+            this.buffer = new byte[bufferSize];
+            this.spare = new byte[bufferSize];
+            this.random.nextBytes(this.buffer);
+            this.random.nextBytes(this.spare);
+        }
+
+        void serve(final byte[] bytes, final int offset, final int length) {
+            int served = 0;
+            while (served < length) {
+                if (this.position == this.buffer.length) {
+                    swapBuffers();
+                }
+                final int count = Math.min(length - served, this.buffer.length - this.position);
+                System.arraycopy(this.buffer, this.position, bytes, offset + served, count);
+                this.position += count;
+                served += count;
+            }
+        }
+
+        private void swapBuffers() {
+            if (this.spare == null) {
+                logger.debug("Buffer ran out before being refilled in the background");
+                this.random.nextBytes(this.buffer);
+                this.position = 0;
+                return;
+            }
+            final byte[] used = this.buffer;
+            this.buffer = this.spare;
+            this.position = 0;
+            this.spare = null;
+            try {
+                refillExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        random.nextBytes(used);
+                        lock.lock();
+                        try {
+                            spare = used;
+                        }
+                        finally {
+                            lock.unlock();
+                        }
+                    }
+                });
+            }
+            catch (final RejectedExecutionException e) {
+                //Destroyed: refilled on demand from now on
+                this.random.nextBytes(used);
+                this.spare = used;
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package net.unicon.cas.addons.support;
+
+/**
+ * To be implemented by the generators of ids which take their random bytes from an {@link EntropyPool}, when one is
+ * configured.
+ *
+ * @author Unicon, inc.
+ * @see EntropyPoolAwareBeanPostProcessor
+ * @since 4.0
+ */
+public interface EntropyPoolAware {
+
+    /**
+     * @param entropyPool to take random bytes from
+     */
+    void setEntropyPool(EntropyPool entropyPool);
+}
@@ -0,0 +1,33 @@
+package net.unicon.cas.addons.support;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+/**
+ * <code>BeanPostProcessor</code> giving an {@link EntropyPool} to every {@link EntropyPoolAware} bean of the application
+ * context, such as the generator of ticket ids, or the SAML views.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+public class EntropyPoolAwareBeanPostProcessor implements BeanPostProcessor {
+
+    private final EntropyPool entropyPool;
+
+    public EntropyPoolAwareBeanPostProcessor(final EntropyPool entropyPool) {
+        this.entropyPool = entropyPool;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(final Object bean, final String beanName) throws BeansException {
+        if (bean instanceof EntropyPoolAware) {
+            EntropyPoolAware.class.cast(bean).setEntropyPool(this.entropyPool);
+        }
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(final Object bean, final String beanName) throws BeansException {
+        return bean;
+    }
+}
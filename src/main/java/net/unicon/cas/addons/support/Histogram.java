@@ -0,0 +1,138 @@
+package net.unicon.cas.addons.support;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values, such as latencies or sizes, cheap enough to be recorded on hot paths.
+ * <p/>
+ * Like HdrHistogram, values are counted in log-linear buckets: exactly up to 15, then in 8 buckets per power of 2, so
+ * that any value reported, e.g. a percentile, is within 12.5% of the values it stands for, whatever their magnitude.
+ * Recording a value costs a few atomic increments and no allocation.
+ * <p/>
+ * Values are counted while being read, so a snapshot may be slightly inconsistent, e.g. the count a bit ahead of the
+ * buckets, which is fine for monitoring.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@ThreadSafe
+public final class Histogram {
+
+    private static final int EXACT_VALUES = 16;
+
+    private static final int SUB_BUCKETS = 8;
+
+    private static final int BUCKETS = EXACT_VALUES + (63 - 4) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value to record, negative values being recorded as 0
+     */
+    public void record(final long value) {
+        final long v = Math.max(0, value);
+        this.counts.incrementAndGet(bucketOf(v));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(v);
+        long currentMax = this.max.get();
+        while (v > currentMax && !this.max.compareAndSet(currentMax, v)) {
+            currentMax = this.max.get();
+        }
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * @return mean of the values recorded, or 0 if none has been
+     */
+    public double getMean() {
+        final long n = this.count.get();
+        return n == 0 ? 0 : (double) this.sum.get() / n;
+    }
+
+    /**
+     * @return largest value recorded, or 0 if none has been
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return value at or under which the given percentage of the values recorded fall, or 0 if none has been
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long n = this.count.get();
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return count, mean, max and usual percentiles of the values recorded
+     */
+    public Map<String, Number> toMap() {
+        final Map<String, Number> map = new LinkedHashMap<String, Number>();
+        map.put("count", getCount());
+        map.put("mean", Math.round(getMean() * 10) / 10.0);
+        map.put("p50", getValueAtPercentile(50));
+        map.put("p90", getValueAtPercentile(90));
+        map.put("p99", getValueAtPercentile(99));
+        map.put("p999", getValueAtPercentile(99.9));
+        map.put("max", getMax());
+        return map;
+    }
+
+    /**
+     * Forget the values recorded so far.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.count.set(0);
+        this.sum.set(0);
+        this.max.set(0);
+    }
+
+    static int bucketOf(final long value) {
+        if (value < EXACT_VALUES) {
+            return (int) value;
+        }
+        //Keep the 4 most significant bits: the leading 1 picks the power of 2, the next 3 the sub-bucket
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - 3;
+        return EXACT_VALUES + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long highestValueOf(final int bucket) {
+        if (bucket < EXACT_VALUES) {
+            return bucket;
+        }
+        final int shift = (bucket - EXACT_VALUES) / SUB_BUCKETS + 1;
+        final long subBucket = (bucket - EXACT_VALUES) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -15,7 +15,7 @@ import org.springframework.core.io.Resource;
  * A class responsible for detecting contents changes of configured resource (file, classpath, URL, etc.)
  * by comparing their SHA1 digests - the one saved at the last check and the latest one. If the change
  * is detected, it publishes Spring's <code>ApplicationEvent</code> typed as <code>ResourceChangedEvent</code>
- * wrapping the resource's URI in question within it.
+ * wrapping the resource's URI in question, along with its new SHA1 digest, within it.
  * <p/>
  * Any interested <code>ApplicationListener</code>s within ApplicationContext could then pick up those events and
  * react to them appropriately.
@@ -41,14 +41,28 @@ public class ResourceChangeDetectingEventNotifier implements ApplicationEventPub
 
         private final URI resourceUri;
 
+        private final String resourceSha1Hex;
+
         public ResourceChangedEvent(final Object source, final URI resourceUri) {
+            this(source, resourceUri, null);
+        }
+
+        public ResourceChangedEvent(final Object source, final URI resourceUri, final String resourceSha1Hex) {
             super(source);
             this.resourceUri = resourceUri;
+            this.resourceSha1Hex = resourceSha1Hex;
         }
 
         public URI getResourceUri() {
             return this.resourceUri;
         }
+
+        /**
+         * @return SHA1 digest of the changed resource's contents, as hex, or <code>null</code> if unknown
+         */
+        public String getResourceSha1Hex() {
+            return this.resourceSha1Hex;
+        }
     }
 
     private ApplicationEventPublisher applicationEventPublisher;
@@ -89,7 +103,7 @@ public class ResourceChangeDetectingEventNotifier implements ApplicationEventPub
                 logger.debug("Resource: [{}] | Old Hash: [{}] | New Hash: [{}]", new Object[] {this.watchedResource.getURI(), currentResourceSha1, newResourceSha1});
                 synchronized (this.resourceSha1Hex) {
                     this.resourceSha1Hex = newResourceSha1;
-                    this.applicationEventPublisher.publishEvent(new ResourceChangedEvent(this, this.watchedResource.getURI()));
+                    this.applicationEventPublisher.publishEvent(new ResourceChangedEvent(this, this.watchedResource.getURI(), newResourceSha1));
                 }
             }
         }
@@ -0,0 +1,38 @@
+package net.unicon.cas.addons.ticket;
+
+import org.jasig.cas.ticket.Ticket;
+
+/**
+ * Optional capability of a <code>TicketRegistry</code> to retrieve only the tickets matching a {@link TicketFilter},
+ * evaluated by the underlying ticket store, and to fetch them lazily in bounded pages instead of all at once like
+ * <code>TicketRegistry#getTickets</code> does. Tickets can also be aggregated where they are stored, with only the
+ * results of a {@link TicketAggregator} coming back.
+ * <p/>
+ * <p>Concurrency semantics: implementations must be thread safe. The returned <code>Iterable</code>s need not be.</p>
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+public interface QueryableTicketRegistry {
+
+    /**
+     * Retrieve the tickets matching a filter. Pages are fetched as the returned tickets are iterated over, so tickets
+     * added or removed meanwhile may or may not be returned, but no ticket is returned twice by a single iteration.
+     *
+     * @param filter   criteria the tickets must meet
+     * @param pageSize approximate number of tickets to fetch from the ticket store at a time
+     * @return tickets matching the filter, in no particular order, and NEVER <b>null</b>
+     */
+    Iterable<Ticket> getTickets(TicketFilter filter, int pageSize);
+
+    /**
+     * Aggregate the tickets matching a filter. Like with {@link #getTickets(TicketFilter, int)}, tickets added or removed
+     * meanwhile may or may not be aggregated.
+     *
+     * @param filter     criteria the tickets must meet
+     * @param aggregator to add the result of the aggregation to
+     * @param <A>        type of the aggregator
+     * @return the given aggregator
+     */
+    <A extends TicketAggregator<A>> A aggregate(TicketFilter filter, A aggregator);
+}
@@ -0,0 +1,167 @@
+package net.unicon.cas.addons.ticket;
+
+import net.unicon.cas.addons.support.NotThreadSafe;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Aggregate metrics of SSO sessions: number of sessions, in total and per principal, and histograms of the age of their
+ * authentication and of their number of uses.
+ * <p/>
+ * An SSO session is a root TGT. Proxy granting tickets, as well as any other kind of ticket, are left out.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@NotThreadSafe
+public final class SingleSignOnSessionsSummary implements TicketAggregator<SingleSignOnSessionsSummary> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long[] AUTHENTICATION_AGE_UPPER_BOUNDS_IN_SECONDS = {300, 900, 3600, 14400, 28800, 86400};
+
+    private static final String[] AUTHENTICATION_AGE_LABELS = {"<5m", "<15m", "<1h", "<4h", "<8h", "<24h", ">=24h"};
+
+    private static final long[] NUMBER_OF_USES_UPPER_BOUNDS = {2, 6, 11, 51};
+
+    private static final String[] NUMBER_OF_USES_LABELS = {"0-1", "2-5", "6-10", "11-50", ">50"};
+
+    private final long referenceTime;
+
+    private long activeSessions;
+
+    private long totalNumberOfUses;
+
+    private final HashMap<String, Integer> sessionsPerPrincipal = new HashMap<String, Integer>();
+
+    private final long[] authenticationAgeCounts = new long[AUTHENTICATION_AGE_LABELS.length];
+
+    private final long[] numberOfUsesCounts = new long[NUMBER_OF_USES_LABELS.length];
+
+    /**
+     * Summary of sessions whose age is computed as of now.
+     */
+    public SingleSignOnSessionsSummary() {
+        this(System.currentTimeMillis());
+    }
+
+    /**
+     * @param referenceTime time as of which the age of sessions is computed, in milliseconds since the epoch
+     */
+    public SingleSignOnSessionsSummary(final long referenceTime) {
+        this.referenceTime = referenceTime;
+    }
+
+    @Override
+    public SingleSignOnSessionsSummary emptyCopy() {
+        return new SingleSignOnSessionsSummary(this.referenceTime);
+    }
+
+    @Override
+    public void add(final Ticket ticket) {
+        if (!(ticket instanceof TicketGrantingTicket) || !((TicketGrantingTicket) ticket).isRoot()) {
+            return;
+        }
+        final Authentication authentication = ((TicketGrantingTicket) ticket).getAuthentication();
+        this.activeSessions++;
+        this.totalNumberOfUses += ticket.getCountOfUses();
+        this.numberOfUsesCounts[bucketOf(ticket.getCountOfUses(), NUMBER_OF_USES_UPPER_BOUNDS)]++;
+        if (authentication == null) {
+            return;
+        }
+        if (authentication.getAuthenticatedDate() != null) {
+            final long ageInSeconds = (this.referenceTime - authentication.getAuthenticatedDate().getTime()) / 1000;
+            this.authenticationAgeCounts[bucketOf(ageInSeconds, AUTHENTICATION_AGE_UPPER_BOUNDS_IN_SECONDS)]++;
+        }
+        if (authentication.getPrincipal() != null) {
+            addSessions(authentication.getPrincipal().getId(), 1);
+        }
+    }
+
+    @Override
+    public void merge(final SingleSignOnSessionsSummary other) {
+        this.activeSessions += other.activeSessions;
+        this.totalNumberOfUses += other.totalNumberOfUses;
+        for (final Map.Entry<String, Integer> e : other.sessionsPerPrincipal.entrySet()) {
+            addSessions(e.getKey(), e.getValue());
+        }
+        for (int i = 0; i < this.authenticationAgeCounts.length; i++) {
+            this.authenticationAgeCounts[i] += other.authenticationAgeCounts[i];
+        }
+        for (int i = 0; i < this.numberOfUsesCounts.length; i++) {
+            this.numberOfUsesCounts[i] += other.numberOfUsesCounts[i];
+        }
+    }
+
+    /**
+     * @return time as of which the age of sessions is computed, in milliseconds since the epoch
+     */
+    public long getReferenceTime() {
+        return this.referenceTime;
+    }
+
+    /**
+     * @return number of SSO sessions
+     */
+    public long getActiveSessions() {
+        return this.activeSessions;
+    }
+
+    /**
+     * @return total number of uses of the SSO sessions
+     */
+    public long getTotalNumberOfUses() {
+        return this.totalNumberOfUses;
+    }
+
+    /**
+     * @return number of SSO sessions by principal id
+     */
+    public Map<String, Integer> getSessionsPerPrincipal() {
+        return Collections.unmodifiableMap(this.sessionsPerPrincipal);
+    }
+
+    /**
+     * @return number of SSO sessions by range of age of their authentication, from the most recent to the oldest
+     */
+    public Map<String, Long> getAuthenticationAgeHistogram() {
+        return histogram(AUTHENTICATION_AGE_LABELS, this.authenticationAgeCounts);
+    }
+
+    /**
+     * @return number of SSO sessions by range of number of uses, from the least to the most used
+     */
+    public Map<String, Long> getNumberOfUsesHistogram() {
+        return histogram(NUMBER_OF_USES_LABELS, this.numberOfUsesCounts);
+    }
+
+    private void addSessions(final String principalId, final int sessions) {
+        final Integer current = this.sessionsPerPrincipal.get(principalId);
+        this.sessionsPerPrincipal.put(principalId, current == null ? sessions : current + sessions);
+    }
+
+    /**
+     * @return index of the first of the given exclusive upper bounds above the value, or their number if there is none
+     */
+    private static int bucketOf(final long value, final long[] upperBounds) {
+        int i = 0;
+        while (i < upperBounds.length && value >= upperBounds[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static Map<String, Long> histogram(final String[] labels, final long[] counts) {
+        final Map<String, Long> histogram = new LinkedHashMap<String, Long>(labels.length * 2);
+        for (int i = 0; i < labels.length; i++) {
+            histogram.put(labels[i], counts[i]);
+        }
+        return Collections.unmodifiableMap(histogram);
+    }
+}
@@ -0,0 +1,35 @@
+package net.unicon.cas.addons.ticket;
+
+import org.jasig.cas.ticket.Ticket;
+
+import java.io.Serializable;
+
+/**
+ * Accumulates values computed from tickets in a single pass, e.g. counts or histograms, without retaining the tickets.
+ * <p/>
+ * Aggregators are serializable and mergeable, so that distributed registries could run a copy of an aggregator where
+ * the tickets are stored, and only send back its result to be merged with the ones of the other nodes.
+ * <p/>
+ * Concurrency semantics: implementations need not be thread safe, each aggregator is only used by one thread at a time.
+ *
+ * @param <A> type of the aggregator itself
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+public interface TicketAggregator<A extends TicketAggregator<A>> extends Serializable {
+
+    /**
+     * @return a new aggregator with the same settings as this one, which has not aggregated any ticket yet
+     */
+    A emptyCopy();
+
+    /**
+     * @param ticket to aggregate
+     */
+    void add(Ticket ticket);
+
+    /**
+     * @param other aggregator whose result to add to this one
+     */
+    void merge(A other);
+}
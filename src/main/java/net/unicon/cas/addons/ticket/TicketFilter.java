@@ -0,0 +1,129 @@
+package net.unicon.cas.addons.ticket;
+
+import net.unicon.cas.addons.support.Immutable;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+
+import java.io.Serializable;
+
+/**
+ * Criteria selecting tickets by type, expiration and principal, for retrievals from a {@link QueryableTicketRegistry}.
+ * <p/>
+ * Filters are serializable, so that distributed registries could evaluate them where the tickets are stored, and
+ * only send back the tickets which match. They are built from one of the static factory methods, narrowed down by the
+ * others, e.g. <code>TicketFilter.ticketGrantingTickets().nonExpired().withPrincipal("alice")</code>
+ * <p/>
+ * The principal of a TGT is the one of its authentication, the principal of an ST the one of its granting ticket.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@Immutable
+public final class TicketFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Class<? extends Ticket> ticketType;
+
+    private final boolean nonExpiredOnly;
+
+    private final String principalId;
+
+    private TicketFilter(final Class<? extends Ticket> ticketType, final boolean nonExpiredOnly, final String principalId) {
+        this.ticketType = ticketType;
+        this.nonExpiredOnly = nonExpiredOnly;
+        this.principalId = principalId;
+    }
+
+    /**
+     * @return a filter matching any ticket
+     */
+    public static TicketFilter allTickets() {
+        return new TicketFilter(Ticket.class, false, null);
+    }
+
+    /**
+     * @return a filter matching TGTs, proxy granting tickets included
+     */
+    public static TicketFilter ticketGrantingTickets() {
+        return new TicketFilter(TicketGrantingTicket.class, false, null);
+    }
+
+    /**
+     * @return a filter matching STs, proxy tickets included
+     */
+    public static TicketFilter serviceTickets() {
+        return new TicketFilter(ServiceTicket.class, false, null);
+    }
+
+    /**
+     * @return a copy of this filter which additionally leaves out expired tickets
+     */
+    public TicketFilter nonExpired() {
+        return new TicketFilter(this.ticketType, true, this.principalId);
+    }
+
+    /**
+     * @param principalId id of the principal the tickets must belong to
+     * @return a copy of this filter which additionally leaves out the tickets of other principals
+     */
+    public TicketFilter withPrincipal(final String principalId) {
+        return new TicketFilter(this.ticketType, this.nonExpiredOnly, principalId);
+    }
+
+    /**
+     * @param ticket to evaluate, may be <code>null</code>
+     * @return whether the given ticket meets all of the criteria of this filter
+     */
+    public boolean matches(final Ticket ticket) {
+        if (!this.ticketType.isInstance(ticket)) {
+            return false;
+        }
+        if (this.nonExpiredOnly && ticket.isExpired()) {
+            return false;
+        }
+        return this.principalId == null || this.principalId.equals(getPrincipalId(ticket));
+    }
+
+    /**
+     * @return type the tickets must be an instance of
+     */
+    public Class<? extends Ticket> getTicketType() {
+        return this.ticketType;
+    }
+
+    /**
+     * @return whether expired tickets are left out
+     */
+    public boolean isNonExpiredOnly() {
+        return this.nonExpiredOnly;
+    }
+
+    /**
+     * @return id of the principal the tickets must belong to, or <code>null</code> for any principal
+     */
+    public String getPrincipalId() {
+        return this.principalId;
+    }
+
+    private static String getPrincipalId(final Ticket ticket) {
+        final TicketGrantingTicket tgt = ticket instanceof ServiceTicket ? ((ServiceTicket) ticket).getGrantingTicket() :
+                ticket instanceof TicketGrantingTicket ? (TicketGrantingTicket) ticket : null;
+        if (tgt == null) {
+            return null;
+        }
+        final Authentication authentication = tgt.getAuthentication();
+        if (authentication == null || authentication.getPrincipal() == null) {
+            return null;
+        }
+        return authentication.getPrincipal().getId();
+    }
+
+    @Override
+    public String toString() {
+        return "TicketFilter[type=" + this.ticketType.getSimpleName() + ", nonExpiredOnly=" + this.nonExpiredOnly
+                + ", principalId=" + this.principalId + "]";
+    }
+}
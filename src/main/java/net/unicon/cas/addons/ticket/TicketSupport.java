@@ -46,4 +46,31 @@ public interface TicketSupport {
 	 * @throws BulkRetrievalOfTicketsNotSupportedException
 	 */
 	List<TicketGrantingTicket> getNonExpiredTicketGrantingTickets() throws BulkRetrievalOfTicketsNotSupportedException;
+
+	/**
+	 * Convenience method to visit the active (non-expired at the time of call) TGTs of CAS' underlying ticket store one at a time,
+	 * without retrieving all of them at once. When the underlying ticket store is a <code>QueryableTicketRegistry</code>,
+	 * the TGTs of other principals are left out by the store itself.
+	 *
+	 * @param principalId id of the principal the TGTs must belong to, or <code>null</code> for any principal
+	 * @param limit       maximum number of TGTs to visit, or 0 for no limit
+	 * @param visitor     to call back with each TGT, until it returns false
+	 * @return number of TGTs visited
+	 *         <strong>NOTE TO IMPLEMENTERS:</strong> this method should never throw any exceptions other than
+	 *         <code>BulkRetrievalOfTicketsNotSupportedException</code> and the ones of the visitor
+	 * @throws BulkRetrievalOfTicketsNotSupportedException
+	 */
+	int visitNonExpiredTicketGrantingTickets(String principalId, int limit, TicketVisitor<TicketGrantingTicket> visitor)
+			throws BulkRetrievalOfTicketsNotSupportedException;
+
+	/**
+	 * Convenience method to compute aggregate metrics of the active (non-expired at the time of call) SSO sessions,
+	 * without retrieving the TGTs themselves when the underlying ticket store can aggregate them on its own.
+	 *
+	 * @return metrics of the non-expired SSO sessions, and NEVER <b>null</b>
+	 *         <strong>NOTE TO IMPLEMENTERS:</strong> this method should never throw any exceptions other than
+	 *         <code>BulkRetrievalOfTicketsNotSupportedException</code>
+	 * @throws BulkRetrievalOfTicketsNotSupportedException
+	 */
+	SingleSignOnSessionsSummary getSingleSignOnSessionsSummary() throws BulkRetrievalOfTicketsNotSupportedException;
 }
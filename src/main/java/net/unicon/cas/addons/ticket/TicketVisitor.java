@@ -0,0 +1,23 @@
+package net.unicon.cas.addons.ticket;
+
+import org.jasig.cas.ticket.Ticket;
+
+/**
+ * Callback visiting tickets one at a time as they are retrieved from the ticket store, so that tickets can be processed
+ * without all of them being held in memory at once, and the visit stopped early.
+ * <p/>
+ * Concurrency semantics: implementations need not be thread safe, each visitor is only called by one thread at a time.
+ *
+ * @param <T> type of the tickets visited
+ * @author Unicon, inc.
+ * @see TicketSupport#visitNonExpiredTicketGrantingTickets(String, int, TicketVisitor)
+ * @since 4.0
+ */
+public interface TicketVisitor<T extends Ticket> {
+
+    /**
+     * @param ticket to visit, NEVER <b>null</b>
+     * @return whether to go on visiting tickets
+     */
+    boolean visit(T ticket);
+}
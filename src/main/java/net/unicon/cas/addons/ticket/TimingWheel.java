@@ -0,0 +1,266 @@
+package net.unicon.cas.addons.ticket;
+
+import net.unicon.cas.addons.support.NotThreadSafe;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchical timing wheel scheduling the expiration of keys, e.g. ticket ids, so that a ticket registry removes expired
+ * tickets without scanning all of them.
+ * <p/>
+ * Time is cut into ticks. The wheel has several levels of slots, each slot of a level spanning as many ticks as a whole
+ * turn of the level below: with the defaults of one second ticks and 4 levels of 64 slots, the levels span about a minute,
+ * an hour, three days and half a year. A key lands in the slot of the lowest level which tells its expiration time apart
+ * from the current time. When the time reaches a slot of an upper level, its keys are moved down to the lower levels;
+ * a key moves down at most once per level, and expires when the time reaches its slot of the lowest level. Scheduling,
+ * rescheduling, e.g. when the sliding expiration of a TGT is extended, and cancelling a key thus all take constant time,
+ * as does expiring it. Keys expiring beyond the span of the wheel are kept aside and placed again once per turn of the
+ * upper level.
+ * <p/>
+ * Keys are reported expired once their expiration time has passed, at most one tick later. The wheel has to be advanced
+ * regularly, about once per tick, as advancing it takes time in proportion to the number of ticks elapsed.
+ * <p/>
+ * This class is not thread safe: registries already holding a lock while writing tickets schedule their keys under it.
+ *
+ * @param <K> type of the keys, with consistent <code>equals</code> and <code>hashCode</code>
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@NotThreadSafe
+public final class TimingWheel<K> {
+
+    private final long tickInMillis;
+
+    private final int bitsPerLevel;
+
+    private final int mask;
+
+    private final Entry<K>[][] levels;
+
+    private final Entry<K> beyondSpan = Entry.newList();
+
+    private final Map<K, Entry<K>> entries = new HashMap<K, Entry<K>>();
+
+    private long currentTick;
+
+    /**
+     * Wheel of one second ticks and 4 levels of 64 slots.
+     *
+     * @param startTime time in milliseconds from which the wheel advances, usually the current time
+     */
+    public TimingWheel(final long startTime) {
+        this(1000, 64, 4, startTime);
+    }
+
+    /**
+     * @param tickInMillis  duration of a tick, i.e. how late keys may be reported expired
+     * @param slotsPerLevel number of slots of each level, a power of 2
+     * @param levels        number of levels
+     * @param startTime     time in milliseconds from which the wheel advances, usually the current time
+     */
+    public TimingWheel(final long tickInMillis, final int slotsPerLevel, final int levels, final long startTime) {
+        if (tickInMillis < 1 || slotsPerLevel < 2 || Integer.bitCount(slotsPerLevel) != 1 || levels < 1
+                || Integer.numberOfTrailingZeros(slotsPerLevel) * levels > 62) {
+            throw new IllegalArgumentException("Invalid timing wheel: ticks of " + tickInMillis + " ms, "
+                    + levels + " levels of " + slotsPerLevel + " slots");
+        }
+        this.tickInMillis = tickInMillis;
+        this.bitsPerLevel = Integer.numberOfTrailingZeros(slotsPerLevel);
+        this.mask = slotsPerLevel - 1;
+        this.levels = newLevels(levels, slotsPerLevel);
+        for (final Entry<K>[] level : this.levels) {
+            for (int slot = 0; slot < slotsPerLevel; slot++) {
+                level[slot] = Entry.newList();
+            }
+        }
+        this.currentTick = startTime / tickInMillis;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K> Entry<K>[][] newLevels(final int levels, final int slotsPerLevel) {
+        return new Entry[levels][slotsPerLevel];
+    }
+
+    /**
+     * Schedule the expiration of a key, or reschedule it if it was already scheduled.
+     *
+     * @param key            to expire
+     * @param expirationTime time in milliseconds after which the key expires
+     */
+    public void schedule(final K key, final long expirationTime) {
+        Entry<K> entry = this.entries.get(key);
+        if (entry == null) {
+            entry = new Entry<K>(key);
+            this.entries.put(key, entry);
+        }
+        else {
+            entry.unlink();
+        }
+        entry.expirationTime = expirationTime;
+        //Rounded up, so that keys are never reported expired early
+        entry.deadlineTick = expirationTime / this.tickInMillis + (expirationTime % this.tickInMillis == 0 ? 0 : 1);
+        place(entry);
+    }
+
+    /**
+     * @return whether the key was scheduled
+     */
+    public boolean cancel(final K key) {
+        final Entry<K> entry = this.entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        entry.unlink();
+        return true;
+    }
+
+    /**
+     * @return expiration time of the key in milliseconds, or -1 if it is not scheduled
+     */
+    public long getExpirationTime(final K key) {
+        final Entry<K> entry = this.entries.get(key);
+        return entry == null ? -1 : entry.expirationTime;
+    }
+
+    /**
+     * Advance the wheel up to the given time, unscheduling the keys which have expired by then.
+     *
+     * @param now current time in milliseconds
+     * @return keys which have expired, in no particular order, or an empty list and NEVER <b>null</b>
+     */
+    public List<K> advance(final long now) {
+        final long tick = now / this.tickInMillis;
+        final List<K> expired = new ArrayList<K>();
+        while (this.currentTick < tick) {
+            this.currentTick++;
+            if ((this.currentTick & spanMask(this.levels.length)) == 0) {
+                replace(this.beyondSpan);
+            }
+            //Upper levels first, so that keys moving down several levels at once are not missed
+            for (int level = this.levels.length - 1; level > 0; level--) {
+                if ((this.currentTick & spanMask(level)) == 0) {
+                    replace(this.levels[level][slotOf(this.currentTick, level)]);
+                }
+            }
+            final Entry<K> slot = this.levels[0][slotOf(this.currentTick, 0)];
+            for (Entry<K> entry = slot.next; entry != slot; entry = slot.next) {
+                entry.unlink();
+                this.entries.remove(entry.key);
+                expired.add(entry.key);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @return number of keys scheduled
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Put an entry in the slot of the lowest level on which its deadline and the current tick differ, i.e. in a slot the
+     * time reaches before its deadline and not earlier than one slot of the level below.
+     */
+    private void place(final Entry<K> entry) {
+        if (entry.deadlineTick <= this.currentTick) {
+            //Already expired, reported at the next tick
+            this.levels[0][slotOf(this.currentTick + 1, 0)].append(entry);
+            return;
+        }
+        final int highestDifferentBit = 63 - Long.numberOfLeadingZeros(entry.deadlineTick ^ this.currentTick);
+        final int level = highestDifferentBit / this.bitsPerLevel;
+        if (level >= this.levels.length) {
+            this.beyondSpan.append(entry);
+        }
+        else {
+            this.levels[level][slotOf(entry.deadlineTick, level)].append(entry);
+        }
+    }
+
+    /**
+     * Place again the entries of a slot reached by the current tick, before the slot of the lowest level is expired.
+     */
+    private void replace(final Entry<K> slot) {
+        //Detached first, as entries may be placed back in the same list
+        final Entry<K> entries = Entry.newList();
+        entries.appendAll(slot);
+        for (Entry<K> entry = entries.next; entry != entries; entry = entries.next) {
+            entry.unlink();
+            if (entry.deadlineTick <= this.currentTick) {
+                this.levels[0][slotOf(this.currentTick, 0)].append(entry);
+            }
+            else {
+                place(entry);
+            }
+        }
+    }
+
+    private int slotOf(final long tick, final int level) {
+        return (int) (tick >>> (this.bitsPerLevel * level)) & this.mask;
+    }
+
+    /**
+     * @return mask of the bits of a tick below the given level
+     */
+    private long spanMask(final int level) {
+        return (1L << (this.bitsPerLevel * level)) - 1;
+    }
+
+    /**
+     * Scheduled key, linked in the circular list of its slot, whose head is an entry without a key.
+     */
+    private static final class Entry<K> {
+
+        private final K key;
+
+        private long expirationTime;
+
+        private long deadlineTick;
+
+        private Entry<K> previous = this;
+
+        private Entry<K> next = this;
+
+        private Entry(final K key) {
+            this.key = key;
+        }
+
+        static <K> Entry<K> newList() {
+            return new Entry<K>(null);
+        }
+
+        void append(final Entry<K> entry) {
+            entry.previous = this.previous;
+            entry.next = this;
+            this.previous.next = entry;
+            this.previous = entry;
+        }
+
+        /**
+         * Move all of the entries of another list to the end of this one.
+         */
+        void appendAll(final Entry<K> list) {
+            if (list.next == list) {
+                return;
+            }
+            list.next.previous = this.previous;
+            list.previous.next = this;
+            this.previous.next = list.next;
+            this.previous = list.previous;
+            list.next = list;
+            list.previous = list;
+        }
+
+        void unlink() {
+            this.previous.next = this.next;
+            this.next.previous = this.previous;
+            this.previous = this;
+            this.next = this;
+        }
+    }
+}
@@ -2,7 +2,11 @@ package net.unicon.cas.addons.ticket.internal;
 
 import net.unicon.cas.addons.support.ThreadSafe;
 import net.unicon.cas.addons.ticket.BulkRetrievalOfTicketsNotSupportedException;
+import net.unicon.cas.addons.ticket.QueryableTicketRegistry;
+import net.unicon.cas.addons.ticket.SingleSignOnSessionsSummary;
+import net.unicon.cas.addons.ticket.TicketFilter;
 import net.unicon.cas.addons.ticket.TicketSupport;
+import net.unicon.cas.addons.ticket.TicketVisitor;
 import org.jasig.cas.ticket.Ticket;
 import org.jasig.cas.ticket.TicketGrantingTicket;
 import org.jasig.cas.ticket.registry.TicketRegistry;
@@ -10,12 +14,20 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Default implementation of <code>TicketSupport</code>
  * <p/>
  * Uses CAS' <code>TicketRegistry</code> to retrieve TGT and its associated objects by provided tgt String token
+ * <p/>
+ * Bulk retrievals are delegated to the registry as filtered, paged queries when it is a <code>QueryableTicketRegistry</code>,
+ * so that only the matching tickets are fetched from the underlying ticket store, and aggregations are computed by the
+ * registry itself. Other registries are scanned once, without keeping the tickets which do not match. Visits stream the
+ * tickets in the same way, fetching no more than the limit of tickets to visit at a time from queryable registries.
  *
  * @author Dmitriy Kopylenko
  * @author Unicon, inc.
@@ -25,6 +37,8 @@ import java.util.List;
 @Component
 public class DefaultTicketSupport implements TicketSupport {
 
+	private static final int PAGE_SIZE = 1000;
+
 	private final TicketRegistry ticketRegistry;
 
 	@Autowired
@@ -51,17 +65,129 @@ public class DefaultTicketSupport implements TicketSupport {
 	@Override
 	public List<TicketGrantingTicket> getNonExpiredTicketGrantingTickets() throws BulkRetrievalOfTicketsNotSupportedException {
 		final List<TicketGrantingTicket> tgts = new ArrayList<TicketGrantingTicket>();
+		visitNonExpiredTicketGrantingTickets(null, 0, new TicketVisitor<TicketGrantingTicket>() {
+			@Override
+			public boolean visit(TicketGrantingTicket ticket) {
+				tgts.add(ticket);
+				return true;
+			}
+		});
+		return tgts;
+	}
 
+	@Override
+	public int visitNonExpiredTicketGrantingTickets(String principalId, int limit, TicketVisitor<TicketGrantingTicket> visitor)
+			throws BulkRetrievalOfTicketsNotSupportedException {
+		final TicketFilter filter = TicketFilter.ticketGrantingTickets().nonExpired().withPrincipal(principalId);
+		final Iterator<Ticket> tickets;
 		try {
+			tickets = getTickets(filter, limit > 0 ? Math.min(limit, PAGE_SIZE) : PAGE_SIZE).iterator();
+		}
+		catch (UnsupportedOperationException e) {
+			throw new BulkRetrievalOfTicketsNotSupportedException("The underlying implementation of <TicketRegistry> does not support a bulk retrieval of tickets", e);
+		}
+		int visited = 0;
+		Ticket ticket;
+		while ((ticket = nextTicket(tickets)) != null) {
+			visited++;
+			//Stopped right away once the limit is reached, so that no further page is fetched
+			if (!visitor.visit((TicketGrantingTicket) ticket) || visited == limit) {
+				break;
+			}
+		}
+		return visited;
+	}
+
+	@Override
+	public SingleSignOnSessionsSummary getSingleSignOnSessionsSummary() throws BulkRetrievalOfTicketsNotSupportedException {
+		final TicketFilter filter = TicketFilter.ticketGrantingTickets().nonExpired();
+		final SingleSignOnSessionsSummary summary = new SingleSignOnSessionsSummary();
+		try {
+			if (this.ticketRegistry instanceof QueryableTicketRegistry) {
+				return QueryableTicketRegistry.class.cast(this.ticketRegistry).aggregate(filter, summary);
+			}
 			for (Ticket ticket : this.ticketRegistry.getTickets()) {
-				if ((ticket instanceof TicketGrantingTicket) && !ticket.isExpired()) {
-					tgts.add((TicketGrantingTicket) ticket);
+				if (filter.matches(ticket)) {
+					summary.add(ticket);
 				}
 			}
 		}
 		catch (UnsupportedOperationException e) {
 			throw new BulkRetrievalOfTicketsNotSupportedException("The underlying implementation of <TicketRegistry> does not support a bulk retrieval of tickets", e);
 		}
-		return tgts;
+		return summary;
+	}
+
+	/**
+	 * Only the retrieval of the tickets is guarded, so that the exceptions thrown by visitors reach their caller as is.
+	 *
+	 * @return the next ticket, or <code>null</code> if there are no more
+	 */
+	private static Ticket nextTicket(Iterator<Ticket> tickets) throws BulkRetrievalOfTicketsNotSupportedException {
+		try {
+			return tickets.hasNext() ? tickets.next() : null;
+		}
+		catch (UnsupportedOperationException e) {
+			throw new BulkRetrievalOfTicketsNotSupportedException("The underlying implementation of <TicketRegistry> does not support a bulk retrieval of tickets", e);
+		}
+	}
+
+	/**
+	 * @return the tickets matching the filter, retrieved as they are iterated over
+	 */
+	private Iterable<Ticket> getTickets(final TicketFilter filter, final int pageSize) {
+		if (this.ticketRegistry instanceof QueryableTicketRegistry) {
+			return QueryableTicketRegistry.class.cast(this.ticketRegistry).getTickets(filter, pageSize);
+		}
+		final Collection<Ticket> tickets = this.ticketRegistry.getTickets();
+		return new Iterable<Ticket>() {
+			@Override
+			public Iterator<Ticket> iterator() {
+				return new FilteringIterator(tickets.iterator(), filter);
+			}
+		};
+	}
+
+	/**
+	 * Skips the tickets which do not match a filter.
+	 */
+	private static final class FilteringIterator implements Iterator<Ticket> {
+
+		private final Iterator<Ticket> tickets;
+
+		private final TicketFilter filter;
+
+		private Ticket next;
+
+		FilteringIterator(Iterator<Ticket> tickets, TicketFilter filter) {
+			this.tickets = tickets;
+			this.filter = filter;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (this.next == null && this.tickets.hasNext()) {
+				final Ticket ticket = this.tickets.next();
+				if (this.filter.matches(ticket)) {
+					this.next = ticket;
+				}
+			}
+			return this.next != null;
+		}
+
+		@Override
+		public Ticket next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			final Ticket ticket = this.next;
+			this.next = null;
+			return ticket;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
 	}
 }
@@ -1,5 +1,7 @@
 package net.unicon.cas.addons.ticket.internal;
 
+import net.unicon.cas.addons.support.EntropyPool;
+import net.unicon.cas.addons.support.EntropyPoolAware;
 import org.apache.commons.lang.StringUtils;
 import org.jasig.cas.util.DefaultLongNumericGenerator;
 import org.jasig.cas.util.DefaultRandomStringGenerator;
@@ -11,6 +13,8 @@ import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An implementation of {@link UniqueTicketIdGenerator} that is able auto-configure
@@ -26,13 +30,27 @@ import java.net.UnknownHostException;
  * and diagnostics. To provide a remedy, this ticket generator is able to retrieve the host.name value directly from
  * the actual node name, rather than relying on the configuration, only if one isn't specified in
  * the <code>cas.properties</code> file. </p>
+ * <p>In high-throughput mode, each thread draws the numeric part of the ids from its own block of numbers, handed out by
+ * a counter shared by all threads, and the random part from its own <code>SecureRandom</code>, whose bytes are fetched
+ * in bulk ahead of time. Ids stay unique per node and are built with the same characters, though their numeric parts
+ * no longer follow the order in which they are generated. When given an {@link EntropyPool}, threads fetch their random
+ * bytes from the pool instead, which implies the high-throughput mode.</p>
  * @author Misagh Moayyed (mmoayyed@unicon.net)
  * @since 1.7
  */
-public final class HostNameBasedUniqueTicketIdGenerator implements UniqueTicketIdGenerator {
+public final class HostNameBasedUniqueTicketIdGenerator implements UniqueTicketIdGenerator, EntropyPoolAware {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HostNameBasedUniqueTicketIdGenerator.class);
 
+    /** The characters of the random part of the id, as used by <code>DefaultRandomStringGenerator</code>. */
+    private static final char[] PRINTABLE_CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ012345679".toCharArray();
+
+    /** Count of numbers handed out at once to a thread in high-throughput mode. */
+    private static final long NUMBER_BLOCK_SIZE = 1024;
+
+    /** Count of random bytes fetched at once by a thread in high-throughput mode. */
+    private static final int PREFETCHED_RANDOM_BYTES = 4096;
+
     /** The numeric generator to generate the static part of the id. */
     private final NumericGenerator numericGenerator;
 
@@ -41,6 +59,20 @@ public final class HostNameBasedUniqueTicketIdGenerator implements UniqueTicketI
 
     private String suffix;
 
+    /** The next block of numbers to hand out to a thread in high-throughput mode. */
+    private final AtomicLong nextNumberBlock = new AtomicLong();
+
+    private final ThreadLocal<IdSource> idSources = new ThreadLocal<IdSource>() {
+        @Override
+        protected IdSource initialValue() {
+            return new IdSource();
+        }
+    };
+
+    private volatile boolean highThroughput;
+
+    private volatile EntropyPool entropyPool;
+
     public HostNameBasedUniqueTicketIdGenerator() {
         this(null);
     }
@@ -61,7 +93,22 @@ public final class HostNameBasedUniqueTicketIdGenerator implements UniqueTicketI
         prepareTicketSuffix(suffix);
     }
 
+    /**
+     * @param highThroughput whether to generate ids without contention between threads. Defaults to false.
+     */
+    public void setHighThroughput(final boolean highThroughput) {
+        this.highThroughput = highThroughput;
+    }
+
+    @Override
+    public void setEntropyPool(final EntropyPool entropyPool) {
+        this.entropyPool = entropyPool;
+    }
+
     public String getNewTicketId(final String prefix) {
+        if (this.highThroughput || this.entropyPool != null) {
+            return getNewTicketIdWithoutContention(prefix);
+        }
         final String number = this.numericGenerator.getNextNumberAsString();
         final StringBuilder buffer = new StringBuilder(prefix.length() + 2
                 + (this.suffix != null ? this.suffix.length() : 0) + this.randomStringGenerator.getMaxLength()
@@ -80,6 +127,90 @@ public final class HostNameBasedUniqueTicketIdGenerator implements UniqueTicketI
         return buffer.toString();
     }
 
+    private String getNewTicketIdWithoutContention(final String prefix) {
+        final IdSource source = this.idSources.get();
+        final long number = source.nextNumber();
+        final int randomLength = this.randomStringGenerator.getMaxLength();
+        final int suffixLength = this.suffix != null ? this.suffix.length() : 0;
+        final int digits = digitsOf(number);
+        final char[] id = new char[prefix.length() + 2 + digits + randomLength + suffixLength];
+
+        prefix.getChars(0, prefix.length(), id, 0);
+        int position = prefix.length();
+        id[position++] = '-';
+        long remainder = number;
+        for (int i = position + digits - 1; i >= position; i--) {
+            id[i] = (char) ('0' + remainder % 10);
+            remainder /= 10;
+        }
+        position += digits;
+        id[position++] = '-';
+        source.nextChars(id, position, randomLength);
+        position += randomLength;
+
+        if (this.suffix != null) {
+            this.suffix.getChars(0, suffixLength, id, position);
+        }
+
+        return new String(id);
+    }
+
+    private static int digitsOf(final long number) {
+        int digits = 1;
+        for (long n = number / 10; n > 0; n /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Numbers and random bytes of a thread.
+     */
+    private final class IdSource {
+
+        private SecureRandom random;
+
+        private final byte[] randomBytes = new byte[PREFETCHED_RANDOM_BYTES];
+
+        private int nextRandomByte = PREFETCHED_RANDOM_BYTES;
+
+        private long nextNumber;
+
+        private long numberLimit;
+
+        long nextNumber() {
+            if (this.nextNumber == this.numberLimit) {
+                //Starts at 1, as DefaultLongNumericGenerator does
+                this.nextNumber = nextNumberBlock.getAndIncrement() * NUMBER_BLOCK_SIZE + 1;
+                this.numberLimit = this.nextNumber + NUMBER_BLOCK_SIZE;
+            }
+            return this.nextNumber++;
+        }
+
+        void nextChars(final char[] chars, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (this.nextRandomByte == this.randomBytes.length) {
+                    fetchRandomBytes();
+                }
+                //Same mapping as DefaultRandomStringGenerator, so that characters keep the same distribution
+                chars[i] = PRINTABLE_CHARACTERS[Math.abs(this.randomBytes[this.nextRandomByte++] % PRINTABLE_CHARACTERS.length)];
+            }
+        }
+
+        private void fetchRandomBytes() {
+            final EntropyPool pool = entropyPool;
+            if (pool != null) {
+                pool.nextBytes(this.randomBytes);
+            } else {
+                if (this.random == null) {
+                    this.random = new SecureRandom();
+                }
+                this.random.nextBytes(this.randomBytes);
+            }
+            this.nextRandomByte = 0;
+        }
+    }
+
     private void prepareTicketSuffix(final String suffix) {
         this.suffix = null;
 
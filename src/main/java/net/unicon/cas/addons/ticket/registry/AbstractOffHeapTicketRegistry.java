@@ -0,0 +1,418 @@
+package net.unicon.cas.addons.ticket.registry;
+
+import net.unicon.cas.addons.support.GuardedBy;
+import net.unicon.cas.addons.support.ThreadSafe;
+import net.unicon.cas.addons.ticket.QueryableTicketRegistry;
+import net.unicon.cas.addons.ticket.TicketAggregator;
+import net.unicon.cas.addons.ticket.TicketFilter;
+import net.unicon.cas.addons.ticket.TimingWheel;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.AbstractDistributedTicketRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Base class of the node-local <code>TicketRegistry</code> implementations keeping tickets serialized outside of the Java
+ * heap, for single node or sticky session deployments with millions of tickets: the heap then only holds the tickets
+ * being used, and the garbage collector neither traces nor copies the others.
+ * <p/>
+ * Tickets are serialized in the compact form of {@link TicketStreamSerializer} into the {@link TicketRecordStore} created
+ * by the subclass, and looked up by id through an open-addressing hash index of primitive arrays. Like the entries of
+ * {@link HazelcastTicketRegistry}, tickets expire after the timeout of their type, counted from the last time they were
+ * added or updated. Expired tickets are no longer returned, and are removed every second by a background task driven by a
+ * {@link TimingWheel}, which only looks at the tickets due to expire rather than scanning all of them. The wheel holds the
+ * ids of the tickets on the heap, a small fraction of the size of the tickets themselves.
+ * <p/>
+ * Tickets are deserialized on each read: a TGT read twice yields two distinct instances, and changes made to a ticket
+ * are only seen by others once written back with <code>updateTicket</code>, as the ticket delegators of CAS do.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@ThreadSafe
+public abstract class AbstractOffHeapTicketRegistry extends AbstractDistributedTicketRegistry
+        implements QueryableTicketRegistry, InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(AbstractOffHeapTicketRegistry.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long ticketGrantingTicketTimeoutInSeconds;
+
+    private final long serviceTicketTimeoutInSeconds;
+
+    private final TicketStreamSerializer serializer = new TicketStreamSerializer(false, Integer.MAX_VALUE);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @GuardedBy("lock")
+    private TimingWheel<String> expirationWheel;
+
+    @GuardedBy("lock")
+    private TicketRecordStore store;
+
+    private ScheduledExecutorService expirationExecutor;
+
+    /**
+     * @param ticketGrantingTicketTimeoutInSeconds time after which TGTs expire, since they were last added or updated
+     * @param serviceTicketTimeoutInSeconds time after which STs expire, since they were last added or updated
+     */
+    protected AbstractOffHeapTicketRegistry(final long ticketGrantingTicketTimeoutInSeconds, final long serviceTicketTimeoutInSeconds) {
+        this.ticketGrantingTicketTimeoutInSeconds = ticketGrantingTicketTimeoutInSeconds;
+        this.serviceTicketTimeoutInSeconds = serviceTicketTimeoutInSeconds;
+    }
+
+    /**
+     * @return the store of the records of the tickets, with the records found in it, if any, when it is persistent
+     */
+    abstract TicketRecordStore createStore() throws IOException;
+
+    @Override
+    public void afterPropertiesSet() {
+        this.lock.writeLock().lock();
+        try {
+            if (this.store != null) {
+                return;
+            }
+            try {
+                this.store = createStore();
+            }
+            catch (final IOException e) {
+                throw new IllegalStateException("Ticket store could not be opened", e);
+            }
+            this.expirationWheel = new TimingWheel<String>(System.currentTimeMillis());
+            for (final long location : this.store.locations()) {
+                this.expirationWheel.schedule(new String(this.store.idAt(location), UTF_8), this.store.expirationTimeAt(location));
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+        this.expirationExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "off-heap-ticket-registry-expiration");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.expirationExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    removeExpiredTickets(System.currentTimeMillis());
+                }
+                catch (final RuntimeException e) {
+                    logger.error("Expired tickets could not be removed", e);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (this.expirationExecutor != null) {
+            this.expirationExecutor.shutdownNow();
+            this.expirationExecutor = null;
+        }
+        this.lock.writeLock().lock();
+        try {
+            if (this.store != null) {
+                this.store.close();
+                this.store = null;
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addTicket(final Ticket ticket) {
+        logger.debug("Adding Ticket[{}] off-heap", ticket.getId());
+        storeTicket(ticket);
+    }
+
+    @Override
+    protected void updateTicket(final Ticket ticket) {
+        logger.debug("Updating Ticket[{}] off-heap", ticket.getId());
+        storeTicket(ticket);
+    }
+
+    @Override
+    public Ticket getTicket(final String ticketId) {
+        if (ticketId == null) {
+            return null;
+        }
+        final byte[] serialized;
+        this.lock.readLock().lock();
+        try {
+            serialized = store().get(ticketId.getBytes(UTF_8), System.currentTimeMillis());
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+        return serialized == null ? null : getProxiedTicketInstance(deserialize(serialized));
+    }
+
+    @Override
+    public boolean deleteTicket(final String ticketId) {
+        if (ticketId == null) {
+            return false;
+        }
+        logger.debug("Removing Ticket[{}] from off-heap", ticketId);
+        this.lock.writeLock().lock();
+        try {
+            final boolean removed = store().remove(ticketId.getBytes(UTF_8));
+            this.expirationWheel.cancel(ticketId);
+            return removed;
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return a snapshot of the tickets which have not expired, all deserialized on the heap at once. Prefer
+     * {@link #getTickets(TicketFilter, int)} with large numbers of tickets.
+     */
+    @Override
+    public Collection<Ticket> getTickets() {
+        final List<Ticket> tickets = new ArrayList<Ticket>();
+        for (final Ticket ticket : getTickets(TicketFilter.allTickets(), 1000)) {
+            tickets.add(ticket);
+        }
+        return tickets;
+    }
+
+    /**
+     * Only the ids of the tickets are copied on the heap upfront, packed in a single array. Tickets are then looked up by
+     * id and deserialized a page at a time, holding the read lock for the duration of a page only: tickets added meanwhile
+     * are not returned, and tickets updated or removed meanwhile are returned in their latest state, or not at all. Ids
+     * rather than locations are kept, since records are moved by compactions and their locations reused meanwhile.
+     */
+    @Override
+    public Iterable<Ticket> getTickets(final TicketFilter filter, final int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        return new Iterable<Ticket>() {
+            @Override
+            public Iterator<Ticket> iterator() {
+                return new PagedTicketIterator(filter, pageSize);
+            }
+        };
+    }
+
+    /**
+     * Tickets are all stored on this node, so they are aggregated in a single pass, a page at a time.
+     */
+    @Override
+    public <A extends TicketAggregator<A>> A aggregate(final TicketFilter filter, final A aggregator) {
+        for (final Ticket ticket : getTickets(filter, 1000)) {
+            aggregator.add(ticket);
+        }
+        return aggregator;
+    }
+
+    /**
+     * @return number of tickets stored, including the expired ones not removed yet
+     */
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return store().size();
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected boolean needsCallback() {
+        return false;
+    }
+
+    /**
+     * Remove the tickets which have expired as of the given time.
+     *
+     * @return number of tickets removed
+     */
+    int removeExpiredTickets(final long now) {
+        this.lock.writeLock().lock();
+        try {
+            final TicketRecordStore store = store();
+            int removed = 0;
+            for (final String ticketId : this.expirationWheel.advance(now)) {
+                if (store.removeIfExpired(ticketId.getBytes(UTF_8), now)) {
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                logger.debug("Removed [{}] expired tickets from off-heap", removed);
+            }
+            return removed;
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void storeTicket(final Ticket ticket) {
+        final byte[] serialized = serialize(ticket);
+        final long expirationTime = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(getTimeout(ticket));
+        this.lock.writeLock().lock();
+        try {
+            store().put(ticket.getId().getBytes(UTF_8), serialized, expirationTime);
+            //Rescheduled if already there, extending the sliding expiration of TGTs
+            this.expirationWheel.schedule(ticket.getId(), expirationTime);
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the store, to be used while holding the lock
+     */
+    TicketRecordStore store() {
+        if (this.store == null) {
+            throw new IllegalStateException(getClass().getSimpleName() + " is not open: afterPropertiesSet was not called, or destroy was");
+        }
+        return this.store;
+    }
+
+    private byte[] serialize(final Ticket ticket) {
+        try {
+            return this.serializer.toBytes(ticket);
+        }
+        catch (final IOException e) {
+            throw new IllegalStateException("Ticket[" + ticket.getId() + "] could not be serialized", e);
+        }
+    }
+
+    private Ticket deserialize(final byte[] serialized) {
+        try {
+            return this.serializer.fromBytes(serialized, 0, serialized.length);
+        }
+        catch (final IOException e) {
+            throw new IllegalStateException("Ticket could not be deserialized", e);
+        }
+    }
+
+    private long getTimeout(final Ticket t) {
+        if (t instanceof TicketGrantingTicket) {
+            return this.ticketGrantingTicketTimeoutInSeconds;
+        }
+        else if (t instanceof ServiceTicket) {
+            return this.serviceTicketTimeoutInSeconds;
+        }
+        throw new IllegalArgumentException("Invalid ticket type");
+    }
+
+    /**
+     * Deserializes the tickets matching a filter one page of ids at a time.
+     */
+    private final class PagedTicketIterator implements Iterator<Ticket> {
+
+        private final TicketFilter filter;
+
+        private final int pageSize;
+
+        /**
+         * Ids of the tickets, one after the other, the id at index <code>i</code> ending where the next one starts.
+         */
+        private final byte[] ids;
+
+        private final int[] idOffsets;
+
+        private int nextId;
+
+        private Iterator<Ticket> page = new ArrayList<Ticket>().iterator();
+
+        private PagedTicketIterator(final TicketFilter filter, final int pageSize) {
+            this.filter = filter;
+            this.pageSize = pageSize;
+            final ByteArrayOutputStream ids = new ByteArrayOutputStream();
+            lock.readLock().lock();
+            try {
+                final long[] locations = store().locations();
+                this.idOffsets = new int[locations.length + 1];
+                for (int i = 0; i < locations.length; i++) {
+                    final byte[] id = store().idAt(locations[i]);
+                    ids.write(id, 0, id.length);
+                    this.idOffsets[i + 1] = ids.size();
+                }
+            }
+            finally {
+                lock.readLock().unlock();
+            }
+            this.ids = ids.toByteArray();
+        }
+
+        @Override
+        public boolean hasNext() {
+            final int count = this.idOffsets.length - 1;
+            while (!this.page.hasNext() && this.nextId < count) {
+                final int end = Math.min(count, this.nextId + this.pageSize);
+                final List<byte[]> serialized = new ArrayList<byte[]>(end - this.nextId);
+                lock.readLock().lock();
+                try {
+                    final long now = System.currentTimeMillis();
+                    for (; this.nextId < end; this.nextId++) {
+                        final byte[] bytes = store().get(Arrays.copyOfRange(this.ids, this.idOffsets[this.nextId],
+                                this.idOffsets[this.nextId + 1]), now);
+                        if (bytes != null) {
+                            serialized.add(bytes);
+                        }
+                    }
+                }
+                finally {
+                    lock.readLock().unlock();
+                }
+                final List<Ticket> tickets = new ArrayList<Ticket>(serialized.size());
+                for (final byte[] bytes : serialized) {
+                    final Ticket ticket = deserialize(bytes);
+                    if (this.filter.matches(ticket)) {
+                        tickets.add(ticket);
+                    }
+                }
+                this.page = tickets.iterator();
+            }
+            return this.page.hasNext();
+        }
+
+        @Override
+        public Ticket next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return getProxiedTicketInstance(this.page.next());
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -1,15 +1,41 @@
 package net.unicon.cas.addons.ticket.registry;
 
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.core.EntryAdapter;
+import com.hazelcast.core.EntryEvent;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IExecutorService;
 import com.hazelcast.core.IMap;
+import com.hazelcast.core.Member;
+import com.hazelcast.core.MultiMap;
+import net.unicon.cas.addons.ticket.QueryableTicketRegistry;
+import net.unicon.cas.addons.ticket.TicketAggregator;
+import net.unicon.cas.addons.ticket.TicketFilter;
 import org.jasig.cas.ticket.ServiceTicket;
 import org.jasig.cas.ticket.Ticket;
 import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
 import org.jasig.cas.ticket.registry.AbstractDistributedTicketRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -21,14 +47,81 @@ import java.util.concurrent.TimeUnit;
  * <p/>
  * The logic for tgt and st timeout settings and dynamically determining the ticket type is borrowed
  * from CAS' <code>MemCacheTicketRegistry</code>
+ * <p/>
+ * The ids of TGTs, root TGTs as well as PGTs, are additionally indexed by the id of the principal of their authentication
+ * in a companion Hazelcast <code>MultiMap</code>, so that the SSO sessions of a given user could be looked up, or destroyed,
+ * without scanning the whole tickets map. Index entries are dropped when their TGT is deleted or evicted, and any entry
+ * left over pointing to a TGT which no longer exists is pruned the next time the sessions of its principal are looked up.
+ * TGTs written to the tickets map other than through this registry are not indexed, hence not found by principal.
+ * <p/>
+ * All tickets are stored in a single map by default. They may instead be split by type, routed by the prefix of their id,
+ * into separate maps for TGTs, STs and proxy tickets, each with its own TTL, max idle time, in-memory format and backups:
+ * the churn of short-lived STs then no longer disturbs the long-lived TGTs. Note that CAS issues PGTs with the TGT prefix
+ * and PTs with the ST prefix by default, only ids prefixed with <code>PGT-</code> or <code>PT-</code> end up in the
+ * proxy tickets map.
+ * <p/>
+ * TGTs may optionally be kept in a node-local near cache, invalidated by the events of the tickets map, so that the
+ * repeated reads of a TGT during a login do not each cost a network round trip. TGTs written by a node are visible to
+ * its own subsequent reads right away. STs are always read from the tickets map since they are only used once.
+ * <p/>
+ * Tickets matching a {@link TicketFilter} can be retrieved page by page with {@link #getTickets(TicketFilter, int)}: the
+ * filter is evaluated by the members owning the entries, and only the matching tickets of one page at a time are sent
+ * back, rather than all of the tickets of the cluster at once as with {@link #getTickets()}. Tickets can likewise be
+ * aggregated by each member, through the <code>ticketAggregations</code> executor service, with only the results of the
+ * aggregation sent back.
+ * <p/>
+ * Latencies and hit ratios of the operations of this registry are recorded when it is given {@link TicketRegistryMetrics}.
+ * <p/>
+ * STs may optionally be written asynchronously, so that granting one does not wait for the acknowledgment of its owner
+ * and backups, within a bounded window of writes in flight. Until its write completes, an ST is read by the node which
+ * wrote it from a local overlay. Other nodes only see it once the write has landed in the tickets map, which nothing
+ * guarantees to happen before a service validates it: should the validation request reach another node first, e.g.
+ * without sticky sessions or when the owner of the entry is slow, the ST is not found and the validation fails. This is
+ * why STs are written synchronously by default, and asynchronous writes are best kept to clusters whose load balancer
+ * routes validation requests to the node which granted the ST.
  *
  * @author Dmitriy Kopylenko
  * @author Unicon, inc.
  * @since 1.9
  */
-public class HazelcastTicketRegistry extends AbstractDistributedTicketRegistry {
+public class HazelcastTicketRegistry extends AbstractDistributedTicketRegistry
+        implements QueryableTicketRegistry, InitializingBean, DisposableBean {
+
+    static final String PROXY_GRANTING_TICKET_PREFIX = "PGT-";
+
+    static final String PROXY_TICKET_PREFIX = "PT-";
 
-    private final IMap<String, Ticket> ticketsMap;
+    static final String SERVICE_TICKET_PREFIX = ServiceTicket.PREFIX + "-";
+
+    private final IMap<String, Ticket> ticketGrantingTicketsMap;
+
+    private final IMap<String, Ticket> serviceTicketsMap;
+
+    private final IMap<String, Ticket> proxyTicketsMap;
+
+    /**
+     * Distinct maps among the above.
+     */
+    private final List<IMap<String, Ticket>> ticketMaps = new ArrayList<IMap<String, Ticket>>();
+
+    /**
+     * Names of the maps whose entries expire after the TTL of the map, rather than the timeout of their ticket type.
+     */
+    private final Set<String> mapsWithOwnTimeToLive = new HashSet<String>();
+
+    /**
+     * Names of the maps whose entries expire after the max idle time of the map only, which any access to them refreshes.
+     */
+    private final Set<String> mapsWithOwnMaxIdleTime = new HashSet<String>();
+
+    private final MultiMap<String, String> ticketGrantingTicketIdsByPrincipal;
+
+    private final IExecutorService aggregationExecutor;
+
+    /**
+     * Member of this node, or <code>null</code> when connected as a client.
+     */
+    private final Member localMember;
 
     private static final Logger logger = LoggerFactory.getLogger(HazelcastTicketRegistry.class);
 
@@ -36,6 +129,24 @@ public class HazelcastTicketRegistry extends AbstractDistributedTicketRegistry {
 
     private final long ticketGrantingTicketTimeoutInSeconds;
 
+    private boolean ticketGrantingTicketNearCacheEnabled;
+
+    private int ticketGrantingTicketNearCacheMaxSize = 100000;
+
+    private long ticketGrantingTicketNearCacheTimeToLiveInSeconds = 60;
+
+    private volatile TicketGrantingTicketNearCache ticketGrantingTicketNearCache;
+
+    private String ticketGrantingTicketNearCacheListenerId;
+
+    private volatile TicketRegistryMetrics metrics;
+
+    private boolean asyncServiceTicketWritesEnabled;
+
+    private int maxPendingServiceTicketWrites = 1000;
+
+    private volatile PendingTicketWrites pendingServiceTicketWrites;
+
     /**
      * @param hz an instance of <code>HazelcastInstance</code> configured on each node
      * @param ticketGrantingTicketTimeoutInSeconds for TGT Hazelcast Map entries TTL
@@ -44,42 +155,420 @@ public class HazelcastTicketRegistry extends AbstractDistributedTicketRegistry {
      * where tickets are stored and seamlessly replicated across nodes in the cluster by Hazelcast.
      */
     public HazelcastTicketRegistry(final HazelcastInstance hz, long ticketGrantingTicketTimeoutInSeconds, long serviceTicketTimeoutInSeconds) {
+        this(hz, ticketGrantingTicketTimeoutInSeconds, serviceTicketTimeoutInSeconds, null, null, null);
+    }
+
+    /**
+     * Store each type of ticket in its own Hazelcast Map. Each given <code>MapConfig</code> is added to the configuration of
+     * the Hazelcast instance, unless a configuration with the same name is already there, in which case the latter wins.
+     * A map whose configuration has a positive TTL, or else a positive max idle time, applies it to its entries, the timeout
+     * of their ticket type is used otherwise.
+     *
+     * @param hz an instance of <code>HazelcastInstance</code> configured on each node
+     * @param ticketGrantingTicketTimeoutInSeconds for TGT Hazelcast Map entries TTL
+     * @param serviceTicketTimeoutInSeconds for ST Hazelcast Map entries TTL
+     * @param ticketGrantingTicketsMapConfig configuration of the map of TGTs, and of the tickets with an unknown prefix
+     * @param serviceTicketsMapConfig configuration of the map of STs
+     * @param proxyTicketsMapConfig configuration of the map of PGTs and PTs
+     */
+    public HazelcastTicketRegistry(final HazelcastInstance hz, long ticketGrantingTicketTimeoutInSeconds, long serviceTicketTimeoutInSeconds,
+                                   final MapConfig ticketGrantingTicketsMapConfig, final MapConfig serviceTicketsMapConfig,
+                                   final MapConfig proxyTicketsMapConfig) {
         logger.info("Constructing TicketRegistry from HazelcastInstance: {}", hz);
         logger.info("TicketGrantingTicket timeout is used for Hazelcast ST entries (in seconds): [{}]", ticketGrantingTicketTimeoutInSeconds);
         logger.info("ServiceTicket timeout is used for Hazelcast ST entries (in seconds): [{}]", serviceTicketTimeoutInSeconds);
-        this.ticketsMap = hz.getMap("tickets");
+        if (ticketGrantingTicketsMapConfig == null || serviceTicketsMapConfig == null || proxyTicketsMapConfig == null) {
+            this.ticketGrantingTicketsMap = hz.getMap("tickets");
+            this.serviceTicketsMap = this.ticketGrantingTicketsMap;
+            this.proxyTicketsMap = this.ticketGrantingTicketsMap;
+        }
+        else {
+            this.ticketGrantingTicketsMap = createTicketMap(hz, ticketGrantingTicketsMapConfig);
+            this.serviceTicketsMap = createTicketMap(hz, serviceTicketsMapConfig);
+            this.proxyTicketsMap = createTicketMap(hz, proxyTicketsMapConfig);
+        }
+        for (final IMap<String, Ticket> map : Arrays.asList(this.ticketGrantingTicketsMap, this.serviceTicketsMap, this.proxyTicketsMap)) {
+            if (!this.ticketMaps.contains(map)) {
+                this.ticketMaps.add(map);
+            }
+        }
+        this.ticketGrantingTicketIdsByPrincipal = hz.getMultiMap("ticketGrantingTicketsByPrincipal");
+        this.aggregationExecutor = hz.getExecutorService("ticketAggregations");
+        this.localMember = getLocalMember(hz);
+        try {
+            for (final IMap<String, Ticket> map : this.ticketMaps) {
+                map.addLocalEntryListener(new PrincipalIndexEvictionListener());
+            }
+        }
+        catch (final UnsupportedOperationException e) {
+            logger.info("Evicted TGTs are not removed from the principal index on this node: " +
+                    "they will be pruned when the sessions of their principal are looked up");
+        }
         this.ticketGrantingTicketTimeoutInSeconds = ticketGrantingTicketTimeoutInSeconds;
         this.serviceTicketTimeoutInSeconds = serviceTicketTimeoutInSeconds;
     }
 
+    private static Member getLocalMember(final HazelcastInstance hz) {
+        try {
+            return hz.getCluster().getLocalMember();
+        }
+        catch (final UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private IMap<String, Ticket> createTicketMap(final HazelcastInstance hz, final MapConfig mapConfig) {
+        MapConfig effectiveConfig = hz.getConfig().getMapConfigs().get(mapConfig.getName());
+        if (effectiveConfig == null) {
+            hz.getConfig().addMapConfig(mapConfig);
+            effectiveConfig = mapConfig;
+        }
+        else {
+            logger.info("Using the configuration of Hazelcast Map [{}] found in the Hazelcast instance", mapConfig.getName());
+        }
+        if (effectiveConfig.getTimeToLiveSeconds() > 0) {
+            this.mapsWithOwnTimeToLive.add(effectiveConfig.getName());
+        }
+        else if (effectiveConfig.getMaxIdleSeconds() > 0) {
+            this.mapsWithOwnMaxIdleTime.add(effectiveConfig.getName());
+        }
+        return hz.getMap(mapConfig.getName());
+    }
+
+    /**
+     * @param ticketGrantingTicketNearCacheEnabled whether to keep TGTs in a node-local near cache. Defaults to false.
+     */
+    public void setTicketGrantingTicketNearCacheEnabled(final boolean ticketGrantingTicketNearCacheEnabled) {
+        this.ticketGrantingTicketNearCacheEnabled = ticketGrantingTicketNearCacheEnabled;
+    }
+
+    /**
+     * @param ticketGrantingTicketNearCacheMaxSize maximum number of TGTs kept in the near cache. Defaults to 100000.
+     */
+    public void setTicketGrantingTicketNearCacheMaxSize(final int ticketGrantingTicketNearCacheMaxSize) {
+        this.ticketGrantingTicketNearCacheMaxSize = ticketGrantingTicketNearCacheMaxSize;
+    }
+
+    /**
+     * @param ticketGrantingTicketNearCacheTimeToLiveInSeconds time after which TGTs are dropped from the near cache,
+     * bounding how stale they could get should an invalidation be lost. Defaults to 60.
+     */
+    public void setTicketGrantingTicketNearCacheTimeToLiveInSeconds(final long ticketGrantingTicketNearCacheTimeToLiveInSeconds) {
+        this.ticketGrantingTicketNearCacheTimeToLiveInSeconds = ticketGrantingTicketNearCacheTimeToLiveInSeconds;
+    }
+
+    /**
+     * @param metrics to record the operations of this registry to. None are recorded by default.
+     */
+    public void setMetrics(final TicketRegistryMetrics metrics) {
+        if (metrics != null) {
+            for (final IMap<String, Ticket> map : this.ticketMaps) {
+                metrics.monitor(map);
+            }
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param asyncServiceTicketWritesEnabled whether to write STs asynchronously, at the risk of other nodes not finding
+     * them when validated right away. Defaults to false.
+     */
+    public void setAsyncServiceTicketWritesEnabled(final boolean asyncServiceTicketWritesEnabled) {
+        this.asyncServiceTicketWritesEnabled = asyncServiceTicketWritesEnabled;
+    }
+
+    /**
+     * @param maxPendingServiceTicketWrites maximum number of asynchronous writes of STs in flight, beyond which granting
+     * an ST waits for one of them to complete. Defaults to 1000.
+     */
+    public void setMaxPendingServiceTicketWrites(final int maxPendingServiceTicketWrites) {
+        this.maxPendingServiceTicketWrites = maxPendingServiceTicketWrites;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (this.ticketGrantingTicketNearCacheEnabled && this.ticketGrantingTicketNearCache == null) {
+            logger.info("TGTs are kept in a near cache of [{}] entries with a TTL of [{}] seconds",
+                    this.ticketGrantingTicketNearCacheMaxSize, this.ticketGrantingTicketNearCacheTimeToLiveInSeconds);
+            final TicketGrantingTicketNearCache nearCache = new TicketGrantingTicketNearCache(
+                    this.ticketGrantingTicketNearCacheMaxSize,
+                    TimeUnit.SECONDS.toMillis(this.ticketGrantingTicketNearCacheTimeToLiveInSeconds), this.localMember);
+            this.ticketGrantingTicketNearCacheListenerId = this.ticketGrantingTicketsMap.addEntryListener(nearCache,
+                    new TicketGrantingTicketNearCache.TicketGrantingTicketKeyPredicate(), false);
+            this.ticketGrantingTicketNearCache = nearCache;
+        }
+        if (this.asyncServiceTicketWritesEnabled && this.pendingServiceTicketWrites == null) {
+            logger.info("STs are written asynchronously, with up to [{}] writes in flight", this.maxPendingServiceTicketWrites);
+            this.pendingServiceTicketWrites = new PendingTicketWrites(new PendingTicketWrites.TicketWriter() {
+                @Override
+                public Future<?> writeAsync(final Ticket ticket) {
+                    return putIntoTicketMapAsync(ticket, getTimeout(ticket));
+                }
+
+                @Override
+                public void write(final Ticket ticket) {
+                    putIntoTicketMap(ticket, getTimeout(ticket));
+                }
+            }, this.maxPendingServiceTicketWrites);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (this.pendingServiceTicketWrites != null) {
+            this.pendingServiceTicketWrites.stop();
+            this.pendingServiceTicketWrites = null;
+        }
+        if (this.ticketGrantingTicketNearCache != null) {
+            this.ticketGrantingTicketNearCache = null;
+            this.ticketGrantingTicketsMap.removeEntryListener(this.ticketGrantingTicketNearCacheListenerId);
+        }
+    }
+
+    /**
+     * Each update is a single write. TGTs stored in a map expiring its entries after a max idle time only are updated in
+     * place by an entry processor carrying only their changing state, which refreshes their idle time, and does not add
+     * back a TGT which no longer exists, e.g. because it has expired or has been destroyed meanwhile. Entry processors do
+     * not re-arm the TTL of the entries they update in Hazelcast 3.1 though, so TGTs of any other map are written whole,
+     * lest an active SSO session be evicted once the TTL of its first write runs out.
+     */
     @Override
     protected void updateTicket(Ticket ticket) {
-        addTicket(ticket);
+        final TicketRegistryMetrics metrics = this.metrics;
+        final long start = metrics == null ? 0 : System.nanoTime();
+        awaitPendingWrite(ticket.getId());
+        //The principal of a TGT never changes, so there is no need to touch the index
+        if (TicketGrantingTicketStateProcessor.canUpdate(ticket)
+                && this.mapsWithOwnMaxIdleTime.contains(getTicketMap(ticket.getId()).getName())) {
+            updateTicketState(ticket);
+        }
+        else {
+            storeTicket(ticket);
+        }
+        if (metrics != null) {
+            metrics.recordLatency(TicketRegistryMetrics.Operation.UPDATE, ticket.getId(), start);
+        }
+    }
+
+    private void updateTicketState(final Ticket ticket) {
+        final TicketGrantingTicketNearCache nearCache = this.ticketGrantingTicketNearCache;
+        if (nearCache != null) {
+            nearCache.putWritten(ticket);
+        }
+        boolean updated = false;
+        try {
+            updated = Boolean.TRUE.equals(getTicketMap(ticket.getId()).executeOnKey(ticket.getId(),
+                    new TicketGrantingTicketStateProcessor((TicketGrantingTicketImpl) ticket)));
+        }
+        finally {
+            if (!updated && nearCache != null) {
+                nearCache.invalidate(ticket.getId());
+            }
+        }
+        if (!updated) {
+            logger.debug("Ticket[{}] no longer exists in the Hazelcast IMap and has not been updated", ticket.getId());
+        }
     }
 
     @Override
     public void addTicket(Ticket ticket) {
-        final long ticketTimeout = getTimeout(ticket);
-        logger.debug("Adding Ticket[{}] to the Hazelcast IMap with a TTL of [{}] seconds", ticket.getId(), ticketTimeout);
-        this.ticketsMap.set(ticket.getId(), ticket, getTimeout(ticket), TimeUnit.SECONDS);
+        final TicketRegistryMetrics metrics = this.metrics;
+        final long start = metrics == null ? 0 : System.nanoTime();
+        final String principalId = getIndexedPrincipalId(ticket);
+        if (principalId != null) {
+            this.ticketGrantingTicketIdsByPrincipal.put(principalId, ticket.getId());
+        }
+        final PendingTicketWrites pendingWrites = this.pendingServiceTicketWrites;
+        if (pendingWrites != null && ticket instanceof ServiceTicket) {
+            logger.debug("Adding Ticket[{}] to the Hazelcast IMap asynchronously", ticket.getId());
+            pendingWrites.write(ticket);
+        }
+        else {
+            storeTicket(ticket);
+        }
+        if (metrics != null) {
+            metrics.recordLatency(TicketRegistryMetrics.Operation.ADD, ticket.getId(), start);
+        }
     }
 
     @Override
     public Ticket getTicket(String ticketId) {
-        final Ticket t = this.ticketsMap.get(ticketId);
-        logger.debug("Returning Ticket[{}] from the Hazelcast IMap", t == null ? "null" : t.getId());
+        final TicketRegistryMetrics metrics = this.metrics;
+        final long start = metrics == null ? 0 : System.nanoTime();
+        final Ticket t = readTicket(ticketId, metrics);
+        if (metrics != null) {
+            metrics.recordGet(t != null);
+            metrics.recordLatency(TicketRegistryMetrics.Operation.GET, ticketId, start);
+        }
         return t == null ? null : getProxiedTicketInstance(t);
     }
 
+    private Ticket readTicket(final String ticketId, final TicketRegistryMetrics metrics) {
+        final TicketGrantingTicketNearCache nearCache = this.ticketGrantingTicketNearCache;
+        Ticket t = nearCache == null ? null : nearCache.get(ticketId);
+        if (nearCache != null && metrics != null) {
+            metrics.recordNearCacheGet(t != null);
+        }
+        if (t != null) {
+            logger.debug("Returning Ticket[{}] from the near cache", ticketId);
+            return t;
+        }
+        final PendingTicketWrites pendingWrites = this.pendingServiceTicketWrites;
+        t = pendingWrites == null ? null : pendingWrites.get(ticketId);
+        if (t != null) {
+            logger.debug("Returning Ticket[{}] being written to the Hazelcast IMap", ticketId);
+            return t;
+        }
+        final long invalidations = nearCache == null ? 0 : nearCache.invalidations(ticketId);
+        t = getTicketMap(ticketId).get(ticketId);
+        logger.debug("Returning Ticket[{}] from the Hazelcast IMap", t == null ? "null" : t.getId());
+        if (t != null && nearCache != null) {
+            nearCache.putIfNotInvalidatedSince(t, invalidations);
+        }
+        return t;
+    }
+
     @Override
     public boolean deleteTicket(String ticketId) {
+        final TicketRegistryMetrics metrics = this.metrics;
+        final long start = metrics == null ? 0 : System.nanoTime();
         logger.debug("Removing Ticket[{}] from the Hazelcast IMap", ticketId);
-        return this.ticketsMap.remove(ticketId) != null;
+        awaitPendingWrite(ticketId);
+        invalidateNearCache(ticketId);
+        final Ticket removed = getTicketMap(ticketId).remove(ticketId);
+        //Again, in case a concurrent read cached the ticket while it was being removed
+        invalidateNearCache(ticketId);
+        if (removed != null) {
+            unindex(removed);
+        }
+        if (metrics != null) {
+            metrics.recordLatency(TicketRegistryMetrics.Operation.DELETE, ticketId, start);
+        }
+        return removed != null;
+    }
+
+    /**
+     * Look up the TGTs of a given principal through the principal index, without scanning the whole tickets map.
+     *
+     * @param principalId id of the principal
+     * @return TGTs currently stored for the principal, expired or not, or an empty collection and NEVER <b>null</b>
+     */
+    public Collection<TicketGrantingTicket> getTicketGrantingTickets(final String principalId) {
+        final Collection<String> ids = this.ticketGrantingTicketIdsByPrincipal.get(principalId);
+        if (ids.isEmpty()) {
+            return new ArrayList<TicketGrantingTicket>();
+        }
+        final Map<String, Ticket> tickets = new HashMap<String, Ticket>();
+        for (final Map.Entry<IMap<String, Ticket>, List<String>> e : groupByTicketMap(ids).entrySet()) {
+            tickets.putAll(e.getKey().getAll(new HashSet<String>(e.getValue())));
+        }
+        final List<TicketGrantingTicket> result = new ArrayList<TicketGrantingTicket>(tickets.size());
+        for (final String id : new HashSet<String>(ids)) {
+            final Ticket t = tickets.get(id);
+            if (t == null) {
+                logger.debug("Pruning TGT [{}] of principal [{}] which no longer exists from the index", id, principalId);
+                this.ticketGrantingTicketIdsByPrincipal.remove(principalId, id);
+            }
+            else {
+                result.add((TicketGrantingTicket) getProxiedTicketInstance(t));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Destroy all of the TGTs of a given principal, i.e. log the user out of all of the SSO sessions.
+     * <p/>
+     * Note that this only removes the tickets from the registry. No single logout requests are sent to the services the
+     * user has logged into: if those are needed, destroy the tickets returned by {@link #getTicketGrantingTickets(String)}
+     * through <code>CentralAuthenticationService</code> instead.
+     *
+     * @param principalId id of the principal
+     * @return number of TGTs deleted
+     */
+    public int deleteTicketGrantingTickets(final String principalId) {
+        int deleted = 0;
+        for (final String id : this.ticketGrantingTicketIdsByPrincipal.get(principalId)) {
+            invalidateNearCache(id);
+            if (getTicketMap(id).remove(id) != null) {
+                deleted++;
+            }
+            invalidateNearCache(id);
+            //Removing entries one by one keeps the ones of TGTs added concurrently in the meantime
+            this.ticketGrantingTicketIdsByPrincipal.remove(principalId, id);
+        }
+        logger.debug("Deleted [{}] TGTs of principal [{}]", deleted, principalId);
+        return deleted;
     }
 
     @Override
     public Collection<Ticket> getTickets() {
-        return this.ticketsMap.values();
+        if (this.ticketMaps.size() == 1) {
+            return this.ticketGrantingTicketsMap.values();
+        }
+        final List<Ticket> tickets = new ArrayList<Ticket>();
+        for (final IMap<String, Ticket> map : this.ticketMaps) {
+            tickets.addAll(map.values());
+        }
+        return tickets;
+    }
+
+    /**
+     * Hazelcast 3.1 has no paging predicate, so the ids of the tickets of a map matching the filter are first queried with
+     * a {@link TicketFilterPredicate}, evaluated by the members owning the entries, and the tickets are then fetched by
+     * batches of <code>pageSize</code> ids. Each entry is thus evaluated once, and only matching tickets are sent back.
+     * The map of STs is not queried at all when only TGTs are asked for. When only the TGTs of a given principal are asked
+     * for, their ids are looked up in the principal index instead of being queried.
+     * <p/>
+     * Tickets are returned proxied, like with {@link #getTicket(String)}.
+     */
+    @Override
+    public Iterable<Ticket> getTickets(final TicketFilter filter, final int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        if (filter.getPrincipalId() != null && TicketGrantingTicket.class.isAssignableFrom(filter.getTicketType())) {
+            return new Iterable<Ticket>() {
+                @Override
+                public Iterator<Ticket> iterator() {
+                    return new PagedTicketIterator(groupByTicketMap(ticketGrantingTicketIdsByPrincipal.get(filter.getPrincipalId())),
+                            filter, pageSize);
+                }
+            };
+        }
+        final List<IMap<String, Ticket>> maps = getTicketMaps(filter);
+        return new Iterable<Ticket>() {
+            @Override
+            public Iterator<Ticket> iterator() {
+                return new PagedTicketIterator(maps, filter, pageSize);
+            }
+        };
+    }
+
+    /**
+     * Each member aggregates the tickets of the entries it owns, in the <code>ticketAggregations</code> executor service.
+     */
+    @Override
+    public <A extends TicketAggregator<A>> A aggregate(final TicketFilter filter, final A aggregator) {
+        final List<String> mapNames = new ArrayList<String>();
+        for (final IMap<String, Ticket> map : getTicketMaps(filter)) {
+            mapNames.add(map.getName());
+        }
+        final Map<Member, Future<A>> results = this.aggregationExecutor.submitToAllMembers(
+                new LocalTicketAggregationTask<A>(mapNames, filter, aggregator));
+        for (final Map.Entry<Member, Future<A>> result : results.entrySet()) {
+            try {
+                aggregator.merge(result.getValue().get());
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while aggregating tickets", e);
+            }
+            catch (final ExecutionException e) {
+                throw new IllegalStateException("Aggregation of tickets failed on member " + result.getKey(), e.getCause());
+            }
+        }
+        return aggregator;
     }
 
     @Override
@@ -87,6 +576,230 @@ public class HazelcastTicketRegistry extends AbstractDistributedTicketRegistry {
         return false;
     }
 
+    private void storeTicket(final Ticket ticket) {
+        awaitPendingWrite(ticket.getId());
+        final long ticketTimeout = getTimeout(ticket);
+        logger.debug("Adding Ticket[{}] to the Hazelcast IMap with a TTL of [{}] seconds", ticket.getId(), ticketTimeout);
+        final TicketGrantingTicketNearCache nearCache = this.ticketGrantingTicketNearCache;
+        if (nearCache == null) {
+            putIntoTicketMap(ticket, ticketTimeout);
+            return;
+        }
+        //Cached before being written, so that this node reads its own write even before the map event comes back
+        nearCache.putWritten(ticket);
+        try {
+            putIntoTicketMap(ticket, ticketTimeout);
+        }
+        catch (final RuntimeException e) {
+            nearCache.invalidate(ticket.getId());
+            throw e;
+        }
+    }
+
+    private void putIntoTicketMap(final Ticket ticket, final long ticketTimeout) {
+        final IMap<String, Ticket> map = getTicketMap(ticket.getId());
+        if (hasOwnExpiration(map)) {
+            map.set(ticket.getId(), ticket);
+        }
+        else {
+            map.set(ticket.getId(), ticket, ticketTimeout, TimeUnit.SECONDS);
+        }
+    }
+
+    private Future<Ticket> putIntoTicketMapAsync(final Ticket ticket, final long ticketTimeout) {
+        final IMap<String, Ticket> map = getTicketMap(ticket.getId());
+        if (hasOwnExpiration(map)) {
+            return map.putAsync(ticket.getId(), ticket);
+        }
+        return map.putAsync(ticket.getId(), ticket, ticketTimeout, TimeUnit.SECONDS);
+    }
+
+    private boolean hasOwnExpiration(final IMap<String, Ticket> map) {
+        return this.mapsWithOwnTimeToLive.contains(map.getName()) || this.mapsWithOwnMaxIdleTime.contains(map.getName());
+    }
+
+    /**
+     * Wait for the asynchronous write of a ticket to complete, if it has not yet, so that it does not land after a
+     * subsequent write or removal of the ticket.
+     */
+    private void awaitPendingWrite(final String ticketId) {
+        final PendingTicketWrites pendingWrites = this.pendingServiceTicketWrites;
+        if (pendingWrites != null) {
+            pendingWrites.await(ticketId);
+        }
+    }
+
+    /**
+     * @return maps which may hold tickets matching the given filter
+     */
+    private List<IMap<String, Ticket>> getTicketMaps(final TicketFilter filter) {
+        final List<IMap<String, Ticket>> maps = new ArrayList<IMap<String, Ticket>>(this.ticketMaps);
+        if (TicketGrantingTicket.class.isAssignableFrom(filter.getTicketType()) && this.serviceTicketsMap != this.ticketGrantingTicketsMap
+                && this.serviceTicketsMap != this.proxyTicketsMap) {
+            maps.remove(this.serviceTicketsMap);
+        }
+        return maps;
+    }
+
+    /**
+     * @return the given ticket ids, without duplicates, by the map in which they are stored
+     */
+    private Map<IMap<String, Ticket>, List<String>> groupByTicketMap(final Collection<String> ticketIds) {
+        final Map<IMap<String, Ticket>, List<String>> idsByMap = new LinkedHashMap<IMap<String, Ticket>, List<String>>();
+        for (final String id : new LinkedHashSet<String>(ticketIds)) {
+            final IMap<String, Ticket> map = getTicketMap(id);
+            if (!idsByMap.containsKey(map)) {
+                idsByMap.put(map, new ArrayList<String>());
+            }
+            idsByMap.get(map).add(id);
+        }
+        return idsByMap;
+    }
+
+    /**
+     * @return the map in which the ticket with the given id is stored, according to the prefix of the id
+     */
+    private IMap<String, Ticket> getTicketMap(final String ticketId) {
+        if (ticketId.startsWith(SERVICE_TICKET_PREFIX)) {
+            return this.serviceTicketsMap;
+        }
+        if (ticketId.startsWith(PROXY_GRANTING_TICKET_PREFIX) || ticketId.startsWith(PROXY_TICKET_PREFIX)) {
+            return this.proxyTicketsMap;
+        }
+        return this.ticketGrantingTicketsMap;
+    }
+
+    private void invalidateNearCache(final String ticketId) {
+        final TicketGrantingTicketNearCache nearCache = this.ticketGrantingTicketNearCache;
+        if (nearCache != null) {
+            nearCache.invalidate(ticketId);
+        }
+    }
+
+    private void unindex(final Ticket ticket) {
+        final String principalId = getIndexedPrincipalId(ticket);
+        if (principalId != null) {
+            this.ticketGrantingTicketIdsByPrincipal.remove(principalId, ticket.getId());
+        }
+    }
+
+    /**
+     * @return principal id under which the given ticket is indexed, or <code>null</code> if it is not a TGT with a principal
+     */
+    private static String getIndexedPrincipalId(final Ticket t) {
+        if (!(t instanceof TicketGrantingTicket)) {
+            return null;
+        }
+        final TicketGrantingTicket tgt = (TicketGrantingTicket) t;
+        if (tgt.getAuthentication() == null || tgt.getAuthentication().getPrincipal() == null) {
+            return null;
+        }
+        return tgt.getAuthentication().getPrincipal().getId();
+    }
+
+    /**
+     * Removes TGTs evicted from the tickets map, e.g. once their TTL is over, from the principal index.
+     * Registered as a local listener, so that each eviction is handled once, by the node owning the entry.
+     */
+    private final class PrincipalIndexEvictionListener extends EntryAdapter<String, Ticket> {
+
+        @Override
+        public void entryEvicted(final EntryEvent<String, Ticket> event) {
+            final Ticket evicted = event.getValue() != null ? event.getValue() : event.getOldValue();
+            if (evicted != null) {
+                unindex(evicted);
+            }
+        }
+    }
+
+    /**
+     * Fetches the tickets matching a filter one page at a time, map after map. The ids of the matching tickets of a map
+     * are queried when its first page is fetched, unless they were given upfront, so that each ticket belongs to exactly
+     * one page during the whole iteration. Tickets which changed in the meantime are checked against the filter again.
+     */
+    private final class PagedTicketIterator implements Iterator<Ticket> {
+
+        private final LinkedList<IMap<String, Ticket>> mapsLeft;
+
+        private final TicketFilter filter;
+
+        private final int pageSize;
+
+        /**
+         * Ids of the candidate tickets by map, or <code>null</code> to query those of each map with the filter.
+         */
+        private final Map<IMap<String, Ticket>, List<String>> idsByMap;
+
+        private IMap<String, Ticket> map;
+
+        private List<String> ids;
+
+        private int nextId;
+
+        private Iterator<Ticket> page = new ArrayList<Ticket>().iterator();
+
+        private PagedTicketIterator(final List<IMap<String, Ticket>> maps, final TicketFilter filter, final int pageSize) {
+            this.mapsLeft = new LinkedList<IMap<String, Ticket>>(maps);
+            this.filter = filter;
+            this.pageSize = pageSize;
+            this.idsByMap = null;
+        }
+
+        private PagedTicketIterator(final Map<IMap<String, Ticket>, List<String>> idsByMap, final TicketFilter filter, final int pageSize) {
+            this.mapsLeft = new LinkedList<IMap<String, Ticket>>(idsByMap.keySet());
+            this.filter = filter;
+            this.pageSize = pageSize;
+            this.idsByMap = idsByMap;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!this.page.hasNext()) {
+                if (this.map == null || this.nextId == this.ids.size()) {
+                    if (this.mapsLeft.isEmpty()) {
+                        return false;
+                    }
+                    this.map = this.mapsLeft.removeFirst();
+                    this.ids = this.idsByMap != null ? this.idsByMap.get(this.map)
+                            : new ArrayList<String>(this.map.keySet(new TicketFilterPredicate(this.filter)));
+                    this.nextId = 0;
+                    logger.debug("[{}] tickets of Hazelcast IMap [{}] match {}", this.ids.size(), this.map.getName(), this.filter);
+                    continue;
+                }
+                this.page = fetchPage().iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public Ticket next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return getProxiedTicketInstance(this.page.next());
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private List<Ticket> fetchPage() {
+            final List<String> pageIds = this.ids.subList(this.nextId, Math.min(this.ids.size(), this.nextId + this.pageSize));
+            this.nextId += pageIds.size();
+            final Map<String, Ticket> fetched = this.map.getAll(new HashSet<String>(pageIds));
+            final List<Ticket> tickets = new ArrayList<Ticket>(fetched.size());
+            for (final String id : pageIds) {
+                final Ticket t = fetched.get(id);
+                //Removed, or changed so as not to match anymore, since the ids were queried
+                if (t != null && this.filter.matches(t)) {
+                    tickets.add(t);
+                }
+            }
+            return tickets;
+        }
+    }
+
     private long getTimeout(final Ticket t) {
         if (t instanceof TicketGrantingTicket) {
             return this.ticketGrantingTicketTimeoutInSeconds;
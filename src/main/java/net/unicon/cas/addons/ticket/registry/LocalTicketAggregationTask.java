@@ -0,0 +1,85 @@
+package net.unicon.cas.addons.ticket.registry;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
+import com.hazelcast.core.IMap;
+import net.unicon.cas.addons.ticket.TicketAggregator;
+import net.unicon.cas.addons.ticket.TicketFilter;
+import org.jasig.cas.ticket.Ticket;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Task sent to each member of the cluster to aggregate the tickets of the entries it owns, so that only the result of the
+ * aggregation goes back over the network. Entries are read in batches, keeping the tickets held at a time bounded.
+ * <p/>
+ * Entries which migrate from a member to another while being aggregated may be counted twice, or not at all.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+final class LocalTicketAggregationTask<A extends TicketAggregator<A>> implements Callable<A>, HazelcastInstanceAware, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final List<String> mapNames;
+
+    private final TicketFilter filter;
+
+    private final A aggregator;
+
+    private transient HazelcastInstance hazelcastInstance;
+
+    /**
+     * @param mapNames   names of the maps of tickets to aggregate
+     * @param filter     criteria the tickets must meet
+     * @param aggregator whose empty copy aggregates the tickets of a member
+     */
+    LocalTicketAggregationTask(final List<String> mapNames, final TicketFilter filter, final A aggregator) {
+        this.mapNames = new ArrayList<String>(mapNames);
+        this.filter = filter;
+        this.aggregator = aggregator;
+    }
+
+    @Override
+    public void setHazelcastInstance(final HazelcastInstance hazelcastInstance) {
+        this.hazelcastInstance = hazelcastInstance;
+    }
+
+    @Override
+    public A call() {
+        //Never the given aggregator, which is the caller's own instance when the task runs on the calling member
+        final A localAggregator = this.aggregator.emptyCopy();
+        for (final String mapName : this.mapNames) {
+            final IMap<String, Ticket> map = this.hazelcastInstance.getMap(mapName);
+            final Set<String> batch = new HashSet<String>();
+            for (final String id : map.localKeySet()) {
+                batch.add(id);
+                if (batch.size() == BATCH_SIZE) {
+                    aggregate(map, batch, localAggregator);
+                }
+            }
+            aggregate(map, batch, localAggregator);
+        }
+        return localAggregator;
+    }
+
+    private void aggregate(final IMap<String, Ticket> map, final Set<String> ids, final A localAggregator) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        for (final Ticket ticket : map.getAll(ids).values()) {
+            if (this.filter.matches(ticket)) {
+                localAggregator.add(ticket);
+            }
+        }
+        ids.clear();
+    }
+}
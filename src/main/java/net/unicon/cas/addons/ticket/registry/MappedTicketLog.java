@@ -0,0 +1,521 @@
+package net.unicon.cas.addons.ticket.registry;
+
+import net.unicon.cas.addons.support.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Records of serialized tickets appended to a log of memory-mapped segment files, and looked up by ticket id through a
+ * {@link TicketRecordIndex}, which is rebuilt on startup by scanning the segments.
+ * <p/>
+ * Tickets written or updated are appended to the active segment, tickets removed are appended as tombstones, and the
+ * latest record of an id wins. When the active segment is full, a new one is created, and the older segments with the
+ * most garbage are compacted: their records still current are copied to the new segment, then their file is deleted.
+ * Expired records are dropped, and so are tombstones once the record they delete has expired, as do all of its older
+ * records then, since a ticket expires later each time it is written.
+ * <p/>
+ * A record is laid out as its length, a CRC32 of the rest, the length of the ticket id, its type, its expiration time,
+ * the ticket id in UTF-8, and the serialized ticket. Its length is written last, so that a record torn by a crash is not
+ * read back: only the records of the last segment are checked against their CRC on startup, as the others were complete
+ * and flushed before the next segment was created. Records are addressed by their location: the slot of their segment
+ * plus one, followed by their offset in the segment.
+ * <p/>
+ * Segments are named after their sequence number, <code>tickets-&lt;sequence&gt;.log</code>, and must not be touched
+ * while the log is open.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@NotThreadSafe
+final class MappedTicketLog implements TicketRecordStore, TicketRecordIndex.Records {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedTicketLog.class);
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("tickets-(\\d+)\\.log");
+
+    private static final int MAGIC = 0x43415354;
+
+    private static final int VERSION = 1;
+
+    private static final int SEGMENT_HEADER_BYTES = 8;
+
+    private static final int HEADER_BYTES = 24;
+
+    private static final int TICKET = 0;
+
+    private static final int TOMBSTONE = 1;
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final int maxSegments;
+
+    private final Segment[] segments;
+
+    private final TicketRecordIndex index = new TicketRecordIndex(this);
+
+    private Segment activeSegment;
+
+    private long nextSequence = 1;
+
+    private long compactions;
+
+    /**
+     * Open the log in the given directory, creating it if needed, and rebuild its index from the segments found there.
+     *
+     * @param directory   of the segment files
+     * @param segmentSize size of each segment in bytes, which bounds the size of a record
+     * @param maxSegments number of segments beyond which no more are created
+     * @param now         current time, before which the records found have expired
+     */
+    MappedTicketLog(final File directory, final int segmentSize, final int maxSegments, final long now) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Directory " + directory + " could not be created");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        final List<File> files = segmentFiles(directory);
+        this.maxSegments = Math.max(maxSegments, files.size());
+        this.segments = new Segment[this.maxSegments];
+        final long start = System.currentTimeMillis();
+        for (int slot = 0; slot < files.size(); slot++) {
+            final File file = files.get(slot);
+            final Segment segment = openSegment(file, sequenceOf(file), slot, false);
+            this.segments[slot] = segment;
+            replay(segment, slot == files.size() - 1, now);
+            this.activeSegment = segment;
+            this.nextSequence = segment.sequence + 1;
+        }
+        logger.info("Recovered [{}] tickets from [{}] segments in [{}] ms", this.index.size(), files.size(), System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public void put(final byte[] id, final byte[] payload, final long expirationTime) {
+        //Appended before the index is updated, so that nothing changes should there be no space left
+        final long location = append(TICKET, id, payload, expirationTime);
+        final long previous = this.index.put(id, location);
+        if (previous != 0) {
+            removeRecord(previous);
+        }
+    }
+
+    @Override
+    public byte[] get(final byte[] id, final long now) {
+        final long location = this.index.get(id);
+        return location == 0 ? null : payloadOf(location, now);
+    }
+
+    @Override
+    public boolean remove(final byte[] id) {
+        long location = this.index.get(id);
+        if (location == 0) {
+            return false;
+        }
+        append(TOMBSTONE, id, new byte[0], expirationTimeAt(location));
+        //Looked up again, as the record may have been moved by a compaction while appending the tombstone
+        location = this.index.remove(id);
+        removeRecord(location);
+        return true;
+    }
+
+    /**
+     * No tombstone is needed, as all of the older records of the id have expired as well.
+     */
+    @Override
+    public boolean removeIfExpired(final byte[] id, final long now) {
+        final long location = this.index.get(id);
+        if (location == 0 || expirationTimeAt(location) > now) {
+            return false;
+        }
+        this.index.remove(id);
+        removeRecord(location);
+        return true;
+    }
+
+    @Override
+    public long[] locations() {
+        return this.index.locations();
+    }
+
+    @Override
+    public byte[] idAt(final long location) {
+        final ByteBuffer buffer = segmentOf(location).buffer;
+        final int offset = offsetOf(location);
+        return read(buffer, offset + HEADER_BYTES, buffer.getInt(offset + 8));
+    }
+
+    @Override
+    public long expirationTimeAt(final long location) {
+        return segmentOf(location).buffer.getLong(offsetOf(location) + 16);
+    }
+
+    @Override
+    public long compactions() {
+        return this.compactions;
+    }
+
+    @Override
+    public int size() {
+        return this.index.size();
+    }
+
+    /**
+     * Flush the segments to their files and close them. Their mappings are released once garbage collected.
+     */
+    @Override
+    public void close() {
+        for (int slot = 0; slot < this.segments.length; slot++) {
+            if (this.segments[slot] != null) {
+                this.segments[slot].close();
+                this.segments[slot] = null;
+            }
+        }
+        this.activeSegment = null;
+    }
+
+    @Override
+    public boolean hasId(final long location, final byte[] id) {
+        final ByteBuffer buffer = segmentOf(location).buffer;
+        final int offset = offsetOf(location);
+        if (buffer.getInt(offset + 8) != id.length) {
+            return false;
+        }
+        return Arrays.equals(read(buffer, offset + HEADER_BYTES, id.length), id);
+    }
+
+    /**
+     * Index the records of a segment, up to the first one which is missing or, for the last segment, torn.
+     */
+    private void replay(final Segment segment, final boolean last, final long now) {
+        final ByteBuffer buffer = segment.buffer;
+        int offset = SEGMENT_HEADER_BYTES;
+        while (offset + HEADER_BYTES <= this.segmentSize) {
+            final int recordLength = buffer.getInt(offset);
+            final int idLength = buffer.getInt(offset + 8);
+            if (recordLength < HEADER_BYTES || offset + recordLength > this.segmentSize || idLength < 0
+                    || HEADER_BYTES + idLength > recordLength || (last && !hasValidChecksum(buffer, offset, recordLength))) {
+                break;
+            }
+            final long location = locationOf(segment.slot, offset);
+            final byte[] id = idAt(location);
+            final long previous;
+            if (buffer.getInt(offset + 12) == TICKET && expirationTimeAt(location) > now) {
+                previous = this.index.put(id, location);
+                segment.liveBytes += recordLength;
+            }
+            else {
+                previous = this.index.remove(id);
+                if (buffer.getInt(offset + 12) == TOMBSTONE) {
+                    segment.tombstoneBytes += recordLength;
+                }
+            }
+            if (previous != 0) {
+                removeRecord(previous);
+            }
+            offset += recordLength;
+        }
+        segment.end = offset;
+        if (last) {
+            //Clears any torn record, so that it is not read back once this segment is no longer the last one
+            clearTail(segment);
+        }
+    }
+
+    private long append(final int type, final byte[] id, final byte[] payload, final long expirationTime) {
+        final int recordLength = HEADER_BYTES + id.length + payload.length;
+        if (recordLength > this.segmentSize - SEGMENT_HEADER_BYTES) {
+            throw new IllegalArgumentException("Ticket of " + recordLength + " bytes is larger than a segment");
+        }
+        final long location = allocate(recordLength);
+        final Segment segment = segmentOf(location);
+        final int offset = offsetOf(location);
+        final ByteBuffer header = ByteBuffer.allocate(16);
+        header.putInt(id.length).putInt(type).putLong(expirationTime);
+        final CRC32 crc = new CRC32();
+        crc.update(header.array());
+        crc.update(id);
+        crc.update(payload);
+        write(segment.buffer, offset + 8, header.array());
+        write(segment.buffer, offset + HEADER_BYTES, id);
+        write(segment.buffer, offset + HEADER_BYTES + id.length, payload);
+        segment.buffer.putInt(offset + 4, (int) crc.getValue());
+        segment.buffer.putInt(offset, recordLength);
+        if (type == TICKET) {
+            segment.liveBytes += recordLength;
+        }
+        else {
+            segment.tombstoneBytes += recordLength;
+        }
+        return location;
+    }
+
+    private long allocate(final int recordLength) {
+        if (this.activeSegment == null || this.activeSegment.end + recordLength > this.segmentSize) {
+            roll();
+        }
+        final long location = locationOf(this.activeSegment.slot, this.activeSegment.end);
+        this.activeSegment.end += recordLength;
+        return location;
+    }
+
+    /**
+     * Seal the active segment and create a new one, then compact into it the segments with the most garbage: those at
+     * least half garbage, or any once the log has reached its maximum number of segments.
+     */
+    private void roll() {
+        int slot = 0;
+        while (slot < this.segments.length && this.segments[slot] != null) {
+            slot++;
+        }
+        if (slot == this.segments.length) {
+            throw new IllegalStateException("No space left in the " + this.segments.length + " segments of "
+                    + this.segmentSize + " bytes of " + this.directory);
+        }
+        if (this.activeSegment != null) {
+            clearTail(this.activeSegment);
+            this.activeSegment.buffer.force();
+        }
+        final File file = new File(this.directory, String.format("tickets-%012d.log", this.nextSequence));
+        try {
+            this.activeSegment = openSegment(file, this.nextSequence++, slot, true);
+        }
+        catch (final IOException e) {
+            throw new IllegalStateException("Segment " + file + " could not be created", e);
+        }
+        this.segments[slot] = this.activeSegment;
+        final boolean full = slot == this.segments.length - 1;
+        while (true) {
+            Segment victim = null;
+            for (final Segment segment : this.segments) {
+                if (segment != null && segment != this.activeSegment && (full || segment.garbageBytes() >= segment.usedBytes() / 2)
+                        && segment.copiedBytes() <= this.segmentSize - this.activeSegment.end
+                        && (victim == null || segment.garbageBytes() > victim.garbageBytes())) {
+                    victim = segment;
+                }
+            }
+            if (victim == null || victim.garbageBytes() == 0) {
+                return;
+            }
+            compact(victim);
+        }
+    }
+
+    /**
+     * Copy the tickets of a segment which are still current, and its tombstones which are still needed, to the active
+     * segment, then delete it.
+     */
+    private void compact(final Segment segment) {
+        this.compactions++;
+        final long now = System.currentTimeMillis();
+        final ByteBuffer buffer = segment.buffer;
+        for (int offset = SEGMENT_HEADER_BYTES; offset < segment.end; offset += buffer.getInt(offset)) {
+            final long location = locationOf(segment.slot, offset);
+            final byte[] id = idAt(location);
+            final int type = buffer.getInt(offset + 12);
+            final long current = this.index.get(id);
+            if (expirationTimeAt(location) <= now) {
+                //Dropped along with the segment, the expiration scheduled for it then finds nothing left to remove
+                if (type == TICKET && current == location) {
+                    this.index.remove(id);
+                }
+                continue;
+            }
+            if (type == TICKET && current == location || type == TOMBSTONE && current == 0) {
+                final int recordLength = buffer.getInt(offset);
+                final long newLocation = allocate(recordLength);
+                final byte[] record = read(buffer, offset + 4, recordLength - 4);
+                write(this.activeSegment.buffer, offsetOf(newLocation) + 4, record);
+                this.activeSegment.buffer.putInt(offsetOf(newLocation), recordLength);
+                if (type == TICKET) {
+                    this.index.put(id, newLocation);
+                    this.activeSegment.liveBytes += recordLength;
+                }
+                else {
+                    this.activeSegment.tombstoneBytes += recordLength;
+                }
+            }
+        }
+        this.segments[segment.slot] = null;
+        segment.close();
+        if (!segment.file.delete()) {
+            logger.warn("Compacted segment {} could not be deleted", segment.file);
+        }
+    }
+
+    private Segment openSegment(final File file, final long sequence, final int slot, final boolean create) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (create) {
+                raf.setLength(this.segmentSize);
+            }
+            else if (raf.length() != this.segmentSize) {
+                throw new IOException("Segment " + file + " is of " + raf.length() + " bytes instead of " + this.segmentSize);
+            }
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+            if (create) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+            }
+            else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("File " + file + " is not a ticket log segment");
+            }
+            return new Segment(file, sequence, slot, raf, buffer);
+        }
+        catch (final IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private void clearTail(final Segment segment) {
+        if (segment.end + 4 <= this.segmentSize) {
+            segment.buffer.putInt(segment.end, 0);
+        }
+    }
+
+    private byte[] payloadOf(final long location, final long now) {
+        final ByteBuffer buffer = segmentOf(location).buffer;
+        final int offset = offsetOf(location);
+        if (buffer.getLong(offset + 16) <= now) {
+            return null;
+        }
+        final int idLength = buffer.getInt(offset + 8);
+        return read(buffer, offset + HEADER_BYTES + idLength, buffer.getInt(offset) - HEADER_BYTES - idLength);
+    }
+
+    private void removeRecord(final long location) {
+        segmentOf(location).liveBytes -= segmentOf(location).buffer.getInt(offsetOf(location));
+    }
+
+    private Segment segmentOf(final long location) {
+        return this.segments[(int) (location >>> 32) - 1];
+    }
+
+    private static long locationOf(final int slot, final int offset) {
+        return ((long) (slot + 1) << 32) | offset;
+    }
+
+    private static int offsetOf(final long location) {
+        return (int) location;
+    }
+
+    private static boolean hasValidChecksum(final ByteBuffer buffer, final int offset, final int recordLength) {
+        final CRC32 crc = new CRC32();
+        crc.update(read(buffer, offset + 8, recordLength - 8));
+        return (int) crc.getValue() == buffer.getInt(offset + 4);
+    }
+
+    /**
+     * @return the segment files in the given directory, in the order they were created
+     */
+    private static List<File> segmentFiles(final File directory) {
+        final File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+                return file.isFile() && SEGMENT_NAME.matcher(file.getName()).matches();
+            }
+        });
+        final List<File> segmentFiles = new ArrayList<File>(files == null ? Collections.<File>emptyList() : Arrays.asList(files));
+        Collections.sort(segmentFiles, new Comparator<File>() {
+            @Override
+            public int compare(final File f1, final File f2) {
+                final long s1 = sequenceOf(f1);
+                final long s2 = sequenceOf(f2);
+                return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+            }
+        });
+        return segmentFiles;
+    }
+
+    private static long sequenceOf(final File file) {
+        final Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+        matcher.matches();
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private static byte[] read(final ByteBuffer buffer, final int offset, final int length) {
+        final byte[] bytes = new byte[length];
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return bytes;
+    }
+
+    private static void write(final ByteBuffer buffer, final int offset, final byte[] bytes) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.put(bytes);
+    }
+
+    /**
+     * Segment file mapped in memory, with the bytes of its records still current.
+     */
+    private static final class Segment {
+
+        private final File file;
+
+        private final long sequence;
+
+        private final int slot;
+
+        private final RandomAccessFile raf;
+
+        private final MappedByteBuffer buffer;
+
+        private int end = SEGMENT_HEADER_BYTES;
+
+        private int liveBytes;
+
+        private int tombstoneBytes;
+
+        private Segment(final File file, final long sequence, final int slot, final RandomAccessFile raf, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.sequence = sequence;
+            this.slot = slot;
+            this.raf = raf;
+            this.buffer = buffer;
+        }
+
+        int usedBytes() {
+            return this.end - SEGMENT_HEADER_BYTES;
+        }
+
+        /**
+         * @return bytes which would at most be copied by a compaction
+         */
+        int copiedBytes() {
+            return this.liveBytes + this.tombstoneBytes;
+        }
+
+        int garbageBytes() {
+            return usedBytes() - this.liveBytes;
+        }
+
+        void close() {
+            this.buffer.force();
+            try {
+                this.raf.close();
+            }
+            catch (final IOException e) {
+                logger.warn("Segment {} could not be closed", this.file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package net.unicon.cas.addons.ticket.registry;
+
+import net.unicon.cas.addons.support.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Node-local <code>TicketRegistry</code> keeping tickets serialized in an append-only log of memory-mapped files, so that
+ * the SSO sessions of a node survive its restarts, without having to be pulled back from other nodes.
+ * <p/>
+ * On startup, the index of the tickets is rebuilt by scanning the log, which only reads the headers and ids of the
+ * records from the files mapped, and expired tickets are skipped. Replaced, removed and expired tickets are dropped by
+ * compacting the oldest files with the most garbage whenever a new file is started. The files are flushed when a new one
+ * is started and when the registry is destroyed: tickets written since are kept should the process crash, as long as the
+ * operating system does not.
+ * <p/>
+ * The directory of the log must not be shared with another registry, nor with another node.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@ThreadSafe
+public class MappedTicketRegistry extends AbstractOffHeapTicketRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedTicketRegistry.class);
+
+    private final File directory;
+
+    private int segmentSizeInMegabytes = 64;
+
+    private int maxSegments = 32;
+
+    /**
+     * @param directory of the files of the log, created if needed
+     * @param ticketGrantingTicketTimeoutInSeconds time after which TGTs expire, since they were last added or updated
+     * @param serviceTicketTimeoutInSeconds time after which STs expire, since they were last added or updated
+     */
+    public MappedTicketRegistry(final File directory, final long ticketGrantingTicketTimeoutInSeconds, final long serviceTicketTimeoutInSeconds) {
+        super(ticketGrantingTicketTimeoutInSeconds, serviceTicketTimeoutInSeconds);
+        this.directory = directory;
+    }
+
+    /**
+     * @param segmentSizeInMegabytes size of each file of the log, which bounds the size of a serialized ticket. Defaults
+     * to 64. Changing it requires the files of the log to be deleted first.
+     */
+    public void setSegmentSizeInMegabytes(final int segmentSizeInMegabytes) {
+        this.segmentSizeInMegabytes = segmentSizeInMegabytes;
+    }
+
+    /**
+     * @param maxSegments number of files of the log beyond which none are created, at least 2. Defaults to 32.
+     */
+    public void setMaxSegments(final int maxSegments) {
+        if (maxSegments < 2) {
+            throw new IllegalArgumentException("At least 2 segments are needed for compactions: " + maxSegments);
+        }
+        this.maxSegments = maxSegments;
+    }
+
+    @Override
+    TicketRecordStore createStore() throws IOException {
+        logger.info("Tickets are stored in [{}], in up to [{}] files of [{}] MB", this.directory, this.maxSegments, this.segmentSizeInMegabytes);
+        return new MappedTicketLog(this.directory, this.segmentSizeInMegabytes << 20, this.maxSegments, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,54 @@
+package net.unicon.cas.addons.ticket.registry;
+
+import net.unicon.cas.addons.support.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Node-local <code>TicketRegistry</code> keeping tickets serialized in direct <code>ByteBuffer</code> slabs, outside of
+ * the Java heap. Tickets are lost when the node stops, see {@link MappedTicketRegistry} to keep them across restarts.
+ * <p/>
+ * Replaced and removed tickets are reclaimed by reusing empty slabs, or by compacting in place the slab with the most
+ * garbage once all of the slabs are allocated.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@ThreadSafe
+public class OffHeapTicketRegistry extends AbstractOffHeapTicketRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapTicketRegistry.class);
+
+    private int slabSizeInMegabytes = 64;
+
+    private int maxSlabs = 16;
+
+    /**
+     * @param ticketGrantingTicketTimeoutInSeconds time after which TGTs expire, since they were last added or updated
+     * @param serviceTicketTimeoutInSeconds time after which STs expire, since they were last added or updated
+     */
+    public OffHeapTicketRegistry(final long ticketGrantingTicketTimeoutInSeconds, final long serviceTicketTimeoutInSeconds) {
+        super(ticketGrantingTicketTimeoutInSeconds, serviceTicketTimeoutInSeconds);
+    }
+
+    /**
+     * @param slabSizeInMegabytes size of each off-heap slab, which bounds the size of a serialized ticket. Defaults to 64.
+     */
+    public void setSlabSizeInMegabytes(final int slabSizeInMegabytes) {
+        this.slabSizeInMegabytes = slabSizeInMegabytes;
+    }
+
+    /**
+     * @param maxSlabs number of slabs beyond which none are allocated, the off-heap memory used being at most this number
+     * times the size of a slab. Defaults to 16. The <code>-XX:MaxDirectMemorySize</code> option of the JVM has to allow it.
+     */
+    public void setMaxSlabs(final int maxSlabs) {
+        this.maxSlabs = maxSlabs;
+    }
+
+    @Override
+    TicketRecordStore createStore() {
+        logger.info("Tickets are stored off-heap, in up to [{}] slabs of [{}] MB", this.maxSlabs, this.slabSizeInMegabytes);
+        return new OffHeapTicketStore(this.slabSizeInMegabytes << 20, this.maxSlabs);
+    }
+}
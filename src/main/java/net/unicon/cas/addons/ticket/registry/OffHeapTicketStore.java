@@ -0,0 +1,256 @@
+package net.unicon.cas.addons.ticket.registry;
+
+import net.unicon.cas.addons.support.NotThreadSafe;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records of serialized tickets stored in direct <code>ByteBuffer</code> slabs, outside of the Java heap, and looked up by
+ * ticket id through a {@link TicketRecordIndex}.
+ * <p/>
+ * Records are appended to the active slab. Replaced and removed records are left in place as garbage until their slab
+ * runs out of space, at which point the slab with the most garbage is compacted in place, moving its live records down.
+ * <p/>
+ * A record is laid out as its length, the length of the ticket id, its expiration time, the ticket id in UTF-8, and the
+ * serialized ticket. Records are addressed by their location: the index of their slab plus one, followed by their offset
+ * in the slab, so that no location is ever 0.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@NotThreadSafe
+final class OffHeapTicketStore implements TicketRecordStore, TicketRecordIndex.Records {
+
+    private static final int HEADER_BYTES = 16;
+
+    private final int slabSize;
+
+    private final int maxSlabs;
+
+    private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+
+    /**
+     * Bytes of live records, and offset past the last record, by slab.
+     */
+    private final int[] liveBytes;
+
+    private final int[] endOffsets;
+
+    private final TicketRecordIndex index = new TicketRecordIndex(this);
+
+    private int activeSlab = -1;
+
+    private long compactions;
+
+    /**
+     * @param slabSize size of each slab in bytes, which bounds the size of a record
+     * @param maxSlabs number of slabs beyond which no more are allocated
+     */
+    OffHeapTicketStore(final int slabSize, final int maxSlabs) {
+        this.slabSize = slabSize;
+        this.maxSlabs = maxSlabs;
+        this.liveBytes = new int[maxSlabs];
+        this.endOffsets = new int[maxSlabs];
+    }
+
+    @Override
+    public void put(final byte[] id, final byte[] payload, final long expirationTime) {
+        final int recordLength = HEADER_BYTES + id.length + payload.length;
+        if (recordLength > this.slabSize) {
+            throw new IllegalArgumentException("Ticket of " + recordLength + " bytes is larger than a slab");
+        }
+        //Written before the index is updated, so that the previous record is kept should there be no space left
+        final long location = allocate(recordLength);
+        final ByteBuffer slab = slabOf(location);
+        final int offset = offsetOf(location);
+        slab.putInt(offset, recordLength);
+        slab.putInt(offset + 4, id.length);
+        slab.putLong(offset + 8, expirationTime);
+        write(slab, offset + HEADER_BYTES, id);
+        write(slab, offset + HEADER_BYTES + id.length, payload);
+        final long previous = this.index.put(id, location);
+        if (previous != 0) {
+            removeRecord(previous);
+        }
+    }
+
+    @Override
+    public byte[] get(final byte[] id, final long now) {
+        final long location = this.index.get(id);
+        return location == 0 ? null : payloadOf(location, now);
+    }
+
+    @Override
+    public boolean remove(final byte[] id) {
+        final long location = this.index.remove(id);
+        if (location == 0) {
+            return false;
+        }
+        removeRecord(location);
+        return true;
+    }
+
+    @Override
+    public boolean removeIfExpired(final byte[] id, final long now) {
+        final long location = this.index.get(id);
+        if (location == 0 || expirationTimeAt(location) > now) {
+            return false;
+        }
+        this.index.remove(id);
+        removeRecord(location);
+        return true;
+    }
+
+    @Override
+    public long[] locations() {
+        return this.index.locations();
+    }
+
+    @Override
+    public byte[] idAt(final long location) {
+        final ByteBuffer slab = slabOf(location);
+        final int offset = offsetOf(location);
+        return read(slab, offset + HEADER_BYTES, slab.getInt(offset + 4));
+    }
+
+    @Override
+    public long expirationTimeAt(final long location) {
+        return slabOf(location).getLong(offsetOf(location) + 8);
+    }
+
+    @Override
+    public long compactions() {
+        return this.compactions;
+    }
+
+    @Override
+    public int size() {
+        return this.index.size();
+    }
+
+    /**
+     * Slabs are released once garbage collected.
+     */
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean hasId(final long location, final byte[] id) {
+        final ByteBuffer slab = slabOf(location);
+        final int offset = offsetOf(location);
+        if (slab.getInt(offset + 4) != id.length) {
+            return false;
+        }
+        return Arrays.equals(read(slab, offset + HEADER_BYTES, id.length), id);
+    }
+
+    private byte[] payloadOf(final long location, final long now) {
+        final ByteBuffer slab = slabOf(location);
+        final int offset = offsetOf(location);
+        if (slab.getLong(offset + 8) <= now) {
+            return null;
+        }
+        final int idLength = slab.getInt(offset + 4);
+        return read(slab, offset + HEADER_BYTES + idLength, slab.getInt(offset) - HEADER_BYTES - idLength);
+    }
+
+    private void removeRecord(final long location) {
+        this.liveBytes[(int) (location >>> 32) - 1] -= slabOf(location).getInt(offsetOf(location));
+    }
+
+    private long allocate(final int recordLength) {
+        if (this.activeSlab >= 0 && this.endOffsets[this.activeSlab] + recordLength <= this.slabSize) {
+            return bump(recordLength);
+        }
+        for (int i = 0; i < this.slabs.size(); i++) {
+            if (this.liveBytes[i] == 0) {
+                this.endOffsets[i] = 0;
+                this.activeSlab = i;
+                return bump(recordLength);
+            }
+        }
+        if (this.slabs.size() < this.maxSlabs) {
+            this.slabs.add(ByteBuffer.allocateDirect(this.slabSize));
+            this.activeSlab = this.slabs.size() - 1;
+            return bump(recordLength);
+        }
+        //Compact the slabs with the most garbage first, until one has enough space left
+        final boolean[] compacted = new boolean[this.slabs.size()];
+        for (int n = 0; n < this.slabs.size(); n++) {
+            int victim = -1;
+            for (int i = 0; i < this.slabs.size(); i++) {
+                if (!compacted[i] && (victim < 0 || this.endOffsets[i] - this.liveBytes[i] > this.endOffsets[victim] - this.liveBytes[victim])) {
+                    victim = i;
+                }
+            }
+            compacted[victim] = true;
+            compact(victim);
+            if (this.endOffsets[victim] + recordLength <= this.slabSize) {
+                this.activeSlab = victim;
+                return bump(recordLength);
+            }
+        }
+        throw new IllegalStateException("No space left in the " + this.slabs.size() + " off-heap slabs of " + this.slabSize + " bytes");
+    }
+
+    private long bump(final int recordLength) {
+        final long location = ((long) (this.activeSlab + 1) << 32) | this.endOffsets[this.activeSlab];
+        this.endOffsets[this.activeSlab] += recordLength;
+        this.liveBytes[this.activeSlab] += recordLength;
+        return location;
+    }
+
+    /**
+     * Move the live records of a slab down to its start, overwriting the garbage in between.
+     */
+    private void compact(final int slabIndex) {
+        this.compactions++;
+        final ByteBuffer slab = this.slabs.get(slabIndex);
+        int readOffset = 0;
+        int writeOffset = 0;
+        final int end = this.endOffsets[slabIndex];
+        while (readOffset < end) {
+            final int recordLength = slab.getInt(readOffset);
+            final long location = ((long) (slabIndex + 1) << 32) | readOffset;
+            final byte[] id = idAt(location);
+            if (this.index.get(id) == location) {
+                if (writeOffset != readOffset) {
+                    final byte[] record = read(slab, readOffset, recordLength);
+                    //Repointed before the record is overwritten, as the index reads its id to find it
+                    this.index.put(id, ((long) (slabIndex + 1) << 32) | writeOffset);
+                    write(slab, writeOffset, record);
+                }
+                writeOffset += recordLength;
+            }
+            readOffset += recordLength;
+        }
+        this.endOffsets[slabIndex] = writeOffset;
+        this.liveBytes[slabIndex] = writeOffset;
+    }
+
+    private ByteBuffer slabOf(final long location) {
+        return this.slabs.get((int) (location >>> 32) - 1);
+    }
+
+    private static int offsetOf(final long location) {
+        return (int) location;
+    }
+
+    private static byte[] read(final ByteBuffer slab, final int offset, final int length) {
+        final byte[] bytes = new byte[length];
+        final ByteBuffer view = slab.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return bytes;
+    }
+
+    private static void write(final ByteBuffer slab, final int offset, final byte[] bytes) {
+        final ByteBuffer view = slab.duplicate();
+        view.position(offset);
+        view.put(bytes);
+    }
+}
@@ -0,0 +1,220 @@
+package net.unicon.cas.addons.ticket.registry;
+
+import net.unicon.cas.addons.support.GuardedBy;
+import net.unicon.cas.addons.support.ThreadSafe;
+import org.jasig.cas.ticket.Ticket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Asynchronous writes of tickets to a Hazelcast map, with a bounded window of writes in flight and a node-local overlay
+ * of the tickets being written.
+ * <p/>
+ * Tickets are readable from the overlay as soon as their write is issued, so that the node writing them reads its own
+ * writes. A reaper thread waits for the writes to complete, in the order they were issued, then drops their tickets from
+ * the overlay and frees their slot in the window. A write which fails, or times out and can be cancelled, is retried once
+ * synchronously.
+ * <p/>
+ * Callers about to write or remove a ticket which may still be being written have to {@link #await(String)} its write
+ * first, so that the pending write does not land after their own operation.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@ThreadSafe
+final class PendingTicketWrites implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PendingTicketWrites.class);
+
+    private static final long WRITE_TIMEOUT_SECONDS = 10;
+
+    /**
+     * How tickets are written to the map.
+     */
+    interface TicketWriter {
+
+        Future<?> writeAsync(Ticket ticket);
+
+        void write(Ticket ticket);
+    }
+
+    private final TicketWriter writer;
+
+    private final Semaphore window;
+
+    private final ConcurrentMap<String, PendingWrite> pendingWrites = new ConcurrentHashMap<String, PendingWrite>();
+
+    private final BlockingQueue<PendingWrite> writesInFlight = new LinkedBlockingQueue<PendingWrite>();
+
+    private final Thread reaper;
+
+    private volatile boolean stopped;
+
+    /**
+     * @param writer           of the tickets
+     * @param maxPendingWrites size of the window of writes in flight
+     */
+    PendingTicketWrites(final TicketWriter writer, final int maxPendingWrites) {
+        this.writer = writer;
+        this.window = new Semaphore(maxPendingWrites);
+        this.reaper = new Thread(this, "hazelcast-ticket-registry-write-reaper");
+        this.reaper.setDaemon(true);
+        this.reaper.start();
+    }
+
+    /**
+     * Issue the write of a ticket, waiting for a slot in the window if it is full. The ticket is written synchronously
+     * instead should no slot be freed in time.
+     */
+    void write(final Ticket ticket) {
+        boolean acquired = false;
+        try {
+            acquired = !this.stopped && this.window.tryAcquire(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!acquired) {
+            logger.warn("No asynchronous write slot available, writing Ticket[{}] synchronously", ticket.getId());
+            this.writer.write(ticket);
+            return;
+        }
+        final PendingWrite pendingWrite;
+        try {
+            pendingWrite = new PendingWrite(ticket, this.writer.writeAsync(ticket));
+        }
+        catch (final RuntimeException e) {
+            this.window.release();
+            throw e;
+        }
+        this.pendingWrites.put(ticket.getId(), pendingWrite);
+        this.writesInFlight.add(pendingWrite);
+    }
+
+    /**
+     * @return the ticket with the given id if it is still being written, <code>null</code> otherwise
+     */
+    Ticket get(final String ticketId) {
+        final PendingWrite pendingWrite = this.pendingWrites.get(ticketId);
+        return pendingWrite == null ? null : pendingWrite.ticket;
+    }
+
+    /**
+     * Wait for the write of the ticket with the given id to complete, if it is still being written.
+     */
+    void await(final String ticketId) {
+        final PendingWrite pendingWrite = this.pendingWrites.get(ticketId);
+        if (pendingWrite != null) {
+            complete(pendingWrite);
+        }
+    }
+
+    /**
+     * Stop the reaper, once all of the writes issued so far have completed.
+     */
+    void stop() {
+        this.stopped = true;
+        try {
+            this.reaper.join(TimeUnit.SECONDS.toMillis(WRITE_TIMEOUT_SECONDS));
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            final PendingWrite pendingWrite;
+            try {
+                pendingWrite = this.writesInFlight.poll(100, TimeUnit.MILLISECONDS);
+            }
+            catch (final InterruptedException e) {
+                return;
+            }
+            if (pendingWrite != null) {
+                complete(pendingWrite);
+            }
+            else if (this.stopped) {
+                return;
+            }
+        }
+    }
+
+    private void complete(final PendingWrite pendingWrite) {
+        synchronized (pendingWrite) {
+            if (pendingWrite.completed) {
+                return;
+            }
+            try {
+                awaitWrite(pendingWrite);
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            pendingWrite.completed = true;
+            this.pendingWrites.remove(pendingWrite.ticket.getId(), pendingWrite);
+            this.window.release();
+        }
+    }
+
+    /**
+     * A write which has timed out is only retried if it could be cancelled. Otherwise it may still land, and it is waited
+     * for rather than retried, lest it land after a subsequent removal of its ticket and add the ticket back.
+     */
+    private void awaitWrite(final PendingWrite pendingWrite) throws InterruptedException {
+        try {
+            try {
+                pendingWrite.future.get(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+            catch (final TimeoutException e) {
+                if (pendingWrite.future.cancel(false)) {
+                    retry(pendingWrite, e);
+                    return;
+                }
+                logger.warn("Asynchronous write of Ticket[{}] still in flight after {} seconds, waiting for it to complete",
+                        pendingWrite.ticket.getId(), WRITE_TIMEOUT_SECONDS);
+                pendingWrite.future.get();
+            }
+        }
+        catch (final ExecutionException e) {
+            retry(pendingWrite, e.getCause());
+        }
+    }
+
+    private void retry(final PendingWrite pendingWrite, final Throwable cause) {
+        logger.warn("Asynchronous write of Ticket[{}] failed, writing it again synchronously", pendingWrite.ticket.getId(), cause);
+        try {
+            this.writer.write(pendingWrite.ticket);
+        }
+        catch (final RuntimeException e) {
+            logger.error("Ticket[{}] could not be written", pendingWrite.ticket.getId(), e);
+        }
+    }
+
+    private static final class PendingWrite {
+
+        private final Ticket ticket;
+
+        private final Future<?> future;
+
+        @GuardedBy("this")
+        private boolean completed;
+
+        private PendingWrite(final Ticket ticket, final Future<?> future) {
+            this.ticket = ticket;
+            this.future = future;
+        }
+    }
+}
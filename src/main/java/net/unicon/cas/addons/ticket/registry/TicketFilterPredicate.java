@@ -0,0 +1,35 @@
+package net.unicon.cas.addons.ticket.registry;
+
+import com.hazelcast.query.Predicate;
+import net.unicon.cas.addons.support.Immutable;
+import net.unicon.cas.addons.ticket.TicketFilter;
+import org.jasig.cas.ticket.Ticket;
+
+import java.util.Map;
+
+/**
+ * Hazelcast <code>Predicate</code> selecting the tickets matching a {@link TicketFilter}, evaluated by the members
+ * owning the entries.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@Immutable
+final class TicketFilterPredicate implements Predicate<String, Ticket> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TicketFilter filter;
+
+    /**
+     * @param filter criteria the tickets must meet
+     */
+    TicketFilterPredicate(final TicketFilter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public boolean apply(final Map.Entry<String, Ticket> entry) {
+        return this.filter.matches(entry.getValue());
+    }
+}
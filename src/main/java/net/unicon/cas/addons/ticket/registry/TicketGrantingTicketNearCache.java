@@ -0,0 +1,203 @@
+package net.unicon.cas.addons.ticket.registry;
+
+import com.hazelcast.core.EntryAdapter;
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.Member;
+import com.hazelcast.query.Predicate;
+import net.unicon.cas.addons.support.ThreadSafe;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Node-local cache of TGTs read from, or written to, a Hazelcast tickets map.
+ * <p/>
+ * Entries are invalidated by the events of the tickets map, which this class listens to, and expire after a configured
+ * time to live in case an event is lost. Like with CAS' <code>DefaultTicketRegistry</code>, the cached ticket instances
+ * are shared by all of the reads on this node, rather than being deserialized again each time.
+ * <p/>
+ * A value read from the tickets map is only kept if its key was not invalidated while it was being read, so that a stale
+ * value never overwrites a newer one. Invalidations are counted per stripe of keys rather than globally, so that the
+ * constant churn of other TGTs does not keep a busy node from caching anything. Values written by this node are cached
+ * before being written to the tickets map, which makes them visible to the subsequent reads of this node right away, and
+ * the events of its own additions and updates are then ignored rather than evicting what it has just cached.
+ * <p/>
+ * This class is thread safe.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@ThreadSafe
+final class TicketGrantingTicketNearCache extends EntryAdapter<String, Ticket> {
+
+    private final ConcurrentMap<String, CachedTicket> entries = new ConcurrentHashMap<String, CachedTicket>();
+
+    private static final int INVALIDATION_STRIPES = 1024;
+
+    /**
+     * Count of invalidations of the keys of each stripe.
+     */
+    private final AtomicLongArray invalidations = new AtomicLongArray(INVALIDATION_STRIPES);
+
+    private final int maxSize;
+
+    private final long timeToLiveMillis;
+
+    /**
+     * Member of this node, whose own events are ignored, or <code>null</code> if unknown.
+     */
+    private final Member localMember;
+
+    TicketGrantingTicketNearCache(final int maxSize, final long timeToLiveMillis, final Member localMember) {
+        this.maxSize = maxSize;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.localMember = localMember;
+    }
+
+    /**
+     * @return the cached ticket with the given id, or <code>null</code> if it is not cached
+     */
+    Ticket get(final String ticketId) {
+        final CachedTicket cached = this.entries.get(ticketId);
+        if (cached == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - cached.cachedAt > this.timeToLiveMillis) {
+            this.entries.remove(ticketId, cached);
+            return null;
+        }
+        return cached.ticket;
+    }
+
+    /**
+     * @return the number of invalidations of the stripe of the given key so far, to pass to
+     * {@link #putIfNotInvalidatedSince(Ticket, long)}
+     */
+    long invalidations(final String ticketId) {
+        return this.invalidations.get(stripe(ticketId));
+    }
+
+    /**
+     * Cache a ticket read from the tickets map, unless its key has been invalidated since it started being read.
+     */
+    void putIfNotInvalidatedSince(final Ticket ticket, final long invalidations) {
+        final int stripe = stripe(ticket.getId());
+        if (!isCacheable(ticket) || this.invalidations.get(stripe) != invalidations) {
+            return;
+        }
+        final CachedTicket cached = store(ticket);
+        //An invalidation may have come in between the check above and the store
+        if (this.invalidations.get(stripe) != invalidations) {
+            this.entries.remove(ticket.getId(), cached);
+        }
+    }
+
+    /**
+     * Cache a ticket about to be written to the tickets map by this node.
+     */
+    void putWritten(final Ticket ticket) {
+        //Counts as an invalidation, so that concurrent reads of the previous value are not cached
+        invalidate(ticket.getId());
+        if (isCacheable(ticket)) {
+            store(ticket);
+        }
+    }
+
+    void invalidate(final String ticketId) {
+        this.invalidations.incrementAndGet(stripe(ticketId));
+        this.entries.remove(ticketId);
+    }
+
+    /**
+     * The value written by this node has been cached by {@link #putWritten(Ticket)} already.
+     */
+    @Override
+    public void entryAdded(final EntryEvent<String, Ticket> event) {
+        if (!isOwnEvent(event)) {
+            invalidate(event.getKey());
+        }
+    }
+
+    /**
+     * The value written by this node has been cached by {@link #putWritten(Ticket)} already.
+     */
+    @Override
+    public void entryUpdated(final EntryEvent<String, Ticket> event) {
+        if (!isOwnEvent(event)) {
+            invalidate(event.getKey());
+        }
+    }
+
+    @Override
+    public void entryRemoved(final EntryEvent<String, Ticket> event) {
+        invalidate(event.getKey());
+    }
+
+    @Override
+    public void entryEvicted(final EntryEvent<String, Ticket> event) {
+        invalidate(event.getKey());
+    }
+
+    /**
+     * Only the TGTs whose events pass the {@link TicketGrantingTicketKeyPredicate} can be invalidated, hence cached.
+     */
+    private static boolean isCacheable(final Ticket ticket) {
+        return ticket instanceof TicketGrantingTicket && TicketGrantingTicketKeyPredicate.isTicketGrantingTicketId(ticket.getId());
+    }
+
+    private boolean isOwnEvent(final EntryEvent<String, Ticket> event) {
+        return this.localMember != null && this.localMember.equals(event.getMember());
+    }
+
+    private static int stripe(final String ticketId) {
+        final int hash = ticketId.hashCode();
+        return (hash ^ (hash >>> 16)) & (INVALIDATION_STRIPES - 1);
+    }
+
+    private CachedTicket store(final Ticket ticket) {
+        if (this.entries.size() >= this.maxSize && !this.entries.containsKey(ticket.getId())) {
+            final Iterator<Map.Entry<String, CachedTicket>> it = this.entries.entrySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        final CachedTicket cached = new CachedTicket(ticket);
+        this.entries.put(ticket.getId(), cached);
+        return cached;
+    }
+
+    private static final class CachedTicket {
+
+        private final Ticket ticket;
+
+        private final long cachedAt = System.currentTimeMillis();
+
+        private CachedTicket(final Ticket ticket) {
+            this.ticket = ticket;
+        }
+    }
+
+    /**
+     * Restricts the events sent to a near cache to those of TGTs, leaving out the far more numerous ones of STs.
+     * Evaluated by the node owning the entry, hence keys only: the value of a removed entry is not available.
+     */
+    static final class TicketGrantingTicketKeyPredicate implements Predicate<String, Ticket> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean apply(final Map.Entry<String, Ticket> entry) {
+            return isTicketGrantingTicketId(entry.getKey());
+        }
+
+        static boolean isTicketGrantingTicketId(final String ticketId) {
+            return ticketId != null && ticketId.startsWith(TicketGrantingTicket.PREFIX);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package net.unicon.cas.addons.ticket.registry;
+
+import com.hazelcast.map.EntryBackupProcessor;
+import com.hazelcast.map.EntryProcessor;
+import net.unicon.cas.addons.support.Immutable;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.ticket.AbstractTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hazelcast <code>EntryProcessor</code> updating a stored TGT in place, on the member owning its entry and on the backups.
+ * <p/>
+ * It carries only the state of a TGT which changes once the TGT is created: usage count and times, expiration flag and
+ * granted services. The authentication, by far the largest part of a TGT, does not have to be sent again.
+ * <p/>
+ * <code>TicketGrantingTicketImpl</code> exposes no way to set that state, so it is copied field by field. Should those
+ * fields not be found, e.g. with another version of CAS, {@link #canUpdate(Ticket)} returns false and tickets have to
+ * be written whole instead.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@Immutable
+final class TicketGrantingTicketStateProcessor implements EntryProcessor<String, Ticket>, EntryBackupProcessor<String, Ticket> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(TicketGrantingTicketStateProcessor.class);
+
+    private static final Field COUNT_OF_USES;
+
+    private static final Field LAST_TIME_USED;
+
+    private static final Field PREVIOUS_LAST_TIME_USED;
+
+    private static final Field EXPIRED;
+
+    private static final Field SERVICES;
+
+    private static final Field SUPPLEMENTAL_AUTHENTICATIONS;
+
+    static {
+        Field[] fields;
+        try {
+            fields = new Field[] {
+                    AbstractTicket.class.getDeclaredField("countOfUses"),
+                    AbstractTicket.class.getDeclaredField("lastTimeUsed"),
+                    AbstractTicket.class.getDeclaredField("previousLastTimeUsed"),
+                    TicketGrantingTicketImpl.class.getDeclaredField("expired"),
+                    TicketGrantingTicketImpl.class.getDeclaredField("services"),
+                    TicketGrantingTicketImpl.class.getDeclaredField("supplementalAuthentications")};
+            for (final Field field : fields) {
+                field.setAccessible(true);
+            }
+        }
+        catch (final Exception e) {
+            logger.warn("TGTs will be updated by writing them whole: their state could not be accessed", e);
+            fields = new Field[6];
+        }
+        COUNT_OF_USES = fields[0];
+        LAST_TIME_USED = fields[1];
+        PREVIOUS_LAST_TIME_USED = fields[2];
+        EXPIRED = fields[3];
+        SERVICES = fields[4];
+        SUPPLEMENTAL_AUTHENTICATIONS = fields[5];
+    }
+
+    private final int countOfUses;
+
+    private final long lastTimeUsed;
+
+    private final long previousLastTimeUsed;
+
+    private final Boolean expired;
+
+    private final HashMap<String, Service> services;
+
+    private final ArrayList<Authentication> supplementalAuthentications;
+
+    /**
+     * @param tgt whose state to apply to the stored TGT, which {@link #canUpdate(Ticket)}
+     */
+    TicketGrantingTicketStateProcessor(final TicketGrantingTicketImpl tgt) {
+        try {
+            this.countOfUses = COUNT_OF_USES.getInt(tgt);
+            this.lastTimeUsed = LAST_TIME_USED.getLong(tgt);
+            this.previousLastTimeUsed = PREVIOUS_LAST_TIME_USED.getLong(tgt);
+            this.expired = (Boolean) EXPIRED.get(tgt);
+            this.services = new HashMap<String, Service>(castMap(SERVICES.get(tgt)));
+            this.supplementalAuthentications = new ArrayList<Authentication>(castList(SUPPLEMENTAL_AUTHENTICATIONS.get(tgt)));
+        }
+        catch (final IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return whether the given ticket can be updated by this processor
+     */
+    static boolean canUpdate(final Ticket ticket) {
+        return COUNT_OF_USES != null && ticket instanceof TicketGrantingTicketImpl;
+    }
+
+    /**
+     * @return true if the TGT has been updated, false if it no longer exists
+     */
+    @Override
+    public Object process(final Map.Entry<String, Ticket> entry) {
+        if (!(entry.getValue() instanceof TicketGrantingTicketImpl)) {
+            return false;
+        }
+        final TicketGrantingTicketImpl tgt = (TicketGrantingTicketImpl) entry.getValue();
+        applyTo(tgt);
+        entry.setValue(tgt);
+        return true;
+    }
+
+    @Override
+    public EntryBackupProcessor<String, Ticket> getBackupProcessor() {
+        return this;
+    }
+
+    @Override
+    public void processBackup(final Map.Entry<String, Ticket> entry) {
+        process(entry);
+    }
+
+    private void applyTo(final TicketGrantingTicketImpl tgt) {
+        try {
+            COUNT_OF_USES.setInt(tgt, this.countOfUses);
+            LAST_TIME_USED.setLong(tgt, this.lastTimeUsed);
+            PREVIOUS_LAST_TIME_USED.setLong(tgt, this.previousLastTimeUsed);
+            EXPIRED.set(tgt, this.expired);
+            final Map<String, Service> services = castMap(SERVICES.get(tgt));
+            services.clear();
+            services.putAll(this.services);
+            final List<Authentication> supplementalAuthentications = castList(SUPPLEMENTAL_AUTHENTICATIONS.get(tgt));
+            supplementalAuthentications.clear();
+            supplementalAuthentications.addAll(this.supplementalAuthentications);
+        }
+        catch (final IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Service> castMap(final Object map) {
+        return (Map<String, Service>) map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Authentication> castList(final Object list) {
+        return (List<Authentication>) list;
+    }
+}
@@ -0,0 +1,167 @@
+package net.unicon.cas.addons.ticket.registry;
+
+import net.unicon.cas.addons.support.NotThreadSafe;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash index of the locations of ticket records by ticket id, made of primitive arrays which the garbage
+ * collector does not have to trace.
+ * <p/>
+ * Only the hash of the ids is kept in the index: ids are compared against the ids of the records they point to, read
+ * through {@link Records}. Locations are opaque to the index, except for 0 which means none.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@NotThreadSafe
+final class TicketRecordIndex {
+
+    /**
+     * Where the records pointed to are stored.
+     */
+    interface Records {
+
+        /**
+         * @return whether the record at the given location has the given id
+         */
+        boolean hasId(long location, byte[] id);
+    }
+
+    private static final long EMPTY = 0;
+
+    private static final long REMOVED = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Records records;
+
+    private long[] locations = new long[INITIAL_CAPACITY];
+
+    private int[] hashes = new int[INITIAL_CAPACITY];
+
+    private int size;
+
+    private int usedSlots;
+
+    TicketRecordIndex(final Records records) {
+        this.records = records;
+    }
+
+    /**
+     * @return location of the record with the given id, or 0 if there is none
+     */
+    long get(final byte[] id) {
+        final int slot = findSlot(id, hash(id));
+        return slot < 0 ? 0 : this.locations[slot];
+    }
+
+    /**
+     * @return location of the record the given id pointed to before, or 0 if there was none
+     */
+    long put(final byte[] id, final long location) {
+        final int hash = hash(id);
+        int slot = findSlot(id, hash);
+        if (slot >= 0) {
+            final long previous = this.locations[slot];
+            this.locations[slot] = location;
+            return previous;
+        }
+        slot = insertionSlot(hash);
+        if (this.locations[slot] == EMPTY) {
+            this.usedSlots++;
+        }
+        this.locations[slot] = location;
+        this.hashes[slot] = hash;
+        this.size++;
+        return 0;
+    }
+
+    /**
+     * @return location of the record the given id pointed to, or 0 if there was none
+     */
+    long remove(final byte[] id) {
+        final int slot = findSlot(id, hash(id));
+        if (slot < 0) {
+            return 0;
+        }
+        final long location = this.locations[slot];
+        this.locations[slot] = REMOVED;
+        this.size--;
+        return location;
+    }
+
+    /**
+     * @return the locations of all of the records indexed
+     */
+    long[] locations() {
+        final long[] result = new long[this.size];
+        int i = 0;
+        for (final long location : this.locations) {
+            if (location != EMPTY && location != REMOVED) {
+                result[i++] = location;
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    private int findSlot(final byte[] id, final int hash) {
+        final int mask = this.locations.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            final long location = this.locations[slot];
+            if (location == EMPTY) {
+                return -1;
+            }
+            if (location != REMOVED && this.hashes[slot] == hash && this.records.hasId(location, id)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * @return a free slot for an id which is not in the index, growing or cleaning up the index first if needed
+     */
+    private int insertionSlot(final int hash) {
+        if ((this.usedSlots + 1) * 2 > this.locations.length) {
+            rehash(this.size * 4 > this.locations.length ? this.locations.length * 2 : this.locations.length);
+        }
+        final int mask = this.locations.length - 1;
+        int slot = hash & mask;
+        while (this.locations[slot] != EMPTY && this.locations[slot] != REMOVED) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Rebuild the index with the given capacity, dropping the slots of removed records.
+     */
+    private void rehash(final int capacity) {
+        final long[] oldLocations = this.locations;
+        final int[] oldHashes = this.hashes;
+        this.locations = new long[capacity];
+        this.hashes = new int[capacity];
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldLocations.length; i++) {
+            if (oldLocations[i] != EMPTY && oldLocations[i] != REMOVED) {
+                int slot = oldHashes[i] & mask;
+                while (this.locations[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                this.locations[slot] = oldLocations[i];
+                this.hashes[slot] = oldHashes[i];
+            }
+        }
+        this.usedSlots = this.size;
+    }
+
+    private static int hash(final byte[] id) {
+        final int h = Arrays.hashCode(id);
+        //Spread the bits, as ticket ids share long prefixes
+        return h ^ (h >>> 16) ^ (h >>> 7);
+    }
+}
@@ -0,0 +1,71 @@
+package net.unicon.cas.addons.ticket.registry;
+
+/**
+ * Records of serialized tickets, stored outside of the Java heap and looked up by ticket id, as used by
+ * {@link AbstractOffHeapTicketRegistry}. Ids are in UTF-8, and expiration times in milliseconds.
+ * <p/>
+ * Implementations are not thread safe, callers have to guard them with a read-write lock: none of the read methods
+ * changes them.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+interface TicketRecordStore {
+
+    /**
+     * Store a record, replacing any previous record of the same id.
+     *
+     * @throws IllegalStateException if there is no space left for it
+     */
+    void put(byte[] id, byte[] payload, long expirationTime);
+
+    /**
+     * @return the serialized ticket of the record with the given id which has not expired as of <code>now</code>, or
+     * <code>null</code> if there is none
+     */
+    byte[] get(byte[] id, long now);
+
+    /**
+     * @return whether there was a record with the given id
+     */
+    boolean remove(byte[] id);
+
+    /**
+     * Remove the record with the given id if it has expired as of <code>now</code>.
+     *
+     * @return whether a record has been removed
+     */
+    boolean removeIfExpired(byte[] id, long now);
+
+    /**
+     * @return the locations of all of the current records, only valid until the store is next changed
+     */
+    long[] locations();
+
+    /**
+     * @param location of a current record
+     * @return id of the record
+     */
+    byte[] idAt(long location);
+
+    /**
+     * @param location of a current record
+     * @return expiration time of the record
+     */
+    long expirationTimeAt(long location);
+
+    /**
+     * @return number of compactions so far, each of which may have moved records to other locations
+     */
+    long compactions();
+
+    /**
+     * @return number of records, including the expired ones not removed yet
+     */
+    int size();
+
+    /**
+     * Release the resources of the store, which is no longer used afterwards.
+     */
+    void close();
+}
@@ -0,0 +1,288 @@
+package net.unicon.cas.addons.ticket.registry;
+
+import com.hazelcast.core.IMap;
+import com.hazelcast.monitor.LocalMapStats;
+import net.unicon.cas.addons.support.Histogram;
+import net.unicon.cas.addons.support.ThreadSafe;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of the operations of a {@link HazelcastTicketRegistry} on this node: latency histograms per operation and per
+ * ticket type, hit ratio of the reads, of the TGT near cache, and histograms of the serialized size of tickets.
+ * <p/>
+ * Latencies are in microseconds and sizes in bytes. Sizes are only recorded when tickets are serialized by a
+ * {@link TicketStreamSerializer} given these metrics. The local statistics of the tickets maps, i.e. the entries owned by
+ * this node and the operations it served, are included as well: compared across nodes, they show how evenly the load is
+ * spread over the cluster.
+ * <p/>
+ * Metrics are exposed over JMX when an annotation-driven Spring <code>MBeanExporter</code> is configured, e.g. with
+ * <code>&lt;context:mbean-export/&gt;</code>, and by <code>TicketRegistryMetricsResource</code> as JSON. The MBean only has
+ * flat numeric attributes, JMX clients being unable to render nested maps: the hit ratios, the 99th percentiles of the
+ * latencies and serialized sizes of TGTs and STs, and the totals of the local statistics of the tickets maps. All of the
+ * metrics are rendered as JSON. The MBean is named
+ * after the bean, e.g. <code>net.unicon.cas.addons.ticket.registry:type=TicketRegistryMetrics,name=ticketRegistryMetrics</code>,
+ * so that the metrics of several registries in the same context do not clash.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@ThreadSafe
+@ManagedResource(description = "Latencies, hit ratios and ticket sizes of the Hazelcast ticket registry")
+public class TicketRegistryMetrics {
+
+    /**
+     * Operations of the ticket registry.
+     */
+    public enum Operation {
+        ADD, GET, UPDATE, DELETE
+    }
+
+    /**
+     * Types of ticket, as told by the prefix of their id.
+     */
+    public enum TicketType {
+        TGT, ST, PROXY;
+
+        static TicketType of(final String ticketId) {
+            if (ticketId.startsWith(HazelcastTicketRegistry.SERVICE_TICKET_PREFIX)) {
+                return ST;
+            }
+            if (ticketId.startsWith(HazelcastTicketRegistry.PROXY_GRANTING_TICKET_PREFIX)
+                    || ticketId.startsWith(HazelcastTicketRegistry.PROXY_TICKET_PREFIX)) {
+                return PROXY;
+            }
+            return TGT;
+        }
+    }
+
+    private final Histogram[][] latencies = new Histogram[Operation.values().length][TicketType.values().length];
+
+    private final Histogram[] serializedSizes = new Histogram[TicketType.values().length];
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong nearCacheHits = new AtomicLong();
+
+    private final AtomicLong nearCacheMisses = new AtomicLong();
+
+    private final List<IMap<String, ?>> ticketMaps = new CopyOnWriteArrayList<IMap<String, ?>>();
+
+    public TicketRegistryMetrics() {
+        for (final Operation operation : Operation.values()) {
+            for (final TicketType type : TicketType.values()) {
+                this.latencies[operation.ordinal()][type.ordinal()] = new Histogram();
+            }
+        }
+        for (final TicketType type : TicketType.values()) {
+            this.serializedSizes[type.ordinal()] = new Histogram();
+        }
+    }
+
+    /**
+     * @param operation   which has just completed
+     * @param ticketId    id of the ticket operated on
+     * @param startNanos  value of <code>System.nanoTime()</code> when the operation started
+     */
+    void recordLatency(final Operation operation, final String ticketId, final long startNanos) {
+        this.latencies[operation.ordinal()][TicketType.of(ticketId).ordinal()].record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    void recordGet(final boolean found) {
+        (found ? this.hits : this.misses).incrementAndGet();
+    }
+
+    void recordNearCacheGet(final boolean hit) {
+        (hit ? this.nearCacheHits : this.nearCacheMisses).incrementAndGet();
+    }
+
+    void recordSerializedSize(final String ticketId, final int sizeInBytes) {
+        this.serializedSizes[TicketType.of(ticketId).ordinal()].record(sizeInBytes);
+    }
+
+    void monitor(final IMap<String, ?> ticketMap) {
+        if (!this.ticketMaps.contains(ticketMap)) {
+            this.ticketMaps.add(ticketMap);
+        }
+    }
+
+    /**
+     * @return latency histogram of the given operation on tickets of the given type
+     */
+    public Histogram getLatency(final Operation operation, final TicketType type) {
+        return this.latencies[operation.ordinal()][type.ordinal()];
+    }
+
+    @ManagedAttribute(description = "Ratio of the tickets read which were found")
+    public double getHitRatio() {
+        return ratio(this.hits.get(), this.misses.get());
+    }
+
+    @ManagedAttribute(description = "Ratio of the TGTs read from the near cache")
+    public double getNearCacheHitRatio() {
+        return ratio(this.nearCacheHits.get(), this.nearCacheMisses.get());
+    }
+
+    @ManagedAttribute(description = "99th percentile of the latency of adding a TGT, in microseconds")
+    public long getTicketGrantingTicketAddLatencyP99() {
+        return getLatency(Operation.ADD, TicketType.TGT).getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute(description = "99th percentile of the latency of reading a TGT, in microseconds")
+    public long getTicketGrantingTicketGetLatencyP99() {
+        return getLatency(Operation.GET, TicketType.TGT).getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute(description = "99th percentile of the latency of updating a TGT, in microseconds")
+    public long getTicketGrantingTicketUpdateLatencyP99() {
+        return getLatency(Operation.UPDATE, TicketType.TGT).getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute(description = "99th percentile of the latency of deleting a TGT, in microseconds")
+    public long getTicketGrantingTicketDeleteLatencyP99() {
+        return getLatency(Operation.DELETE, TicketType.TGT).getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute(description = "99th percentile of the latency of adding an ST, in microseconds")
+    public long getServiceTicketAddLatencyP99() {
+        return getLatency(Operation.ADD, TicketType.ST).getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute(description = "99th percentile of the latency of reading an ST, in microseconds")
+    public long getServiceTicketGetLatencyP99() {
+        return getLatency(Operation.GET, TicketType.ST).getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute(description = "99th percentile of the latency of deleting an ST, in microseconds")
+    public long getServiceTicketDeleteLatencyP99() {
+        return getLatency(Operation.DELETE, TicketType.ST).getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute(description = "99th percentile of the serialized size of TGTs, in bytes")
+    public long getTicketGrantingTicketSerializedSizeP99() {
+        return this.serializedSizes[TicketType.TGT.ordinal()].getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute(description = "99th percentile of the serialized size of STs, in bytes")
+    public long getServiceTicketSerializedSizeP99() {
+        return this.serializedSizes[TicketType.ST.ordinal()].getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute(description = "Entries of the tickets maps owned by this node")
+    public long getOwnedEntries() {
+        long total = 0;
+        for (final IMap<String, ?> map : this.ticketMaps) {
+            total += map.getLocalMapStats().getOwnedEntryCount();
+        }
+        return total;
+    }
+
+    @ManagedAttribute(description = "Memory cost in bytes of the entries of the tickets maps owned by this node")
+    public long getOwnedEntryMemoryCost() {
+        long total = 0;
+        for (final IMap<String, ?> map : this.ticketMaps) {
+            total += map.getLocalMapStats().getOwnedEntryMemoryCost();
+        }
+        return total;
+    }
+
+    @ManagedAttribute(description = "Backup entries of the tickets maps held by this node")
+    public long getBackupEntries() {
+        long total = 0;
+        for (final IMap<String, ?> map : this.ticketMaps) {
+            total += map.getLocalMapStats().getBackupEntryCount();
+        }
+        return total;
+    }
+
+    /**
+     * @return latency percentiles in microseconds, by operation and ticket type
+     */
+    public Map<String, Map<String, Number>> getLatencies() {
+        final Map<String, Map<String, Number>> latencies = new LinkedHashMap<String, Map<String, Number>>();
+        for (final Operation operation : Operation.values()) {
+            for (final TicketType type : TicketType.values()) {
+                final Histogram histogram = getLatency(operation, type);
+                if (histogram.getCount() > 0) {
+                    latencies.put(operation.name().toLowerCase() + "." + type.name(), histogram.toMap());
+                }
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * @return serialized size percentiles in bytes, by ticket type
+     */
+    public Map<String, Map<String, Number>> getSerializedSizes() {
+        final Map<String, Map<String, Number>> sizes = new LinkedHashMap<String, Map<String, Number>>();
+        for (final TicketType type : TicketType.values()) {
+            if (this.serializedSizes[type.ordinal()].getCount() > 0) {
+                sizes.put(type.name(), this.serializedSizes[type.ordinal()].toMap());
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * @return entries owned and operations served by this node, by tickets map
+     */
+    public Map<String, Map<String, Long>> getLocalMapStatistics() {
+        final Map<String, Map<String, Long>> statistics = new LinkedHashMap<String, Map<String, Long>>();
+        for (final IMap<String, ?> map : this.ticketMaps) {
+            final LocalMapStats stats = map.getLocalMapStats();
+            final Map<String, Long> mapStatistics = new LinkedHashMap<String, Long>();
+            mapStatistics.put("ownedEntries", stats.getOwnedEntryCount());
+            mapStatistics.put("ownedEntryMemoryCost", stats.getOwnedEntryMemoryCost());
+            mapStatistics.put("backupEntries", stats.getBackupEntryCount());
+            mapStatistics.put("hits", stats.getHits());
+            mapStatistics.put("gets", stats.getGetOperationCount());
+            mapStatistics.put("puts", stats.getPutOperationCount());
+            mapStatistics.put("removes", stats.getRemoveOperationCount());
+            statistics.put(map.getName(), mapStatistics);
+        }
+        return statistics;
+    }
+
+    /**
+     * @return all of the metrics, e.g. to be rendered as JSON
+     */
+    public Map<String, Object> toMap() {
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("hitRatio", getHitRatio());
+        map.put("nearCacheHitRatio", getNearCacheHitRatio());
+        map.put("latencies", getLatencies());
+        map.put("serializedSizes", getSerializedSizes());
+        map.put("localMapStatistics", getLocalMapStatistics());
+        return map;
+    }
+
+    @ManagedOperation(description = "Forget the metrics recorded so far, except the statistics of the maps")
+    public void reset() {
+        for (final Histogram[] histograms : this.latencies) {
+            for (final Histogram histogram : histograms) {
+                histogram.reset();
+            }
+        }
+        for (final Histogram histogram : this.serializedSizes) {
+            histogram.reset();
+        }
+        this.hits.set(0);
+        this.misses.set(0);
+        this.nearCacheHits.set(0);
+        this.nearCacheMisses.set(0);
+    }
+
+    private static double ratio(final long hits, final long misses) {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+}
@@ -0,0 +1,388 @@
+package net.unicon.cas.addons.ticket.registry;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+import net.unicon.cas.addons.support.GuardedBy;
+import net.unicon.cas.addons.support.ThreadSafe;
+import org.jasig.cas.ticket.Ticket;
+import org.springframework.util.ClassUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Hazelcast <code>StreamSerializer</code> storing tickets in a compact binary form, in place of the default Java serialization.
+ * <p/>
+ * Tickets are still written by Java serialization, but class descriptors, which make up most of a serialized ticket graph,
+ * are replaced by a one byte index for the classes tickets are usually made of, and by the class name otherwise. This assumes
+ * that all of the nodes of the cluster run the same version of those classes, as they do when running the same CAS server.
+ * Optionally, tickets larger than a threshold are also compressed with Deflate, which pays off with large principal
+ * attribute maps.
+ * <p/>
+ * When reading, short strings such as attribute names and values are interned in a pool, so that the tickets
+ * deserialized on a node share one instance of each instead of holding their own copies. The pool keeps the 10000 strings
+ * used most recently, split into stripes each evicting its least recently used strings, so that the strings of the
+ * current population of tickets replace those of tickets long gone.
+ * <p/>
+ * To use it, register it for the <code>org.jasig.cas.ticket.Ticket</code> type class in the serialization configuration of
+ * each Hazelcast instance, either in XML or with {@link #registerWith(Config, boolean)}. The size of the tickets written
+ * is recorded to the {@link TicketRegistryMetrics} it is given, if any.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+@ThreadSafe
+public class TicketStreamSerializer implements StreamSerializer<Ticket> {
+
+    public static final int TYPE_ID = 1909;
+
+    private static final byte PLAIN = 1;
+
+    private static final byte DEFLATED = 2;
+
+    private static final int CLASS_NAME = 0xFF;
+
+    /**
+     * Classes written as their index in this list. Only ever append to it: indexes are part of the stored format.
+     */
+    private static final List<String> KNOWN_CLASS_NAMES = Arrays.asList(
+            "org.jasig.cas.ticket.AbstractTicket",
+            "org.jasig.cas.ticket.TicketGrantingTicketImpl",
+            "org.jasig.cas.ticket.ServiceTicketImpl",
+            "org.jasig.cas.authentication.ImmutableAuthentication",
+            "org.jasig.cas.authentication.BasicCredentialMetaData",
+            "org.jasig.cas.authentication.HandlerResult",
+            "org.jasig.cas.authentication.principal.SimplePrincipal",
+            "org.jasig.cas.authentication.principal.AbstractWebApplicationService",
+            "org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl",
+            "org.jasig.cas.ticket.support.TicketGrantingTicketExpirationPolicy",
+            "org.jasig.cas.ticket.support.TimeoutExpirationPolicy",
+            "org.jasig.cas.ticket.support.HardTimeoutExpirationPolicy",
+            "org.jasig.cas.ticket.support.MultiTimeUseOrTimeoutExpirationPolicy",
+            "org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy",
+            "org.jasig.cas.ticket.support.RememberMeDelegatingExpirationPolicy",
+            "org.jasig.cas.ticket.support.ThrottledUseAndTimeoutExpirationPolicy",
+            "java.util.HashMap",
+            "java.util.LinkedHashMap",
+            "java.util.ArrayList",
+            "java.util.Collections$UnmodifiableMap",
+            "java.util.Collections$UnmodifiableList",
+            "java.util.Collections$UnmodifiableRandomAccessList",
+            "java.util.Collections$UnmodifiableCollection",
+            "java.util.Date",
+            "java.lang.Number",
+            "java.lang.Boolean",
+            "java.lang.Integer",
+            "java.lang.Long");
+
+    private static final Map<String, Integer> KNOWN_CLASS_INDEXES = new HashMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < KNOWN_CLASS_NAMES.size(); i++) {
+            KNOWN_CLASS_INDEXES.put(KNOWN_CLASS_NAMES.get(i), i);
+        }
+    }
+
+    private static final int MAX_INTERNED_STRING_LENGTH = 32;
+
+    private static final int MAX_INTERNED_STRINGS = 10000;
+
+    private static final int INTERNED_STRINGS_STRIPES = 16;
+
+    private final InternedStrings[] internedStrings = new InternedStrings[INTERNED_STRINGS_STRIPES];
+
+    private final boolean compressionEnabled;
+
+    private final int compressionThresholdInBytes;
+
+    private volatile TicketRegistryMetrics metrics;
+
+    /**
+     * Serializer which does not compress tickets.
+     */
+    public TicketStreamSerializer() {
+        this(false, 0);
+    }
+
+    /**
+     * @param compressionEnabled whether to compress tickets
+     * @param compressionThresholdInBytes size from which a ticket is compressed
+     */
+    public TicketStreamSerializer(final boolean compressionEnabled, final int compressionThresholdInBytes) {
+        this.compressionEnabled = compressionEnabled;
+        this.compressionThresholdInBytes = compressionThresholdInBytes;
+        for (int i = 0; i < this.internedStrings.length; i++) {
+            this.internedStrings[i] = new InternedStrings();
+        }
+    }
+
+    /**
+     * Register a serializer for tickets in the given Hazelcast configuration.
+     *
+     * @param config             of the Hazelcast instance, before it is created
+     * @param compressionEnabled whether to compress tickets of 1KB or more
+     * @return the configuration
+     */
+    public static Config registerWith(final Config config, final boolean compressionEnabled) {
+        config.getSerializationConfig().addSerializerConfig(new SerializerConfig()
+                .setTypeClass(Ticket.class)
+                .setImplementation(new TicketStreamSerializer(compressionEnabled, 1024)));
+        return config;
+    }
+
+    /**
+     * @param metrics to record the size of the tickets written to. None are recorded by default.
+     */
+    public void setMetrics(final TicketRegistryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public int getTypeId() {
+        return TYPE_ID;
+    }
+
+    @Override
+    public void write(final ObjectDataOutput out, final Ticket ticket) throws IOException {
+        final byte[] serialized = toBytes(ticket);
+        final int size;
+        if (this.compressionEnabled && serialized.length >= this.compressionThresholdInBytes) {
+            final byte[] deflated = deflate(serialized);
+            out.writeByte(DEFLATED);
+            out.writeInt(serialized.length);
+            out.writeInt(deflated.length);
+            out.write(deflated);
+            size = 9 + deflated.length;
+        }
+        else {
+            out.writeByte(PLAIN);
+            out.writeInt(serialized.length);
+            out.write(serialized);
+            size = 5 + serialized.length;
+        }
+        final TicketRegistryMetrics metrics = this.metrics;
+        if (metrics != null && ticket.getId() != null) {
+            metrics.recordSerializedSize(ticket.getId(), size);
+        }
+    }
+
+    @Override
+    public Ticket read(final ObjectDataInput in) throws IOException {
+        final byte format = in.readByte();
+        final byte[] serialized = new byte[in.readInt()];
+        if (format == DEFLATED) {
+            final byte[] deflated = new byte[in.readInt()];
+            in.readFully(deflated);
+            inflate(deflated, serialized);
+        }
+        else if (format == PLAIN) {
+            in.readFully(serialized);
+        }
+        else {
+            throw new IOException("Unknown ticket format: " + format);
+        }
+        return fromBytes(serialized, 0, serialized.length);
+    }
+
+    /**
+     * @return the ticket in the compact form, neither framed nor compressed
+     */
+    byte[] toBytes(final Ticket ticket) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        final ObjectOutputStream oos = new CompactObjectOutputStream(bytes);
+        oos.writeObject(ticket);
+        oos.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the ticket read from its compact form, as written by {@link #toBytes(Ticket)}
+     */
+    Ticket fromBytes(final byte[] bytes, final int offset, final int length) throws IOException {
+        final ObjectInputStream ois = new CompactObjectInputStream(new ByteArrayInputStream(bytes, offset, length));
+        try {
+            return (Ticket) ois.readObject();
+        }
+        catch (final ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        finally {
+            ois.close();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        for (final InternedStrings stripe : this.internedStrings) {
+            stripe.clear();
+        }
+    }
+
+    private static byte[] deflate(final byte[] bytes) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            final ByteArrayOutputStream deflated = new ByteArrayOutputStream(bytes.length / 2);
+            final byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                deflated.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return deflated.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    private static void inflate(final byte[] deflated, final byte[] inflated) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflated);
+            int length = 0;
+            while (length < inflated.length && !inflater.finished()) {
+                final int n = inflater.inflate(inflated, length, inflated.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != inflated.length) {
+                throw new IOException("Truncated compressed ticket");
+            }
+        }
+        catch (final DataFormatException e) {
+            throw new IOException(e);
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    private String intern(final String s) {
+        if (s.length() > MAX_INTERNED_STRING_LENGTH) {
+            return s;
+        }
+        final int hash = s.hashCode();
+        return this.internedStrings[(hash ^ (hash >>> 16)) & (INTERNED_STRINGS_STRIPES - 1)].intern(s);
+    }
+
+    /**
+     * Stripe of the pool of interned strings, evicting its least recently used string once full.
+     */
+    @ThreadSafe
+    private static final class InternedStrings {
+
+        @GuardedBy("this")
+        private final Map<String, String> strings = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+                return size() > MAX_INTERNED_STRINGS / INTERNED_STRINGS_STRIPES;
+            }
+        };
+
+        synchronized String intern(final String s) {
+            final String interned = this.strings.get(s);
+            if (interned != null) {
+                return interned;
+            }
+            this.strings.put(s, s);
+            return s;
+        }
+
+        synchronized void clear() {
+            this.strings.clear();
+        }
+    }
+
+    private static final class CompactObjectOutputStream extends ObjectOutputStream {
+
+        private CompactObjectOutputStream(final OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void writeStreamHeader() throws IOException {
+            //The format is versioned by the enclosing serializer
+        }
+
+        @Override
+        protected void writeClassDescriptor(final ObjectStreamClass desc) throws IOException {
+            final Integer index = KNOWN_CLASS_INDEXES.get(desc.getName());
+            if (index != null) {
+                write(index);
+            }
+            else {
+                write(CLASS_NAME);
+                writeUTF(desc.getName());
+            }
+        }
+    }
+
+    private final class CompactObjectInputStream extends ObjectInputStream {
+
+        private CompactObjectInputStream(final InputStream in) throws IOException {
+            super(in);
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected void readStreamHeader() throws IOException {
+            //No header, see CompactObjectOutputStream
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            final int index = read();
+            if (index < 0) {
+                throw new IOException("Unexpected end of ticket");
+            }
+            return ObjectStreamClass.lookupAny(forName(index == CLASS_NAME ? readUTF() : knownClassName(index)));
+        }
+
+        @Override
+        protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            return forName(desc.getName());
+        }
+
+        @Override
+        protected Object resolveObject(final Object obj) throws IOException {
+            return obj instanceof String ? intern((String) obj) : obj;
+        }
+
+        private Class<?> forName(final String name) throws ClassNotFoundException {
+            try {
+                return ClassUtils.forName(name, ClassUtils.getDefaultClassLoader());
+            }
+            catch (final LinkageError e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+
+        private String knownClassName(final int index) throws IOException {
+            if (index >= KNOWN_CLASS_NAMES.size()) {
+                throw new IOException("Unknown class index: " + index);
+            }
+            return KNOWN_CLASS_NAMES.get(index);
+        }
+    }
+}
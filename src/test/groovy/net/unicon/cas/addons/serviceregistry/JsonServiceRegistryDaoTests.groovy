@@ -1,5 +1,7 @@
 package net.unicon.cas.addons.serviceregistry
 
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl
+import org.jasig.cas.services.RegisteredServiceImpl
 import org.junit.runner.RunWith
 import org.spockframework.runtime.Sputnik
 import org.springframework.core.io.ClassPathResource
@@ -45,6 +47,105 @@ class JsonServiceRegistryDaoTests extends Specification {
             services.size() == 3
     }
     
+    def "The indexed services manager hands out copies of the registered services"() {
+        given:
+            def dao = new JsonServiceRegistryDao(new ClassPathResource("net/unicon/cas/addons/config/servicesRegistry.conf"))
+            dao.loadServices()
+            def servicesManager = new IndexedServicesManager(dao)
+            def id = dao.servicesIndex.services[0].id
+        when:
+            servicesManager.findServiceBy(id).evaluationOrder = 1000
+            servicesManager.allServices.each { it.evaluationOrder = 1000 }
+        then:
+            servicesManager.allServices.size() == 3
+            dao.servicesIndex.services.every { it.evaluationOrder != 1000 }
+            !servicesManager.findServiceBy(id).is(dao.findServiceById(id))
+    }
+    
+    def "Saves and deletes publish a new snapshot and leave the one already handed out to readers untouched"() {
+        given:
+            def dao = new JsonServiceRegistryDao(new ClassPathResource("net/unicon/cas/addons/config/servicesRegistry.conf"))
+            dao.loadServices()
+            def snapshot = dao.servicesIndex
+            def loaded = dao.load()
+        when:
+            dao.save(new RegisteredServiceImpl(id: 4, serviceId: "https://example.org/**", name: "Added"))
+            dao.delete(dao.findServiceById(3))
+        then:
+            snapshot.size() == 3
+            snapshot.findServiceById(3) != null
+            snapshot.findServiceById(4) == null
+            loaded*.id == [1L, 2L, 3L]
+            !dao.servicesIndex.is(snapshot)
+            dao.load()*.id.sort() == [1L, 2L, 4L]
+    }
+    
+    def "Service records are streamed out of the services array and other root fields are skipped"() {
+        given:
+            def file = File.createTempFile("servicesRegistry", ".conf")
+            file.deleteOnExit()
+            file.text = """{
+                "comment": { "services": [ { "id": 100, "serviceId": "https://skipped/**" } ], "tags": [ "a", "b" ] },
+                "services": [
+                    { "id": 1, "serviceId": "^https://regex[.]example[.]com/.*", "name": "Regex", "enabled": true },
+                    { "id": 2, "serviceId": "https://ant.example.com/**", "name": "ANT", "enabled": true, "extraAttributes": { "initiateSSO": true } }
+                ],
+                "trailer": "ignored"
+            }"""
+        when:
+            def services = loadServices(new FileSystemResource(file))
+        then:
+            services*.id == [1L, 2L]
+            services[0] instanceof RegexRegisteredServiceWithAttributes
+            services[1] instanceof RegisteredServiceWithAttributesImpl
+            services[1].extraAttributes.initiateSSO == true
+    }
+    
+    def "A services registry resource which is not a JSON object is rejected"() {
+        given:
+            def file = File.createTempFile("servicesRegistry", ".conf")
+            file.deleteOnExit()
+            file.text = '[ { "id": 1, "serviceId": "https://example.com/**" } ]'
+        when:
+            loadServices(new FileSystemResource(file))
+        then:
+            thrown(RuntimeException)
+    }
+    
+    def "With precompiled regex patterns an invalid pattern fails the load and the services loaded before stay in place"() {
+        given:
+            def file = File.createTempFile("servicesRegistry", ".conf")
+            file.deleteOnExit()
+            file.text = '{ "services": [ { "id": 1, "serviceId": "^https://example[.]com/.*", "name": "Valid" } ] }'
+            def dao = new JsonServiceRegistryDao(new FileSystemResource(file))
+            dao.precompileRegexPatterns = true
+            dao.loadServices()
+        when:
+            file.text = '{ "services": [ { "id": 1, "serviceId": "^https://example[.com/(.*", "name": "Invalid" } ] }'
+            dao.loadServices()
+        then:
+            def e = thrown(RuntimeException)
+            e.cause instanceof IllegalArgumentException
+            dao.load()*.name == ["Valid"]
+    }
+    
+    def "Matching a regex service definition repeatedly reuses the cached compiled pattern"() {
+        given:
+            def dao = new JsonServiceRegistryDao(new ClassPathResource("net/unicon/cas/addons/config/servicesRegistry.conf"))
+            dao.precompileRegexPatterns = true
+            def svc = dao.loadServices().find { it instanceof RegexRegisteredServiceWithAttributes }
+            def compiled = svc.@servicePattern
+        when:
+            def matched = (1..3).collect { svc.matches(new SimpleWebApplicationServiceImpl("http://example.com")) }
+        then:
+            compiled != null
+            matched.every()
+            svc.@servicePattern.is(compiled)
+            RegexPatternCache.sharedInstance.compile(svc.serviceId).is(compiled)
+            new JsonServiceRegistryDao(new ClassPathResource("net/unicon/cas/addons/config/servicesRegistry.conf")).loadServices()
+                    .find { it instanceof RegexRegisteredServiceWithAttributes }.@servicePattern == null
+    }
+    
     def loadServices(resource) {
         def dao = new JsonServiceRegistryDao(resource)
         return dao.loadServices();
@@ -1,5 +1,9 @@
 package net.unicon.cas.addons.serviceregistry
 
+import net.unicon.cas.addons.support.ResourceChangeDetectingEventNotifier.ResourceChangedEvent
+import org.apache.shiro.crypto.hash.Sha1Hash
+import org.jasig.cas.services.ReloadableServicesManager
+import org.springframework.context.ApplicationEventPublisher
 import org.junit.runner.RunWith
 import org.spockframework.runtime.Sputnik
 import org.springframework.core.io.FileSystemResource
@@ -13,6 +17,7 @@ class ReadWriteJsonServiceRegistryDaoTests extends Specification {
     def TEMP_DIR = (String) System.getProperties().get("java.io.tmpdir")
     def resource = new FileSystemResource(new File(TEMP_DIR, "svc.tmp"))
     def dao = new ReadWriteJsonServiceRegistryDao(resource)
+    def journalResource = new FileSystemResource(new File(TEMP_DIR, "svc-journaled.tmp"))
 
     def "Test service registry write operations"() {
         when: "Number of loaded services should equal the number of saved services"
@@ -67,6 +72,189 @@ class ReadWriteJsonServiceRegistryDaoTests extends Specification {
         registeredServices = buildServices(0..2)
     }
 
+    def "Saves replace the registry file atomically and the change event they cause does not reload the services"() {
+        given:
+        def servicesManager = Mock(ReloadableServicesManager)
+        dao.servicesManager = servicesManager
+        saveServices(buildServices(0..1))
+
+        when:
+        dao.onApplicationEvent(new ResourceChangedEvent(this, resource.URI, new Sha1Hash(resource.file).toHex()))
+
+        then:
+        0 * servicesManager.reload()
+        dao.findServiceById(1) != null
+        !resource.file.parentFile.listFiles().any { it.name != resource.filename && it.name.startsWith(resource.filename) }
+
+        when: "The registry file is changed by somebody else"
+        resource.file.text = resource.file.text.replace("The name1", "Another name")
+        dao.onApplicationEvent(new ResourceChangedEvent(this, resource.URI, new Sha1Hash(resource.file).toHex()))
+
+        then:
+        1 * servicesManager.reload()
+        dao.findServiceById(1).name == "Another name"
+    }
+
+    def "A change to one service definition in the registry file re-binds only that service and publishes the change"() {
+        given:
+        def servicesManager = Mock(ReloadableServicesManager)
+        def eventPublisher = Mock(ApplicationEventPublisher)
+        saveServices(buildServices(0..2))
+        def reader = new ReadWriteJsonServiceRegistryDao(resource)
+        reader.servicesManager = servicesManager
+        reader.applicationEventPublisher = eventPublisher
+        def before = reader.loadServices()
+
+        when:
+        resource.file.text = resource.file.text.replace("The name1", "Another name")
+        reader.onApplicationEvent(new ResourceChangedEvent(this, resource.URI, new Sha1Hash(resource.file).toHex()))
+
+        then:
+        1 * servicesManager.reload()
+        1 * eventPublisher.publishEvent({
+            it instanceof RegisteredServicesChangedEvent && it.changedServices*.id == [1L] &&
+                    it.addedServices.empty && it.removedServices.empty
+        })
+        reader.findServiceById(1).name == "Another name"
+        !reader.findServiceById(1).is(before[1])
+        reader.findServiceById(0).is(before[0])
+        reader.findServiceById(2).is(before[2])
+
+        when: "The registry file is touched without any service definition changing"
+        reader.onApplicationEvent(new ResourceChangedEvent(this, resource.URI, new Sha1Hash(resource.file).toHex()))
+
+        then:
+        0 * servicesManager.reload()
+        0 * eventPublisher.publishEvent(_)
+    }
+
+    def "Batches of saves and deletes are applied with a single write and a single reload"() {
+        given:
+        def servicesManager = Mock(ReloadableServicesManager)
+        dao.servicesManager = servicesManager
+        resource.file.delete()
+
+        when:
+        dao.saveAll(buildServices(0..4) + [buildService(-1)])
+
+        then:
+        1 * servicesManager.reload()
+        dao.load().size() == 6
+        new ReadWriteJsonServiceRegistryDao(resource).loadServices().size() == 6
+
+        when:
+        def deleted = dao.deleteAll(buildServices(3..7))
+
+        then:
+        deleted == 2
+        1 * servicesManager.reload()
+        dao.load()*.id.containsAll([0L, 1L, 2L])
+        new ReadWriteJsonServiceRegistryDao(resource).loadServices().size() == 4
+    }
+
+    def "Batches are journaled in journal mode"() {
+        given:
+        def journaled = journaledDao()
+
+        when:
+        journaled.saveAll(buildServices(0..4))
+        journaled.deleteAll(buildServices(0..1))
+
+        then:
+        journalFile().readLines().size() == 7
+        journaledDao().loadServices()*.id == [2L, 3L, 4L]
+    }
+
+    def "Journal mode appends changes to the journal and replays them on load"() {
+        given:
+        def journaled = journaledDao()
+
+        when:
+        buildServices(0..2).each { journaled.save(it) }
+        journaled.delete(buildService(1))
+
+        then:
+        journaled.load()*.id == [0L, 2L]
+        !journalResource.file.exists()
+        journalFile().readLines().size() == 4
+
+        and: "Another instance rebuilds the same services from the journal"
+        journaledDao().loadServices()*.id == [0L, 2L]
+    }
+
+    def "Journal compaction writes the services registry file and empties the journal"() {
+        given:
+        def journaled = journaledDao()
+        buildServices(0..2).each { journaled.save(it) }
+
+        when:
+        journaled.compactJournal()
+
+        then:
+        journalFile().length() == 0
+        new ReadWriteJsonServiceRegistryDao(journalResource).loadServices().size() == 3
+        journaledDao().loadServices().size() == 3
+    }
+
+    def "An incomplete trailing journal record is ignored and cut off"() {
+        given:
+        def journaled = journaledDao()
+        journaled.save(buildService(0))
+        journalFile().append('{"op":"save","service":{"id":')
+
+        when:
+        def reloaded = journaledDao()
+        reloaded.loadServices()
+        reloaded.save(buildService(1))
+
+        then:
+        journaledDao().loadServices()*.id == [0L, 1L]
+    }
+
+    def "Replay skips a corrupt journal record and carries on with the records following it"() {
+        given:
+        def journaled = journaledDao()
+        journaled.save(buildService(0))
+        journalFile().append('{"op":"save","service":{"id":\n')
+        journalFile().append('{"op":"unknown"}\n')
+        def writer = journaledDao()
+        writer.save(buildService(1))
+        writer.delete(buildService(0))
+
+        when:
+        def reloaded = journaledDao()
+        reloaded.save(buildService(2))
+
+        then:
+        reloaded.load()*.id == [1L, 2L]
+        journalFile().readLines().size() == 6
+        journaledDao().loadServices()*.id == [1L, 2L]
+
+        when:
+        reloaded.compactJournal()
+
+        then:
+        journalFile().length() == 0
+        journaledDao().loadServices()*.id == [1L, 2L]
+    }
+
+    def journaledDao() {
+        def journaled = new ReadWriteJsonServiceRegistryDao(journalResource)
+        journaled.journalEnabled = true
+        journaled.journalCompactionThreshold = Integer.MAX_VALUE
+        journaled.loadServices()
+        return journaled
+    }
+
+    def journalFile() {
+        return new File(journalResource.file.path + ".journal")
+    }
+
+    def setup() {
+        journalResource.file.delete()
+        journalFile().delete()
+    }
+
     def saveServices(registeredServices) {
         resource.file.delete()
         for (s in registeredServices) {
@@ -0,0 +1,108 @@
+package net.unicon.cas.addons.serviceregistry
+
+import org.jasig.cas.authentication.principal.Service
+import org.junit.runner.RunWith
+import org.spockframework.runtime.Sputnik
+import spock.lang.Specification
+
+import java.util.regex.Pattern
+
+/**
+ * @author Unicon , inc.
+ */
+@RunWith(Sputnik)
+class RegexServicesAutomatonTests extends Specification {
+
+    def "Combined patterns match exactly like java.util.regex full matching"() {
+        given:
+        def automaton = new RegexServicesAutomaton.Builder()
+        assert automaton.add(pattern, 0)
+
+        expect:
+        inputs.every { (automaton.build().match(it) == 0) == Pattern.compile(pattern).matcher(it).matches() }
+
+        where:
+        pattern                                  | inputs
+        "^https://app\\.example\\.com/.*"        | ["https://app.example.com/", "https://app.example.com/x", "https://appXexample.com/", "https://app.example.com"]
+        "^https?://example\\.com"                | ["http://example.com", "https://example.com", "httpss://example.com"]
+        "^http://[a-z0-9.-]+\\.edu/[^/]*\$"      | ["http://cs.uni.edu/page", "http://cs.uni.edu/a/b", "http://UNI.edu/x", "http://-.edu/"]
+        "^\\w+://\\d+\\.\\d+\\.\\d+\\.\\d+:\\d*" | ["ftp://10.0.0.1:", "ftp://10.0.0.1:8080", "ftp://10.0.0:80"]
+        "^.+\\s?end"                             | ["a end", "aend", "\nend", "a\u2028end", "\uD83D\uDE00end"]
+        "^a.b"                                   | ["a\uD83D\uDE00b", "axb", "a\nb"]
+        "^x*?y+z?"                               | ["y", "xxyyz", "xz", ""]
+    }
+
+    def "The lowest rank among the matching patterns wins"() {
+        given:
+        def automaton = new RegexServicesAutomaton.Builder()
+        automaton.add("^https://.*", 3)
+        automaton.add("^https://app\\.example\\.com/.*", 1)
+        automaton.add("^https://app\\.example\\.com/admin/.*", 0)
+        automaton.add("^http://.*", 2)
+
+        expect:
+        automaton.build().match(input) == rank
+
+        where:
+        input                                 | rank
+        "https://app.example.com/admin/users" | 0
+        "https://app.example.com/home"        | 1
+        "https://other.example.com/"          | 3
+        "http://app.example.com/admin/users"  | 2
+        "ftp://app.example.com/"              | RegexServicesAutomaton.NO_MATCH
+    }
+
+    def "Patterns outside of the supported subset are not combined"() {
+        expect:
+        RegexServicesAutomaton.parse(pattern) == null
+
+        where:
+        pattern << ["^(http|https)://.*", "^a|b", "^a{2}", "^a++", "^[a[b]]", "^[a&&b]", "^\\bword", "^a\$b", "^[]a]", "^a\\"]
+    }
+
+    def "Transitions keep being computed correctly beyond the maximum number of cached states"() {
+        given:
+        def builder = new RegexServicesAutomaton.Builder()
+        builder.add("^https://a[0-9]+\\.example\\.com/.*", 0)
+        def automaton = builder.build(3)
+
+        expect:
+        automaton.match("https://a42.example.com/x") == 0
+        automaton.match("https://a4x.example.com/x") == RegexServicesAutomaton.NO_MATCH
+        automaton.cachedStates() <= 3
+    }
+
+    def "The services index resolves the same definitions with or without combined regex patterns"() {
+        given:
+        def services = [
+                regexService(1, "^https://.+", 10),
+                regexService(2, "^https://app\\.example\\.com/.*", 2),
+                regexService(3, "^(https|imaps)://mail\\.example\\.com/.*", 1),
+                regexService(4, "^https://app\\.example\\.com/admin/.*", 5)]
+        def individual = new RegisteredServicesIndex(services)
+        def combined = new RegisteredServicesIndex(services, true)
+
+        expect:
+        combined.isCombineRegexPatterns()
+        combined.withDeleted(4).isCombineRegexPatterns()
+        ["https://app.example.com/admin/x", "https://mail.example.com/inbox", "imaps://mail.example.com/x",
+         "https://other.org", "ftp://nothing"].every {
+            combined.findServiceBy(service(it))?.id == individual.findServiceBy(service(it))?.id
+        }
+        combined.findServiceBy(service("https://app.example.com/admin/x")).id == 2
+    }
+
+    def service(String id) {
+        def service = Mock(Service)
+        service.getId() >> id
+        return service
+    }
+
+    def regexService(long id, String serviceId, int evaluationOrder) {
+        def svc = new RegexRegisteredServiceWithAttributes()
+        svc.id = id
+        svc.serviceId = serviceId
+        svc.evaluationOrder = evaluationOrder
+        return svc
+    }
+}
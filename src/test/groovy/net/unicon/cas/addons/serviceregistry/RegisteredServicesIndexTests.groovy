@@ -0,0 +1,127 @@
+package net.unicon.cas.addons.serviceregistry
+
+import org.jasig.cas.authentication.principal.Service
+import org.junit.runner.RunWith
+import org.spockframework.runtime.Sputnik
+import spock.lang.Specification
+
+/**
+ * @author Unicon , inc.
+ */
+@RunWith(Sputnik)
+class RegisteredServicesIndexTests extends Specification {
+
+    def "Exact, ANT and regex service definitions are all found through the index"() {
+        given:
+        def index = new RegisteredServicesIndex([
+                antService(1, "https://**", 10),
+                regexService(2, "^http://example\\.com/app.*", 5),
+                antService(3, "http://yahoo.com/", 1)])
+
+        expect:
+        index.findServiceBy(service("http://yahoo.com/")).id == 3
+        index.findServiceBy(service("http://example.com/app/login")).id == 2
+        index.findServiceBy(service("https://secure.example.org")).id == 1
+        index.findServiceBy(service("http://unknown.org")) == null
+    }
+
+    def "Candidates are evaluated in evaluation order"() {
+        given:
+        def index = new RegisteredServicesIndex([
+                regexService(1, "^https://.+", 10),
+                regexService(2, "^https://app\\.example\\.com/.*", 1),
+                antService(3, "https://app.example.com/**", 0)])
+
+        expect:
+        index.findServiceBy(service("https://app.example.com/x")).id == 3
+        index.findServiceBy(service("https://other.example.com/x")).id == 1
+    }
+
+    def "Ties on evaluation order are broken by name, then by service id, like CAS does"() {
+        given:
+        def index = new RegisteredServicesIndex([
+                named(regexService(1, "^https://app\\.example\\.com/.*", 5), "Zeta"),
+                named(antService(2, "https://app.example.com/**", 5), "alpha"),
+                named(regexService(3, "^https://.+", 5), "Alpha")])
+
+        expect: "names are compared ignoring case, and ^ sorts before h"
+        index.services*.id == [3L, 2L, 1L]
+        index.findServiceBy(service("https://app.example.com/x")).id == 3
+    }
+
+    def "Definitions without a usable literal prefix are always evaluated"() {
+        given:
+        def index = new RegisteredServicesIndex([
+                regexService(1, "^(http|https)://example\\.com", 2),
+                regexService(2, "^.*", 3)])
+
+        expect:
+        index.findServiceBy(service("https://example.com")).id == 1
+        index.findServiceBy(service("ftp://anything")).id == 2
+    }
+
+    def "Indexes derived by saves and deletes only build their lookup structures once they are searched"() {
+        given:
+        def index = new RegisteredServicesIndex([
+                antService(1, "https://**", 10),
+                regexService(2, "^http://example\\.com/app.*", 5)])
+
+        when:
+        def derived = index.withSaved(antService(3, "http://yahoo.com/", 1)).withDeleted(1).withSaved(regexService(2, "^http://example\\.com/.*", 5))
+
+        then:
+        derived.@lookup == null
+        derived.size() == 2
+        derived.findServiceById(3).serviceId == "http://yahoo.com/"
+
+        and:
+        derived.findServiceBy(service("http://example.com/other")).id == 2
+        derived.findServiceBy(service("http://yahoo.com/")).id == 3
+        derived.findServiceBy(service("https://secure.example.org")) == null
+        derived.services*.id == [3L, 2L]
+        derived.@lookup != null
+        index.findServiceBy(service("https://secure.example.org")).id == 1
+    }
+
+    def "Literal prefixes are extracted from anchored regular expressions"() {
+        expect:
+        RegisteredServicesIndex.regexLiteralPrefix(pattern) == prefix
+
+        where:
+        pattern                        | prefix
+        "^https://www\\.example\\.com" | "https://www.example.com"
+        "^https?://example"            | "http"
+        "^https://a+b"                 | "https://a"
+        "^http://ex.mple"              | "http://ex"
+        "^\\d+"                        | ""
+        "^a|b"                         | ""
+        "http://no-anchor"             | ""
+    }
+
+    def named(svc, String name) {
+        svc.name = name
+        return svc
+    }
+
+    def service(String id) {
+        def service = Mock(Service)
+        service.getId() >> id
+        return service
+    }
+
+    def antService(long id, String serviceId, int evaluationOrder) {
+        def svc = new RegisteredServiceWithAttributesImpl()
+        svc.id = id
+        svc.serviceId = serviceId
+        svc.evaluationOrder = evaluationOrder
+        return svc
+    }
+
+    def regexService(long id, String serviceId, int evaluationOrder) {
+        def svc = new RegexRegisteredServiceWithAttributes()
+        svc.id = id
+        svc.serviceId = serviceId
+        svc.evaluationOrder = evaluationOrder
+        return svc
+    }
+}
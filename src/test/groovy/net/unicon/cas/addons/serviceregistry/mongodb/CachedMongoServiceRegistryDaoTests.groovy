@@ -0,0 +1,180 @@
+package net.unicon.cas.addons.serviceregistry.mongodb
+
+import net.unicon.cas.addons.serviceregistry.RegisteredServiceWithAttributesImpl
+import org.jasig.cas.services.RegisteredService
+import org.junit.runner.RunWith
+import org.spockframework.runtime.Sputnik
+import org.springframework.data.mongodb.core.MongoOperations
+import org.springframework.data.mongodb.core.query.Query
+import spock.lang.Specification
+
+/**
+ * Exercises the cached mode against an in-process stand-in for the mongo database.
+ *
+ * @author Unicon , inc.
+ */
+@RunWith(Sputnik)
+class CachedMongoServiceRegistryDaoTests extends Specification {
+    def documents = new LinkedHashMap<Long, RegisteredService>()
+    def version = 0L
+    def mongo = Mock(MongoOperations)
+    def dao = new MongoServiceRegistryDao()
+
+    def setup() {
+        mongo.collectionExists(_) >> true
+        mongo.findAll(RegisteredService, _) >> { new ArrayList(documents.values()) }
+        mongo.save(_, _) >> { svc, name -> documents[svc.id] = svc }
+        mongo.remove(_ as RegisteredService, _) >> { svc, name -> documents.remove(svc.id) }
+        mongo.find(_, RegisteredService, _) >> { query, type, name -> ids(query).findResults { documents[it] } }
+        mongo.remove(_ as Query, _) >> { query, name -> ids(query).each { documents.remove(it) } }
+        mongo.insert(_ as Collection, _) >> { services, name -> services.each { documents[it.id] = it } }
+        mongo.findOne(_, MongoServiceRegistryDao.CollectionVersion, _) >> {
+            version > 0 ? new MongoServiceRegistryDao.CollectionVersion(version: version) : null
+        }
+        mongo.findAndModify(_, _, _, MongoServiceRegistryDao.CollectionVersion, _) >> {
+            new MongoServiceRegistryDao.CollectionVersion(version: ++version)
+        }
+
+        def field = MongoServiceRegistryDao.getDeclaredField("mongoTemplate")
+        field.accessible = true
+        field.set(dao, mongo)
+        dao.cacheEnabled = true
+        dao.cacheRefreshIntervalMillis = Long.MAX_VALUE
+    }
+
+    def cleanup() {
+        dao.destroy()
+    }
+
+    def "Cached reads never touch the database"() {
+        given:
+        documents[1L] = buildService(1)
+        dao.afterPropertiesSet()
+
+        when:
+        def saved = dao.save(buildService(2))
+        def found = dao.findServiceById(1)
+        def loaded = dao.load()
+
+        then:
+        saved.id == 2
+        found.id == 1
+        loaded*.id == [1L, 2L]
+        0 * mongo.findOne(_, RegisteredService, _)
+        0 * mongo.findAll(*_)
+    }
+
+    def "Writes made through the DAO do not cause a reload of the collection"() {
+        given:
+        dao.afterPropertiesSet()
+        dao.save(buildService(1))
+        dao.delete(buildService(1))
+
+        when:
+        dao.refreshCacheIfStale()
+
+        then:
+        0 * mongo.findAll(*_)
+        dao.load().isEmpty()
+    }
+
+    def "Writes made by other nodes are picked up once the version changes"() {
+        given:
+        dao.afterPropertiesSet()
+
+        when: "Another node writes without incrementing the version"
+        documents[5L] = buildService(5)
+        dao.refreshCacheIfStale()
+
+        then:
+        0 * mongo.findAll(*_)
+        dao.findServiceById(5) == null
+
+        when: "The version is incremented"
+        version++
+        dao.refreshCacheIfStale()
+
+        then:
+        1 * mongo.findAll(RegisteredService, _) >> { new ArrayList(documents.values()) }
+        dao.findServiceById(5) != null
+    }
+
+    def "Writes made by a node which does not cache the services are picked up by the nodes which do"() {
+        given:
+        dao.afterPropertiesSet()
+        def uncached = new MongoServiceRegistryDao()
+        def field = MongoServiceRegistryDao.getDeclaredField("mongoTemplate")
+        field.accessible = true
+        field.set(uncached, mongo)
+        uncached.afterPropertiesSet()
+
+        when:
+        uncached.save(buildService(7))
+        dao.refreshCacheIfStale()
+
+        then:
+        version == 1
+        dao.findServiceById(7) != null
+    }
+
+    def "A batch save replaces the documents with a single read, remove and insert"() {
+        given:
+        documents[1L] = buildService(1)
+        documents[2L] = buildService(2)
+        dao.afterPropertiesSet()
+
+        when:
+        dao.saveAll([named(buildService(2), "Renamed"), named(buildService(3), "First"), named(buildService(3), "Second")])
+
+        then:
+        1 * mongo.find(_, RegisteredService, _) >> { query, type, name -> ids(query).findResults { documents[it] } }
+        1 * mongo.remove(_ as Query, _) >> { query, name -> ids(query).each { documents.remove(it) } }
+        1 * mongo.insert(_ as Collection, _) >> { services, name -> services.each { documents[it.id] = it } }
+        0 * mongo.save(*_)
+        documents.keySet() as List == [1L, 2L, 3L]
+        documents[2L].name == "Renamed"
+        documents[3L].name == "Second"
+        dao.findServiceById(3).name == "Second"
+        version == 1
+    }
+
+    def "The replaced documents are put back when the insert of a batch fails"() {
+        given:
+        documents[1L] = buildService(1)
+        documents[2L] = buildService(2)
+        dao.afterPropertiesSet()
+
+        when:
+        dao.saveAll([named(buildService(2), "Renamed"), buildService(3)])
+
+        then:
+        1 * mongo.insert({ it*.id == [2L, 3L] }, _) >> { services, name ->
+            documents[2L] = services[0]
+            throw new RuntimeException("Connection reset")
+        }
+        thrown(RuntimeException)
+        documents.keySet() as Set == [1L, 2L] as Set
+        documents[2L].name == "The name2"
+        dao.findServiceById(2).name == "The name2"
+        dao.findServiceById(3) == null
+        version == 0
+    }
+
+    def ids(query) {
+        return query.queryObject.get("_id").get('$in')
+    }
+
+    def named(svc, name) {
+        svc.name = name
+        return svc
+    }
+
+    def buildService(def i) {
+        def reg = new RegisteredServiceWithAttributesImpl()
+        reg.serviceId = "^http://www.serviceid" + i + ".edu"
+        reg.id = i
+        reg.name = "The name" + i
+        reg.evaluationOrder = i
+        return reg
+    }
+}
@@ -28,6 +28,18 @@ class MongoServiceRegistryDaoTests extends Specification {
             reg.load().size() == 2
     }
     
+    @Ignore
+    def "Test saving and deleting batches of services in mongodb database"() {
+        when:
+            final MongoServiceRegistryDao reg = context.getBean("serviceRegistryDao")
+            reg.saveAll((1..5).collect { buildService(it) })
+            reg.saveAll((4..6).collect { buildService(it) })
+        then:
+            reg.load().size() == 6
+            reg.deleteAll((5..9).collect { buildService(it) }) == 2
+            reg.load().size() == 4
+    }
+
     def buildService(def i) {
         def reg = new RegisteredServiceWithAttributesImpl()
         reg.serviceId = "^http://www.serviceid" + i + ".edu"
@@ -0,0 +1,71 @@
+package net.unicon.cas.addons.support
+
+import net.unicon.cas.addons.ticket.internal.HostNameBasedUniqueTicketIdGenerator
+import org.junit.runner.RunWith
+import org.spockframework.runtime.Sputnik
+import spock.lang.Specification
+
+/**
+ * @author Unicon , inc.
+ */
+@RunWith(Sputnik)
+class EntropyPoolTests extends Specification {
+
+    def pool = new EntropyPool(2, 64)
+
+    def cleanup() {
+        pool.destroy()
+    }
+
+    def "Slices are never served twice, across refills of the buffers"() {
+        given:
+        def slices = (1..500).collect { new byte[16] }
+
+        when:
+        slices.each { pool.nextBytes(it) }
+
+        then:
+        slices.collect { it.encodeHex().toString() }.toSet().size() == 500
+    }
+
+    def "Slices larger than the buffers are served whole"() {
+        given:
+        def bytes = new byte[1000]
+
+        when:
+        pool.nextBytes(bytes, 100, 900)
+
+        then:
+        bytes[0..99].every { it == 0 }
+        bytes[100..999].count { it == 0 } < 50
+    }
+
+    def "Slices are still served once the pool is destroyed, by concurrent threads"() {
+        given:
+        pool.destroy()
+        def slicesByThread = (1..4).collect { [] }
+
+        when:
+        slicesByThread.collect { slices ->
+            Thread.start {
+                1000.times {
+                    def bytes = new byte[16]
+                    pool.nextBytes(bytes)
+                    slices << bytes.encodeHex().toString()
+                }
+            }
+        }*.join()
+
+        then:
+        slicesByThread.flatten().toSet().size() == 4000
+    }
+
+    def "Ticket ids take their random part from the pool"() {
+        given:
+        def generator = new HostNameBasedUniqueTicketIdGenerator(35, "cas01")
+        generator.entropyPool = pool
+
+        expect:
+        (1..200).collect { generator.getNewTicketId("TGT").split("-")[2] }.toSet().size() == 200
+    }
+}
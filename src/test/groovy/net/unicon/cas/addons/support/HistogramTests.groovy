@@ -0,0 +1,53 @@
+package net.unicon.cas.addons.support
+
+import org.junit.runner.RunWith
+import org.spockframework.runtime.Sputnik
+import spock.lang.Specification
+
+/**
+ * @author Unicon , inc.
+ */
+@RunWith(Sputnik)
+class HistogramTests extends Specification {
+
+    def "Every value falls in a bucket whose highest value is within 12.5% of it"() {
+        expect:
+        [0L, 1L, 15L, 16L, 17L, 100L, 1000L, 123456L, 1L << 40, Long.MAX_VALUE].each {
+            def bucket = Histogram.bucketOf(it)
+            assert Histogram.highestValueOf(bucket) >= it
+            assert bucket == 0 || Histogram.highestValueOf(bucket - 1) < it
+            assert Histogram.highestValueOf(bucket) - it <= it / 8
+        }
+    }
+
+    def "Percentiles are reported within the precision of the buckets"() {
+        given:
+        def histogram = new Histogram()
+
+        when:
+        (1..1000).each { histogram.record(it) }
+
+        then:
+        histogram.count == 1000
+        histogram.mean == 500.5d
+        histogram.max == 1000
+        Math.abs(histogram.getValueAtPercentile(50) - 500) <= 500 / 8
+        Math.abs(histogram.getValueAtPercentile(99) - 990) <= 990 / 8
+        histogram.getValueAtPercentile(100) == 1000
+        histogram.toMap().keySet() as List == ["count", "mean", "p50", "p90", "p99", "p999", "max"]
+    }
+
+    def "Reset histograms are empty"() {
+        given:
+        def histogram = new Histogram()
+        histogram.record(42)
+
+        when:
+        histogram.reset()
+
+        then:
+        histogram.count == 0
+        histogram.max == 0
+        histogram.getValueAtPercentile(50) == 0
+    }
+}
@@ -0,0 +1,79 @@
+package net.unicon.cas.addons.ticket
+
+import net.unicon.cas.addons.ticket.internal.DefaultTicketSupport
+import org.jasig.cas.authentication.principal.SimplePrincipal
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl
+import org.jasig.cas.ticket.TicketGrantingTicketImpl
+import org.jasig.cas.ticket.registry.DefaultTicketRegistry
+import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy
+import org.junit.runner.RunWith
+import org.spockframework.runtime.Sputnik
+import spock.lang.Specification
+
+/**
+ * @author Unicon , inc.
+ */
+@RunWith(Sputnik)
+class SingleSignOnSessionsSummaryTests extends Specification {
+
+    def now = System.currentTimeMillis()
+
+    def "Sessions are counted by principal, authentication age and number of uses"() {
+        given:
+        def summary = new SingleSignOnSessionsSummary(now)
+
+        when:
+        summary.add(newTgt("TGT-1", "alice", now - 60000L, 0))
+        summary.add(newTgt("TGT-2", "alice", now - 2 * 3600000L, 3))
+        summary.add(newTgt("TGT-3", "bob", now - 48 * 3600000L, 100))
+        summary.add(newTgt("TGT-4", "bob", now, 1).grantServiceTicket("ST-1", new SimpleWebApplicationServiceImpl("https://app.example.com"),
+                new NeverExpiresExpirationPolicy(), false))
+
+        then:
+        summary.activeSessions == 3
+        summary.totalNumberOfUses == 103
+        summary.sessionsPerPrincipal == [alice: 2, bob: 1]
+        summary.authenticationAgeHistogram == ["<5m": 1L, "<15m": 0L, "<1h": 0L, "<4h": 1L, "<8h": 0L, "<24h": 0L, ">=24h": 1L]
+        summary.numberOfUsesHistogram == ["0-1": 1L, "2-5": 1L, "6-10": 0L, "11-50": 0L, ">50": 1L]
+    }
+
+    def "Merged summaries add up"() {
+        given:
+        def first = new SingleSignOnSessionsSummary(now)
+        first.add(newTgt("TGT-1", "alice", now, 0))
+        def second = first.emptyCopy()
+        second.add(newTgt("TGT-2", "alice", now, 7))
+
+        when:
+        first.merge(second)
+
+        then:
+        second.referenceTime == now
+        first.activeSessions == 2
+        first.sessionsPerPrincipal == [alice: 2]
+        first.numberOfUsesHistogram["6-10"] == 1L
+    }
+
+    def "Registries which cannot aggregate are scanned once, leaving out expired sessions"() {
+        given:
+        def registry = new DefaultTicketRegistry()
+        registry.addTicket(newTgt("TGT-1", "alice", now, 0))
+        def expired = newTgt("TGT-2", "bob", now, 0)
+        expired.markTicketExpired()
+        registry.addTicket(expired)
+
+        when:
+        def summary = new DefaultTicketSupport(registry).singleSignOnSessionsSummary
+
+        then:
+        summary.activeSessions == 1
+        summary.sessionsPerPrincipal == [alice: 1]
+    }
+
+    def newTgt(String id, String principalId, long authenticatedAt, int uses) {
+        def authentication = TestTickets.newAuthentication(new SimplePrincipal(principalId), new Date(authenticatedAt))
+        def tgt = new TicketGrantingTicketImpl(id, authentication, new NeverExpiresExpirationPolicy())
+        uses.times { tgt.updateState() }
+        return tgt
+    }
+}
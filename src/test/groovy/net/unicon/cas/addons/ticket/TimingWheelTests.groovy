@@ -0,0 +1,71 @@
+package net.unicon.cas.addons.ticket
+
+import org.junit.runner.RunWith
+import org.spockframework.runtime.Sputnik
+import spock.lang.Specification
+
+/**
+ * @author Unicon , inc.
+ */
+@RunWith(Sputnik)
+class TimingWheelTests extends Specification {
+
+    def "Keys are reported expired within a tick of their expiration time, whichever level they were placed on"() {
+        given: "a wheel of 10 ms ticks spanning 64 ticks only, so that keys move down levels and some are beyond its span"
+        def wheel = new TimingWheel<Integer>(10, 4, 3, 0)
+        def expirationTimes = (0..<2000).collectEntries { [it, (it * 7919) % 20000] }
+        expirationTimes.each { key, time -> wheel.schedule(key, time) }
+
+        when:
+        def reportedAt = [:]
+        for (long now = 0; now <= 20000; now += 10) {
+            wheel.advance(now).each { reportedAt[it] = now }
+        }
+
+        then:
+        reportedAt.keySet() == expirationTimes.keySet()
+        expirationTimes.findAll { key, time -> reportedAt[key] < time || reportedAt[key] > time + 10 }.isEmpty()
+        wheel.size() == 0
+    }
+
+    def "Rescheduled keys expire at their latest expiration time and cancelled keys never do"() {
+        given:
+        def wheel = new TimingWheel<String>(0)
+        wheel.schedule("TGT-1", 10000)
+        wheel.schedule("TGT-2", 10000)
+        wheel.schedule("TGT-3", 10000)
+
+        when:
+        wheel.schedule("TGT-1", 7200000)
+        wheel.cancel("TGT-2")
+
+        then:
+        wheel.getExpirationTime("TGT-1") == 7200000
+        wheel.getExpirationTime("TGT-2") == -1
+        wheel.advance(10000) == ["TGT-3"]
+        wheel.advance(7199000) == []
+        wheel.advance(7200000) == ["TGT-1"]
+        wheel.size() == 0
+    }
+
+    def "Keys scheduled in the past are reported at the next tick"() {
+        given:
+        def wheel = new TimingWheel<String>(5000)
+        wheel.advance(10000)
+
+        when:
+        wheel.schedule("ST-1", 3000)
+
+        then:
+        wheel.advance(10500) == []
+        wheel.advance(11000) == ["ST-1"]
+    }
+
+    def "Wheels are made of levels of a power of 2 slots"() {
+        when:
+        new TimingWheel<String>(1000, 60, 4, 0)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
@@ -0,0 +1,111 @@
+package net.unicon.cas.addons.ticket.internal
+
+import net.unicon.cas.addons.ticket.BulkRetrievalOfTicketsNotSupportedException
+import net.unicon.cas.addons.ticket.TicketVisitor
+import net.unicon.cas.addons.ticket.registry.OffHeapTicketRegistry
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl
+import org.jasig.cas.ticket.TicketGrantingTicket
+import org.jasig.cas.ticket.registry.DefaultTicketRegistry
+import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy
+import org.junit.runner.RunWith
+import org.spockframework.runtime.Sputnik
+import spock.lang.Specification
+
+import static net.unicon.cas.addons.ticket.TestTickets.newTgt
+
+/**
+ * @author Unicon , inc.
+ */
+@RunWith(Sputnik)
+class DefaultTicketSupportTests extends Specification {
+
+    def "Non-expired TGTs of a principal are visited, leaving out the other tickets"() {
+        given:
+        def registry = new DefaultTicketRegistry()
+        registry.addTicket(newTgt("TGT-1", "alice"))
+        registry.addTicket(newTgt("TGT-2", "bob"))
+        def expired = newTgt("TGT-3", "alice")
+        expired.markTicketExpired()
+        registry.addTicket(expired)
+        registry.addTicket(newTgt("TGT-4", "alice").grantServiceTicket("ST-1", new SimpleWebApplicationServiceImpl("https://app.example.com"),
+                new NeverExpiresExpirationPolicy(), false))
+        def ticketSupport = new DefaultTicketSupport(registry)
+        def visited = []
+
+        when:
+        def count = ticketSupport.visitNonExpiredTicketGrantingTickets("alice", 0, visitor(visited, true))
+
+        then:
+        count == 1
+        visited*.id == ["TGT-1"]
+        ticketSupport.nonExpiredTicketGrantingTickets*.id.toSet() == ["TGT-1", "TGT-2"] as Set
+    }
+
+    def "Visits stop at the limit, or when the visitor says so"() {
+        given:
+        def registry = new DefaultTicketRegistry()
+        (1..10).each { registry.addTicket(newTgt("TGT-$it", "alice")) }
+        def ticketSupport = new DefaultTicketSupport(registry)
+        def limited = []
+        def stopped = []
+
+        expect:
+        ticketSupport.visitNonExpiredTicketGrantingTickets(null, 3, visitor(limited, true)) == 3
+        limited.size() == 3
+        ticketSupport.visitNonExpiredTicketGrantingTickets(null, 0, visitor(stopped, false)) == 1
+        stopped.size() == 1
+    }
+
+    def "Exceptions thrown by the visitor reach the caller as is"() {
+        given:
+        def registry = new DefaultTicketRegistry()
+        registry.addTicket(newTgt("TGT-1", "alice"))
+        def ticketSupport = new DefaultTicketSupport(registry)
+        def visits = 0
+
+        when:
+        ticketSupport.visitNonExpiredTicketGrantingTickets(null, 0, new TicketVisitor<TicketGrantingTicket>() {
+            @Override
+            boolean visit(TicketGrantingTicket ticket) {
+                visits++
+                throw new UnsupportedOperationException("Visitor failure")
+            }
+        })
+
+        then:
+        def e = thrown(UnsupportedOperationException)
+        !(e instanceof BulkRetrievalOfTicketsNotSupportedException)
+        e.message == "Visitor failure"
+        visits == 1
+    }
+
+    def "The principal is filtered by queryable registries themselves"() {
+        given:
+        def registry = new OffHeapTicketRegistry(60, 10)
+        registry.slabSizeInMegabytes = 1
+        registry.afterPropertiesSet()
+        (1..50).each { registry.addTicket(newTgt("TGT-$it", it % 5 == 0 ? "alice" : "bob")) }
+        def ticketSupport = new DefaultTicketSupport(registry)
+        def visited = []
+
+        when:
+        def count = ticketSupport.visitNonExpiredTicketGrantingTickets("alice", 4, visitor(visited, true))
+
+        then:
+        count == 4
+        visited.every { it instanceof TicketGrantingTicket && it.authentication.principal.id == "alice" }
+
+        cleanup:
+        registry.destroy()
+    }
+
+    def visitor(List visited, boolean goOn) {
+        return new TicketVisitor<TicketGrantingTicket>() {
+            @Override
+            boolean visit(TicketGrantingTicket ticket) {
+                visited << ticket
+                return goOn
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package net.unicon.cas.addons.ticket.internal
+
+import org.junit.runner.RunWith
+import org.spockframework.runtime.Sputnik
+import spock.lang.Specification
+
+/**
+ * @author Unicon , inc.
+ */
+@RunWith(Sputnik)
+class HostNameBasedUniqueTicketIdGeneratorTests extends Specification {
+
+    def "Ids generated in high-throughput mode have the same format as the default ones"() {
+        given:
+        def generator = new HostNameBasedUniqueTicketIdGenerator(35, "cas01")
+        def highThroughputGenerator = new HostNameBasedUniqueTicketIdGenerator(35, "cas01")
+        highThroughputGenerator.highThroughput = true
+        def format = ~/TGT-[0-9]+-[a-zA-Z0-9]{35}-cas01/
+
+        expect:
+        generator.getNewTicketId("TGT") ==~ format
+        highThroughputGenerator.getNewTicketId("TGT").startsWith("TGT-1-")
+        highThroughputGenerator.getNewTicketId("TGT").startsWith("TGT-2-")
+        (1..2000).every { highThroughputGenerator.getNewTicketId("TGT") ==~ format }
+    }
+
+    def "Ids generated in high-throughput mode by concurrent threads are unique"() {
+        given:
+        def generator = new HostNameBasedUniqueTicketIdGenerator(10, "cas01")
+        generator.highThroughput = true
+        def numbersByThread = (1..8).collect { [] }
+
+        when:
+        def threads = numbersByThread.collect { numbers ->
+            Thread.start {
+                5000.times {
+                    numbers << generator.getNewTicketId("ST").split("-")[1]
+                }
+            }
+        }
+        threads*.join()
+
+        then:
+        numbersByThread.flatten().toSet().size() == 8 * 5000
+    }
+}
@@ -0,0 +1,183 @@
+package net.unicon.cas.addons.ticket.registry
+
+import net.unicon.cas.addons.ticket.TicketFilter
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl
+import org.jasig.cas.ticket.TicketGrantingTicket
+import org.jasig.cas.ticket.support.TimeoutExpirationPolicy
+import org.junit.runner.RunWith
+import org.spockframework.runtime.Sputnik
+import spock.lang.Specification
+
+import static net.unicon.cas.addons.ticket.TestTickets.newTgt
+
+/**
+ * @author Unicon , inc.
+ */
+@RunWith(Sputnik)
+class MappedTicketRegistryTests extends Specification {
+
+    def directory
+
+    def setup() {
+        directory = File.createTempFile("tickets", "")
+        directory.delete()
+    }
+
+    def cleanup() {
+        directory.deleteDir()
+    }
+
+    def "Tickets are recovered in their latest state after a restart"() {
+        given:
+        def registry = newRegistry()
+        def tgt = newTgt("TGT-1", "alice", 10)
+        registry.addTicket(tgt)
+        registry.addTicket(newTgt("TGT-2", "bob", 10))
+        def st = (registry.getTicket("TGT-1") as TicketGrantingTicket).grantServiceTicket("ST-1",
+                new SimpleWebApplicationServiceImpl("https://app.example.com"), new TimeoutExpirationPolicy(10000), false)
+        registry.addTicket(st)
+        registry.deleteTicket("TGT-2")
+
+        when:
+        registry.destroy()
+        registry = newRegistry()
+
+        then:
+        registry.size() == 2
+        registry.getTicket("TGT-1").countOfUses == 1
+        registry.getTicket("TGT-1").authentication.principal.id == "alice"
+        registry.getTicket("ST-1").service.id == "https://app.example.com"
+        registry.getTicket("TGT-2") == null
+
+        cleanup:
+        registry.destroy()
+    }
+
+    def "Files of the log are compacted, without bringing back the tickets deleted"() {
+        given:
+        def registry = newRegistry()
+        def tgts = (0..10).collect { newTgt("TGT-$it", "alice", 10) }
+        tgts.each { registry.addTicket(it) }
+
+        when: "tickets are updated, and others added then deleted, well beyond the size of 4 files"
+        3000.times {
+            registry.updateTicket(tgts[1 + it % 10])
+            registry.addTicket(newTgt("TGT-deleted-$it", "bob", 10))
+            registry.deleteTicket("TGT-deleted-$it")
+        }
+        registry.destroy()
+        registry = newRegistry()
+
+        then:
+        directory.listFiles().length <= 4
+        registry.size() == 11
+        tgts.every { registry.getTicket(it.id) != null }
+        registry.getTicket("TGT-deleted-0") == null
+
+        cleanup:
+        registry.destroy()
+    }
+
+    def "Tickets moved by compactions during an iteration are returned once each"() {
+        given:
+        def registry = newRegistry()
+        def tgts = (0..10).collect { newTgt("TGT-$it", "alice", 10) }
+        tgts.each { registry.addTicket(it) }
+        def iterator = registry.getTickets(TicketFilter.ticketGrantingTickets(), 2).iterator()
+        def ids = [iterator.next().id]
+        def compactions = registry.store().compactions()
+
+        when:
+        3000.times { registry.updateTicket(tgts[1 + it % 10]) }
+        while (iterator.hasNext()) {
+            ids << iterator.next().id
+        }
+
+        then:
+        registry.store().compactions() > compactions
+        ids.sort() == tgts*.id.sort()
+
+        cleanup:
+        registry.destroy()
+    }
+
+    def "Expired tickets are not recovered"() {
+        given:
+        def log = new MappedTicketLog(directory, 1 << 20, 4, 0)
+        log.put("ST-1".getBytes("UTF-8"), [1, 2, 3] as byte[], 1000)
+        log.put("TGT-1".getBytes("UTF-8"), [4, 5, 6] as byte[], 5000)
+        log.close()
+
+        when:
+        log = new MappedTicketLog(directory, 1 << 20, 4, 2000)
+
+        then:
+        log.size() == 1
+        log.get("ST-1".getBytes("UTF-8"), 2000) == null
+        log.get("TGT-1".getBytes("UTF-8"), 2000) == [4, 5, 6] as byte[]
+
+        cleanup:
+        log.close()
+    }
+
+    def "Expired tickets dropped by a compaction are no longer indexed"() {
+        given:
+        def log = new MappedTicketLog(directory, 4096, 4, 0)
+        log.put("TGT-expired".getBytes("UTF-8"), [1, 2, 3] as byte[], 1)
+
+        when:
+        200.times { log.put("TGT-live".getBytes("UTF-8"), new byte[100], Long.MAX_VALUE) }
+        def now = System.currentTimeMillis()
+
+        then:
+        log.compactions() > 0
+        log.size() == 1
+        log.locations().collect { new String(log.idAt(it), "UTF-8") } == ["TGT-live"]
+        !log.removeIfExpired("TGT-expired".getBytes("UTF-8"), now)
+        log.get("TGT-live".getBytes("UTF-8"), now).length == 100
+
+        cleanup:
+        log.close()
+    }
+
+    def "A record torn by a crash is dropped, along with nothing else"() {
+        given:
+        def log = new MappedTicketLog(directory, 1 << 20, 4, 0)
+        log.put("TGT-1".getBytes("UTF-8"), [1, 2, 3] as byte[], Long.MAX_VALUE)
+        log.put("TGT-2".getBytes("UTF-8"), [4, 5, 6] as byte[], Long.MAX_VALUE)
+        log.close()
+
+        when: "the last byte of the second record is corrupted"
+        def file = new RandomAccessFile(directory.listFiles()[0], "rw")
+        def secondRecord = 8 + file.with { seek(8); readInt() }
+        def lastByte = secondRecord + file.with { seek(secondRecord); readInt() } - 1
+        file.seek(lastByte)
+        file.write(9)
+        file.close()
+        log = new MappedTicketLog(directory, 1 << 20, 4, 0)
+
+        then:
+        log.size() == 1
+        log.get("TGT-1".getBytes("UTF-8"), 0) == [1, 2, 3] as byte[]
+
+        when: "the log goes on"
+        log.put("TGT-3".getBytes("UTF-8"), [7, 8, 9] as byte[], Long.MAX_VALUE)
+        log.close()
+        log = new MappedTicketLog(directory, 1 << 20, 4, 0)
+
+        then:
+        log.size() == 2
+        log.get("TGT-3".getBytes("UTF-8"), 0) == [7, 8, 9] as byte[]
+
+        cleanup:
+        log.close()
+    }
+
+    def newRegistry() {
+        def registry = new MappedTicketRegistry(directory, 60, 10)
+        registry.segmentSizeInMegabytes = 1
+        registry.maxSegments = 4
+        registry.afterPropertiesSet()
+        return registry
+    }
+}
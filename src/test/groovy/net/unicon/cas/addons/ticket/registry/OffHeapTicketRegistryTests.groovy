@@ -0,0 +1,145 @@
+package net.unicon.cas.addons.ticket.registry
+
+import net.unicon.cas.addons.ticket.TicketFilter
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl
+import org.jasig.cas.ticket.TicketGrantingTicket
+import org.jasig.cas.ticket.support.TimeoutExpirationPolicy
+import org.junit.runner.RunWith
+import org.spockframework.runtime.Sputnik
+import spock.lang.Specification
+
+import static net.unicon.cas.addons.ticket.TestTickets.newTgt
+
+/**
+ * @author Unicon , inc.
+ */
+@RunWith(Sputnik)
+class OffHeapTicketRegistryTests extends Specification {
+
+    def registry = new OffHeapTicketRegistry(60, 10)
+
+    def setup() {
+        registry.slabSizeInMegabytes = 1
+        registry.maxSlabs = 2
+        registry.afterPropertiesSet()
+    }
+
+    def cleanup() {
+        registry.destroy()
+    }
+
+    def "Tickets added are read back, updated and deleted"() {
+        given:
+        def tgt = newTgt("TGT-1", "alice", 10)
+        registry.addTicket(tgt)
+
+        when:
+        def readTgt = registry.getTicket("TGT-1") as TicketGrantingTicket
+        def st = readTgt.grantServiceTicket("ST-1", new SimpleWebApplicationServiceImpl("https://app.example.com"),
+                new TimeoutExpirationPolicy(10000), false)
+        registry.addTicket(st)
+
+        then:
+        readTgt.authentication.principal.id == "alice"
+        registry.getTicket("TGT-1").countOfUses == 1
+        registry.getTicket("ST-1").grantingTicket.id == "TGT-1"
+        registry.getTicket("TGT-2") == null
+        registry.tickets*.id as Set == ["TGT-1", "ST-1"] as Set
+
+        when:
+        def deleted = registry.deleteTicket("TGT-1")
+
+        then:
+        deleted
+        !registry.deleteTicket("TGT-1")
+        registry.getTicket("TGT-1") == null
+        registry.size() == 1
+    }
+
+    def "Tickets are removed once the timeout of their type has elapsed since they were last written"() {
+        given:
+        def now = System.currentTimeMillis()
+        def tgt = newTgt("TGT-1", "alice", 10)
+        registry.addTicket(tgt)
+        registry.addTicket(tgt.grantServiceTicket("ST-1", new SimpleWebApplicationServiceImpl("https://app.example.com"),
+                new TimeoutExpirationPolicy(10000), false))
+
+        expect:
+        registry.removeExpiredTickets(now + 5000) == 0
+        registry.removeExpiredTickets(now + 12000) == 1
+        registry.getTicket("ST-1") == null
+        registry.size() == 1
+        registry.removeExpiredTickets(now + 62000) == 1
+        registry.size() == 0
+    }
+
+    def "Space of the tickets replaced is reclaimed once the slabs are full"() {
+        given:
+        def tgts = (0..10).collect { newTgt("TGT-$it", "alice", 10) }
+        tgts.each { registry.addTicket(it) }
+
+        when: "all but the first ticket are updated, so that no slab ever gets empty"
+        5000.times { registry.updateTicket(tgts[1 + it % 10]) }
+
+        then:
+        registry.store().compactions() > 0
+        registry.size() == 11
+        tgts.every { registry.getTicket(it.id) != null }
+    }
+
+    def "Tickets are rejected once the slabs are full of live tickets"() {
+        when:
+        (1..5000).each { registry.addTicket(newTgt("TGT-$it", "alice", 10)) }
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def "A ticket keeps its previous value when there is no space left for its update"() {
+        given:
+        registry.addTicket(newTgt("TGT-0", "alice", 10))
+        try {
+            (1..5000).each { registry.addTicket(newTgt("TGT-$it", "alice", 10)) }
+        }
+        catch (IllegalStateException ignored) {
+        }
+        def size = registry.size()
+
+        when:
+        registry.updateTicket(newTgt("TGT-0", "alice", 100))
+
+        then:
+        thrown(IllegalStateException)
+        registry.size() == size
+        (registry.getTicket("TGT-0") as TicketGrantingTicket).authentication.principal.attributes.size() == 10
+    }
+
+    def "Tickets matching a filter are retrieved in pages"() {
+        given:
+        (1..25).each { registry.addTicket(newTgt("TGT-$it", it % 2 ? "alice" : "bob", 10)) }
+
+        expect:
+        registry.getTickets(TicketFilter.ticketGrantingTickets().withPrincipal("alice"), 4)*.id as Set ==
+                (1..25).findAll { it % 2 }.collect { "TGT-$it".toString() } as Set
+        registry.getTickets(TicketFilter.serviceTickets(), 4).iterator().hasNext() == false
+    }
+
+    def "Tickets moved by compactions during an iteration are returned once each"() {
+        given:
+        def tgts = (0..10).collect { newTgt("TGT-$it", "alice", 10) }
+        tgts.each { registry.addTicket(it) }
+        def iterator = registry.getTickets(TicketFilter.ticketGrantingTickets(), 2).iterator()
+        def ids = [iterator.next().id]
+        def compactions = registry.store().compactions()
+
+        when:
+        5000.times { registry.updateTicket(tgts[1 + it % 10]) }
+        while (iterator.hasNext()) {
+            ids << iterator.next().id
+        }
+
+        then:
+        registry.store().compactions() > compactions
+        ids.sort() == tgts*.id.sort()
+    }
+}
@@ -0,0 +1,64 @@
+package net.unicon.cas.addons.ticket.registry
+
+import org.junit.runner.RunWith
+import org.spockframework.runtime.Sputnik
+import spock.lang.Specification
+
+import java.util.concurrent.Future
+import java.util.concurrent.TimeoutException
+
+import static net.unicon.cas.addons.ticket.TestTickets.newTgt
+
+/**
+ * @author Unicon , inc.
+ */
+@RunWith(Sputnik)
+class PendingTicketWritesTests extends Specification {
+
+    def future = Mock(Future)
+
+    def writer = Mock(PendingTicketWrites.TicketWriter)
+
+    def writes
+
+    def setup() {
+        writer.writeAsync(_) >> future
+        writes = new PendingTicketWrites(writer, 10)
+    }
+
+    def cleanup() {
+        writes.stop()
+    }
+
+    def "A timed out write which cannot be cancelled is waited for rather than written again"() {
+        given:
+        def ticket = newTgt("TGT-1", "alice")
+
+        when:
+        writes.write(ticket)
+        writes.await("TGT-1")
+
+        then:
+        1 * future.get(10, _) >> { throw new TimeoutException() }
+        1 * future.cancel(false) >> false
+        1 * future.get() >> null
+        0 * writer.write(_)
+        writes.get("TGT-1") == null
+    }
+
+    def "A timed out write which is cancelled is written again synchronously"() {
+        given:
+        def ticket = newTgt("TGT-1", "alice")
+
+        when:
+        writes.write(ticket)
+        writes.await("TGT-1")
+
+        then:
+        1 * future.get(10, _) >> { throw new TimeoutException() }
+        1 * future.cancel(false) >> true
+        0 * future.get()
+        1 * writer.write(ticket)
+        writes.get("TGT-1") == null
+    }
+}
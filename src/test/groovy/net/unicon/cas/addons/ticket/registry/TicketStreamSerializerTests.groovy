@@ -0,0 +1,97 @@
+package net.unicon.cas.addons.ticket.registry
+
+import com.hazelcast.config.SerializationConfig
+import com.hazelcast.config.SerializerConfig
+import com.hazelcast.nio.serialization.SerializationServiceBuilder
+import net.unicon.cas.addons.ticket.TestTickets
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl
+import org.jasig.cas.ticket.ServiceTicket
+import org.jasig.cas.ticket.TicketGrantingTicket
+import org.jasig.cas.ticket.support.TimeoutExpirationPolicy
+import org.junit.runner.RunWith
+import org.spockframework.runtime.Sputnik
+import spock.lang.Specification
+
+/**
+ * @author Unicon , inc.
+ */
+@RunWith(Sputnik)
+class TicketStreamSerializerTests extends Specification {
+
+    def "Tickets read back are equivalent to the ones written"() {
+        given:
+        def serialization = serializationService(new TicketStreamSerializer(compressed, 512))
+        def tgt = newTgt(20)
+        def st = tgt.grantServiceTicket("ST-1", new SimpleWebApplicationServiceImpl("https://app.example.com"),
+                new TimeoutExpirationPolicy(10000), false)
+
+        when:
+        def readTgt = serialization.toObject(serialization.toData(tgt)) as TicketGrantingTicket
+        def readSt = serialization.toObject(serialization.toData(st)) as ServiceTicket
+
+        then:
+        readTgt.id == tgt.id
+        readTgt.creationTime == tgt.creationTime
+        readTgt.countOfUses == 1
+        readTgt.authentication.principal.id == "alice"
+        readTgt.authentication.principal.attributes == tgt.authentication.principal.attributes
+        readTgt.services.keySet() == ["ST-1"] as Set
+        readSt.id == "ST-1"
+        readSt.service.id == "https://app.example.com"
+        readSt.grantingTicket.id == tgt.id
+        !readSt.expired
+
+        where:
+        compressed << [false, true]
+    }
+
+    def "Tickets take much less space than with default serialization"() {
+        given:
+        def tgt = newTgt(50)
+        def defaultSize = serializationService(null).toData(tgt).bufferSize()
+
+        expect:
+        serializationService(new TicketStreamSerializer()).toData(tgt).bufferSize() < defaultSize * 0.7
+        serializationService(new TicketStreamSerializer(true, 512)).toData(tgt).bufferSize() < defaultSize * 0.4
+    }
+
+    def "Short strings of the tickets read are shared"() {
+        given:
+        def serialization = serializationService(new TicketStreamSerializer())
+        def data = serialization.toData(newTgt(1))
+
+        when:
+        def first = serialization.toObject(data) as TicketGrantingTicket
+        def second = serialization.toObject(data) as TicketGrantingTicket
+
+        then:
+        first.authentication.principal.attributes.keySet()[0].is(second.authentication.principal.attributes.keySet()[0])
+    }
+
+    def "Strings of recent tickets are still shared once the pool is full"() {
+        given:
+        def serialization = serializationService(new TicketStreamSerializer())
+        serialization.toObject(serialization.toData(newTgt(20000, "filler")))
+        def data = serialization.toData(newTgt(1))
+
+        when:
+        def first = serialization.toObject(data) as TicketGrantingTicket
+        def second = serialization.toObject(data) as TicketGrantingTicket
+
+        then:
+        first.authentication.principal.attributes.keySet()[0].is(second.authentication.principal.attributes.keySet()[0])
+    }
+
+    def serializationService(def serializer) {
+        def config = new SerializationConfig()
+        if (serializer) {
+            config.addSerializerConfig(new SerializerConfig(typeClass: org.jasig.cas.ticket.Ticket, implementation: serializer))
+        }
+        return new SerializationServiceBuilder().setConfig(config).build()
+    }
+
+    def newTgt(int attributes, String attributePrefix = "attribute") {
+        return TestTickets.newTgt("TGT-1-" + "x" * 35 + "-cas01", TestTickets.newPrincipal("alice", attributePrefix, attributes),
+                new TimeoutExpirationPolicy(60000))
+    }
+}
@@ -0,0 +1,38 @@
+package net.unicon.cas.addons.config;
+
+import net.unicon.cas.addons.support.EntropyPool;
+import net.unicon.cas.addons.support.EntropyPoolAwareBeanPostProcessor;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Unicon, inc.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration
+public class CasNamespaceEntropyPoolParserTests {
+
+    @Autowired
+    ConfigurableApplicationContext applicationContext;
+
+    private static final String ENTROPY_POOL_BEAN_NAME = "entropyPool";
+
+    @Test
+    public void entropyPoolBeanDefinitionsCorrectlyParsed() {
+        assertTrue(applicationContext.containsBean(ENTROPY_POOL_BEAN_NAME));
+        assertTrue(applicationContext.getBeansOfType(EntropyPool.class).size() == 1);
+        assertTrue(applicationContext.getBeansOfType(EntropyPoolAwareBeanPostProcessor.class).size() == 1);
+
+        final BeanDefinition definition = applicationContext.getBeanFactory().getBeanDefinition(ENTROPY_POOL_BEAN_NAME);
+        assertEquals("4", definition.getConstructorArgumentValues().getIndexedArgumentValue(0, null).getValue());
+        assertEquals("1024", definition.getConstructorArgumentValues().getIndexedArgumentValue(1, null).getValue());
+    }
+}
@@ -0,0 +1,76 @@
+package net.unicon.cas.addons.config;
+
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.core.HazelcastInstance;
+import net.unicon.cas.addons.ticket.registry.HazelcastTicketRegistry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Unicon, inc.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration
+public class CasNamespaceHazelcastTicketRegistryParserTests {
+
+    @Autowired
+    ConfigurableApplicationContext applicationContext;
+
+    @Autowired
+    HazelcastInstance hazelcast;
+
+    private static final String TICKET_REGISTRY_BEAN_NAME = "ticketRegistry";
+
+    @Test
+    public void hazelcastTicketRegistryAttributesCorrectlyParsed() {
+        assertTrue(applicationContext.containsBean(TICKET_REGISTRY_BEAN_NAME));
+        assertTrue(applicationContext.getBeansOfType(HazelcastTicketRegistry.class).size() == 1);
+
+        final MutablePropertyValues properties = getTicketRegistryDefinition().getPropertyValues();
+        assertEquals("true", properties.getPropertyValue("ticketGrantingTicketNearCacheEnabled").getValue());
+        assertEquals("1000", properties.getPropertyValue("ticketGrantingTicketNearCacheMaxSize").getValue());
+        assertEquals("30", properties.getPropertyValue("ticketGrantingTicketNearCacheTimeToLiveInSeconds").getValue());
+        assertEquals("true", properties.getPropertyValue("asyncServiceTicketWritesEnabled").getValue());
+        assertEquals("100", properties.getPropertyValue("maxPendingServiceTicketWrites").getValue());
+        assertEquals("ticketRegistryMetrics", ((RuntimeBeanReference) properties.getPropertyValue("metrics").getValue()).getBeanName());
+    }
+
+    @Test
+    public void hazelcastTicketRegistryMapsCorrectlyParsed() {
+        final BeanDefinition definition = getTicketRegistryDefinition();
+        assertEquals(6, definition.getConstructorArgumentValues().getArgumentCount());
+        final MutablePropertyValues tgtMap = getMapConfigDefinition(definition, 3).getPropertyValues();
+        assertEquals("parser-tickets-tgt", tgtMap.getPropertyValue("name").getValue());
+        assertEquals("28800", tgtMap.getPropertyValue("maxIdleSeconds").getValue());
+        assertEquals("OBJECT", tgtMap.getPropertyValue("inMemoryFormat").getValue());
+        final MutablePropertyValues stMap = getMapConfigDefinition(definition, 4).getPropertyValues();
+        assertEquals("parser-tickets-st", stMap.getPropertyValue("name").getValue());
+        assertEquals("10", stMap.getPropertyValue("timeToLiveSeconds").getValue());
+        assertEquals("0", stMap.getPropertyValue("backupCount").getValue());
+        assertEquals("1", stMap.getPropertyValue("asyncBackupCount").getValue());
+        assertEquals("parser-tickets-proxy", getMapConfigDefinition(definition, 5).getPropertyValues().getPropertyValue("name").getValue());
+
+        //The maps are configured in the Hazelcast instance once the registry is created
+        final MapConfig stMapConfig = hazelcast.getConfig().getMapConfigs().get("parser-tickets-st");
+        assertEquals(10, stMapConfig.getTimeToLiveSeconds());
+        assertEquals(0, stMapConfig.getBackupCount());
+    }
+
+    private BeanDefinition getTicketRegistryDefinition() {
+        return applicationContext.getBeanFactory().getBeanDefinition(TICKET_REGISTRY_BEAN_NAME);
+    }
+
+    private static BeanDefinition getMapConfigDefinition(final BeanDefinition definition, final int index) {
+        return (BeanDefinition) definition.getConstructorArgumentValues().getIndexedArgumentValue(index, null).getValue();
+    }
+}
@@ -0,0 +1,38 @@
+package net.unicon.cas.addons.config;
+
+import net.unicon.cas.addons.serviceregistry.ReadWriteJsonServiceRegistryDao;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Unicon, inc.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration
+public class CasNamespaceJsonServiceRegistryDaoAttributesParserTests {
+
+    @Autowired
+    ConfigurableApplicationContext applicationContext;
+
+    private static final String SERVICE_REGISTRY_DAO_BEAN_NAME = "serviceRegistryDao";
+
+    @Test
+    public void regexAndJournalAttributesCorrectlyParsed() {
+        assertTrue(applicationContext.containsBean(SERVICE_REGISTRY_DAO_BEAN_NAME));
+        assertTrue(applicationContext.getBeansOfType(ReadWriteJsonServiceRegistryDao.class).size() == 1);
+
+        final BeanDefinition definition = applicationContext.getBeanFactory().getBeanDefinition(SERVICE_REGISTRY_DAO_BEAN_NAME);
+        assertEquals("true", definition.getPropertyValues().getPropertyValue("precompileRegexPatterns").getValue());
+        assertEquals("true", definition.getPropertyValues().getPropertyValue("combineRegexPatterns").getValue());
+        assertEquals("true", definition.getPropertyValues().getPropertyValue("journalEnabled").getValue());
+        assertEquals("50", definition.getPropertyValues().getPropertyValue("journalCompactionThreshold").getValue());
+    }
+}
@@ -0,0 +1,38 @@
+package net.unicon.cas.addons.config;
+
+import net.unicon.cas.addons.ticket.registry.OffHeapTicketRegistry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Unicon, inc.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration
+public class CasNamespaceOffHeapTicketRegistryParserTests {
+
+    @Autowired
+    ConfigurableApplicationContext applicationContext;
+
+    private static final String TICKET_REGISTRY_BEAN_NAME = "ticketRegistry";
+
+    @Test
+    public void offHeapTicketRegistryBeanDefinitionCorrectlyParsed() {
+        assertTrue(applicationContext.containsBean(TICKET_REGISTRY_BEAN_NAME));
+        assertTrue(applicationContext.getBeansOfType(OffHeapTicketRegistry.class).size() == 1);
+
+        final BeanDefinition definition = applicationContext.getBeanFactory().getBeanDefinition(TICKET_REGISTRY_BEAN_NAME);
+        assertEquals("28800", definition.getConstructorArgumentValues().getIndexedArgumentValue(0, null).getValue());
+        assertEquals("10", definition.getConstructorArgumentValues().getIndexedArgumentValue(1, null).getValue());
+        assertEquals("1", definition.getPropertyValues().getPropertyValue("slabSizeInMegabytes").getValue());
+        assertEquals("2", definition.getPropertyValues().getPropertyValue("maxSlabs").getValue());
+    }
+}
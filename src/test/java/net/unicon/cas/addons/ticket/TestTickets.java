@@ -0,0 +1,76 @@
+package net.unicon.cas.addons.ticket;
+
+import org.jasig.cas.authentication.AcceptUsersAuthenticationHandler;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.AuthenticationBuilder;
+import org.jasig.cas.authentication.BasicCredentialMetaData;
+import org.jasig.cas.authentication.HandlerResult;
+import org.jasig.cas.authentication.UsernamePasswordCredential;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.ticket.ExpirationPolicy;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.support.TimeoutExpirationPolicy;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ticket fixtures shared by the ticket and ticket registry tests.
+ *
+ * @author Unicon, inc.
+ * @since 4.0
+ */
+public final class TestTickets {
+
+    private static final long DEFAULT_TIME_TO_LIVE_MILLIS = 60000;
+
+    private TestTickets() {
+    }
+
+    /**
+     * @return a ticket granting ticket for a principal without attributes, expiring after a minute
+     */
+    public static TicketGrantingTicketImpl newTgt(final String id, final String principalId) {
+        return newTgt(id, new SimplePrincipal(principalId), new TimeoutExpirationPolicy(DEFAULT_TIME_TO_LIVE_MILLIS));
+    }
+
+    /**
+     * @return a ticket granting ticket for a principal with the given number of attributes, expiring after a minute
+     */
+    public static TicketGrantingTicketImpl newTgt(final String id, final String principalId, final int attributes) {
+        return newTgt(id, newPrincipal(principalId, "attribute", attributes), new TimeoutExpirationPolicy(DEFAULT_TIME_TO_LIVE_MILLIS));
+    }
+
+    public static TicketGrantingTicketImpl newTgt(final String id, final Principal principal, final ExpirationPolicy expirationPolicy) {
+        return new TicketGrantingTicketImpl(id, newAuthentication(principal), expirationPolicy);
+    }
+
+    /**
+     * @return a principal with the attributes <code>attributePrefix1</code> to <code>attributePrefixN</code>
+     */
+    public static Principal newPrincipal(final String principalId, final String attributePrefix, final int attributes) {
+        final Map<String, Object> attributeValues = new LinkedHashMap<String, Object>();
+        for (int i = 1; i <= attributes; i++) {
+            attributeValues.put(attributePrefix + i, "value of attribute " + i);
+        }
+        return new SimplePrincipal(principalId, attributeValues);
+    }
+
+    public static Authentication newAuthentication(final Principal principal) {
+        return newAuthentication(principal, new Date());
+    }
+
+    /**
+     * @return an authentication of the principal with a username and password, as the accept users handler would produce it
+     */
+    public static Authentication newAuthentication(final Principal principal, final Date authenticatedAt) {
+        final BasicCredentialMetaData credential = new BasicCredentialMetaData(new UsernamePasswordCredential(principal.getId(), "secret"));
+        return new AuthenticationBuilder(principal)
+                .addCredential(credential)
+                .addSuccess("handler", new HandlerResult(new AcceptUsersAuthenticationHandler(), credential))
+                .setAuthenticationDate(authenticatedAt)
+                .build();
+    }
+}
@@ -1,20 +1,32 @@
 package net.unicon.cas.addons.ticket.registry;
 
-import org.jasig.cas.authentication.ImmutableAuthentication;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.core.HazelcastInstance;
+import net.unicon.cas.addons.ticket.SingleSignOnSessionsSummary;
+import net.unicon.cas.addons.ticket.TestTickets;
+import net.unicon.cas.addons.ticket.TicketFilter;
+import net.unicon.cas.addons.ticket.TicketVisitor;
+import net.unicon.cas.addons.ticket.internal.DefaultTicketSupport;
 import org.jasig.cas.authentication.principal.Service;
 import org.jasig.cas.authentication.principal.SimplePrincipal;
 import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
 import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
 import org.jasig.cas.ticket.TicketGrantingTicket;
 import org.jasig.cas.ticket.TicketGrantingTicketImpl;
 import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import static org.junit.Assert.*;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -27,6 +39,19 @@ public class HazelcastTicketRegistryTests {
     @Autowired
     HazelcastTicketRegistry hzTicketRegistry2;
 
+    @Autowired
+    HazelcastTicketRegistry hzTicketRegistryWithNearCache;
+
+    @Autowired
+    HazelcastTicketRegistry hzTicketRegistryWithSplitMaps;
+
+    @Autowired
+    HazelcastTicketRegistry hzTicketRegistryWithAsyncWrites;
+
+    @Autowired
+    @Qualifier("hzInstance1")
+    HazelcastInstance hzInstance1;
+
     @Test
     public void basicOperationsAndClustering() throws Exception {
         this.hzTicketRegistry1.addTicket(newTestTgt());
@@ -45,9 +70,307 @@ public class HazelcastTicketRegistryTests {
         assertNull(this.hzTicketRegistry2.getTicket("ST-TEST"));
     }
 
+    @Test
+    public void ticketGrantingTicketsLookedUpAndDeletedByPrincipal() throws Exception {
+        this.hzTicketRegistry1.addTicket(newTestTgt("TGT-ALICE-1", "alice"));
+        this.hzTicketRegistry1.addTicket(newTestTgt("TGT-ALICE-2", "alice"));
+        this.hzTicketRegistry2.addTicket(newTestTgt("TGT-BOB", "bob"));
+        this.hzTicketRegistry1.addTicket(newTestTgt("TGT-ALICE-1", "alice")
+                .grantServiceTicket("ST-ALICE", getService(), new NeverExpiresExpirationPolicy(), false));
+
+        assertEquals(2, this.hzTicketRegistry2.getTicketGrantingTickets("alice").size());
+        assertEquals(1, this.hzTicketRegistry1.getTicketGrantingTickets("bob").size());
+
+        assertTrue(this.hzTicketRegistry2.deleteTicket("TGT-ALICE-2"));
+        assertEquals(1, this.hzTicketRegistry1.getTicketGrantingTickets("alice").size());
+
+        assertEquals(1, this.hzTicketRegistry1.deleteTicketGrantingTickets("alice"));
+        assertNull(this.hzTicketRegistry2.getTicket("TGT-ALICE-1"));
+        assertTrue(this.hzTicketRegistry2.getTicketGrantingTickets("alice").isEmpty());
+        assertNotNull(this.hzTicketRegistry2.getTicket("TGT-BOB"));
+
+        this.hzTicketRegistry1.deleteTicket("TGT-BOB");
+        this.hzTicketRegistry1.deleteTicket("ST-ALICE");
+    }
+
+    @Test
+    public void ticketGrantingTicketsOfPrincipalRetrievedThroughTheIndex() throws Exception {
+        final TicketGrantingTicket tgt = newTestTgt("TGT-VISIT-1", "alice");
+        this.hzTicketRegistry1.addTicket(tgt);
+        this.hzTicketRegistry1.addTicket(newTestTgt("TGT-VISIT-2", "alice"));
+        final TicketGrantingTicket expired = newTestTgt("TGT-VISIT-3", "alice");
+        expired.markTicketExpired();
+        this.hzTicketRegistry1.addTicket(expired);
+        this.hzTicketRegistry1.addTicket(newTestTgt("TGT-VISIT-4", "bob"));
+        this.hzTicketRegistry1.addTicket(new TicketGrantingTicketImpl("PGT-VISIT-5", tgt,
+                TestTickets.newAuthentication(new SimplePrincipal("alice")), new NeverExpiresExpirationPolicy()));
+        this.hzTicketRegistry1.addTicket(tgt.grantServiceTicket("ST-VISIT-6", getService(), new NeverExpiresExpirationPolicy(), false));
+
+        final Set<String> retrieved = new HashSet<String>();
+        for (final Ticket t : this.hzTicketRegistry2.getTickets(TicketFilter.ticketGrantingTickets().nonExpired().withPrincipal("alice"), 1)) {
+            assertTrue(retrieved.add(t.getId()));
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("TGT-VISIT-1", "TGT-VISIT-2", "PGT-VISIT-5")), retrieved);
+
+        final DefaultTicketSupport ticketSupport = new DefaultTicketSupport(this.hzTicketRegistry2);
+        final Set<String> visited = new HashSet<String>();
+        final TicketVisitor<TicketGrantingTicket> visitor = new TicketVisitor<TicketGrantingTicket>() {
+            @Override
+            public boolean visit(final TicketGrantingTicket ticket) {
+                return visited.add(ticket.getId());
+            }
+        };
+        assertEquals(3, ticketSupport.visitNonExpiredTicketGrantingTickets("alice", 0, visitor));
+        assertEquals(retrieved, visited);
+        assertEquals(1, ticketSupport.visitNonExpiredTicketGrantingTickets("alice", 1, visitor));
+
+        this.hzTicketRegistry1.deleteTicket("ST-VISIT-6");
+        assertEquals(4, this.hzTicketRegistry1.deleteTicketGrantingTickets("alice"));
+        assertEquals(1, this.hzTicketRegistry1.deleteTicketGrantingTickets("bob"));
+    }
+
+    @Test
+    public void nearCacheReadsOwnWritesAndIsInvalidatedByOtherNodes() throws Exception {
+        this.hzTicketRegistryWithNearCache.addTicket(newTestTgt("TGT-NEAR", "alice"));
+        final TicketGrantingTicket cached = (TicketGrantingTicket) this.hzTicketRegistryWithNearCache.getTicket("TGT-NEAR");
+        assertEquals("alice", cached.getAuthentication().getPrincipal().getId());
+
+        this.hzTicketRegistry1.addTicket(newTestTgt("TGT-NEAR", "bob"));
+        assertEquals("bob", waitForPrincipalOf("TGT-NEAR", "bob"));
+
+        this.hzTicketRegistry1.deleteTicket("TGT-NEAR");
+        for (int i = 0; i < 50 && this.hzTicketRegistryWithNearCache.getTicket("TGT-NEAR") != null; i++) {
+            Thread.sleep(100);
+        }
+        assertNull(this.hzTicketRegistryWithNearCache.getTicket("TGT-NEAR"));
+    }
+
+    @Test
+    public void nearCacheKeepsOwnWritesOnceTheirEventsComeBack() throws Exception {
+        final TicketRegistryMetrics metrics = new TicketRegistryMetrics();
+        this.hzTicketRegistryWithNearCache.setMetrics(metrics);
+        try {
+            final TicketGrantingTicket tgt = newTestTgt("TGT-NEAR-OWN", "alice");
+            this.hzTicketRegistryWithNearCache.addTicket(tgt);
+            tgt.grantServiceTicket("ST-NEAR-OWN", getService(), new NeverExpiresExpirationPolicy(), false);
+            this.hzTicketRegistryWithNearCache.updateTicket(tgt);
+            this.hzTicketRegistry1.addTicket(newTestTgt("TGT-NEAR-OTHER", "bob"));
+            Thread.sleep(500);
+
+            assertEquals(1, this.hzTicketRegistryWithNearCache.getTicket("TGT-NEAR-OWN").getCountOfUses());
+            assertEquals(1.0, metrics.getNearCacheHitRatio(), 0);
+        }
+        finally {
+            this.hzTicketRegistryWithNearCache.setMetrics(null);
+            this.hzTicketRegistry1.deleteTicket("TGT-NEAR-OWN");
+            this.hzTicketRegistry1.deleteTicket("TGT-NEAR-OTHER");
+        }
+    }
+
+    @Test
+    public void ticketsRoutedToTheMapOfTheirTypeByIdPrefix() throws Exception {
+        final TicketGrantingTicket tgt = newTestTgt("TGT-SPLIT", "alice");
+        this.hzTicketRegistryWithSplitMaps.addTicket(tgt);
+        this.hzTicketRegistryWithSplitMaps.addTicket(tgt.grantServiceTicket("ST-SPLIT", getService(), new NeverExpiresExpirationPolicy(), false));
+        this.hzTicketRegistryWithSplitMaps.addTicket(tgt.grantServiceTicket("PT-SPLIT", getService(), new NeverExpiresExpirationPolicy(), false));
+
+        assertTrue(this.hzInstance1.getMap("tickets-tgt").containsKey("TGT-SPLIT"));
+        assertTrue(this.hzInstance1.getMap("tickets-st").containsKey("ST-SPLIT"));
+        assertTrue(this.hzInstance1.getMap("tickets-proxy").containsKey("PT-SPLIT"));
+        assertEquals(0, this.hzInstance1.getConfig().getMapConfig("tickets-st").getBackupCount());
+        assertNull(this.hzTicketRegistry1.getTicket("TGT-SPLIT"));
+
+        assertNotNull(this.hzTicketRegistryWithSplitMaps.getTicket("PT-SPLIT"));
+        assertEquals(3, this.hzTicketRegistryWithSplitMaps.getTickets().size());
+        assertEquals(1, this.hzTicketRegistryWithSplitMaps.getTicketGrantingTickets("alice").size());
+        assertTrue(this.hzTicketRegistryWithSplitMaps.deleteTicket("ST-SPLIT"));
+        assertTrue(this.hzTicketRegistryWithSplitMaps.deleteTicket("PT-SPLIT"));
+        assertEquals(1, this.hzTicketRegistryWithSplitMaps.deleteTicketGrantingTickets("alice"));
+        assertTrue(this.hzTicketRegistryWithSplitMaps.getTickets().isEmpty());
+    }
+
+    @Test
+    public void ticketGrantingTicketsOfMapsWithMaxIdleTimeUpdatedInPlace() throws Exception {
+        final TicketGrantingTicket tgt = newTestTgt("TGT-UPDATE", "alice");
+        this.hzTicketRegistryWithSplitMaps.addTicket(tgt);
+        tgt.grantServiceTicket("ST-UPDATE", getService(), new NeverExpiresExpirationPolicy(), false);
+        this.hzTicketRegistryWithSplitMaps.updateTicket(tgt);
+
+        final TicketGrantingTicket updated = (TicketGrantingTicket) this.hzInstance1.getMap("tickets-tgt").get("TGT-UPDATE");
+        assertEquals(1, updated.getCountOfUses());
+        assertEquals("alice", updated.getAuthentication().getPrincipal().getId());
+
+        tgt.markTicketExpired();
+        this.hzTicketRegistryWithSplitMaps.updateTicket(tgt);
+        assertTrue(this.hzTicketRegistryWithSplitMaps.getTicket("TGT-UPDATE").isExpired());
+
+        this.hzTicketRegistryWithSplitMaps.deleteTicket("TGT-UPDATE");
+        this.hzTicketRegistryWithSplitMaps.updateTicket(tgt);
+        assertNull(this.hzTicketRegistryWithSplitMaps.getTicket("TGT-UPDATE"));
+    }
+
+    @Test
+    public void ticketGrantingTicketsKeptAliveByInPlaceUpdatesPastTheirMaxIdleTime() throws Exception {
+        final HazelcastTicketRegistry registry = new HazelcastTicketRegistry(this.hzInstance1, 1, 1,
+                new MapConfig("tickets-idle-tgt").setMaxIdleSeconds(2), new MapConfig("tickets-idle-st"),
+                new MapConfig("tickets-idle-proxy"));
+        final TicketGrantingTicket tgt = newTestTgt("TGT-IDLE", "alice");
+        registry.addTicket(tgt);
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(1000);
+            tgt.grantServiceTicket("ST-IDLE-" + i, getService(), new NeverExpiresExpirationPolicy(), false);
+            registry.updateTicket(tgt);
+        }
+
+        assertEquals(4, registry.getTicket("TGT-IDLE").getCountOfUses());
+        assertTrue(registry.deleteTicket("TGT-IDLE"));
+    }
+
+    @Test
+    public void ticketGrantingTicketsKeptAliveByUpdatesPastTheirTimeToLive() throws Exception {
+        final HazelcastTicketRegistry registry = new HazelcastTicketRegistry(this.hzInstance1, 2, 1);
+        final TicketGrantingTicket tgt = newTestTgt("TGT-ALIVE", "alice");
+        registry.addTicket(tgt);
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(1000);
+            tgt.grantServiceTicket("ST-ALIVE-" + i, getService(), new NeverExpiresExpirationPolicy(), false);
+            registry.updateTicket(tgt);
+        }
+
+        assertEquals(4, this.hzTicketRegistry2.getTicket("TGT-ALIVE").getCountOfUses());
+        assertTrue(this.hzTicketRegistry2.deleteTicket("TGT-ALIVE"));
+    }
+
+    @Test
+    public void ticketsMatchingFilterRetrievedInPages() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            final TicketGrantingTicket tgt = newTestTgt("TGT-PAGE-" + i, i % 2 == 0 ? "alice" : "bob");
+            this.hzTicketRegistryWithSplitMaps.addTicket(tgt);
+            this.hzTicketRegistryWithSplitMaps.addTicket(tgt.grantServiceTicket("ST-PAGE-" + i, getService(), new NeverExpiresExpirationPolicy(), false));
+        }
+        final TicketGrantingTicket expired = newTestTgt("TGT-PAGE-EXPIRED", "alice");
+        expired.markTicketExpired();
+        this.hzTicketRegistryWithSplitMaps.addTicket(expired);
+
+        assertEquals(10, ids(TicketFilter.ticketGrantingTickets().nonExpired(), 3).size());
+        assertEquals(11, ids(TicketFilter.ticketGrantingTickets(), 100).size());
+        assertEquals(21, ids(TicketFilter.allTickets(), 1).size());
+        final Set<String> aliceTgts = ids(TicketFilter.ticketGrantingTickets().nonExpired().withPrincipal("alice"), 2);
+        assertEquals(5, aliceTgts.size());
+        assertTrue(aliceTgts.contains("TGT-PAGE-0"));
+        assertEquals(5, ids(TicketFilter.serviceTickets().withPrincipal("bob"), 4).size());
+
+        assertEquals(6, this.hzTicketRegistryWithSplitMaps.deleteTicketGrantingTickets("alice"));
+        assertEquals(5, this.hzTicketRegistryWithSplitMaps.deleteTicketGrantingTickets("bob"));
+        for (int i = 0; i < 10; i++) {
+            this.hzTicketRegistryWithSplitMaps.deleteTicket("ST-PAGE-" + i);
+        }
+    }
+
+    @Test
+    public void singleSignOnSessionsAggregatedByEachMember() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            final TicketGrantingTicket tgt = newTestTgt("TGT-AGGREGATE-" + i, i < 15 ? "alice" : "bob");
+            this.hzTicketRegistryWithSplitMaps.addTicket(tgt);
+            this.hzTicketRegistryWithSplitMaps.addTicket(tgt.grantServiceTicket("ST-AGGREGATE-" + i, getService(), new NeverExpiresExpirationPolicy(), false));
+        }
+
+        final SingleSignOnSessionsSummary summary = this.hzTicketRegistryWithSplitMaps.aggregate(
+                TicketFilter.ticketGrantingTickets().nonExpired(), new SingleSignOnSessionsSummary());
+        assertEquals(20, summary.getActiveSessions());
+        assertEquals(Long.valueOf(20), summary.getNumberOfUsesHistogram().get("0-1"));
+        assertEquals(Integer.valueOf(15), summary.getSessionsPerPrincipal().get("alice"));
+        assertEquals(Integer.valueOf(5), summary.getSessionsPerPrincipal().get("bob"));
+        assertEquals(Long.valueOf(20), summary.getAuthenticationAgeHistogram().get("<5m"));
+
+        assertEquals(15, this.hzTicketRegistryWithSplitMaps.deleteTicketGrantingTickets("alice"));
+        assertEquals(5, this.hzTicketRegistryWithSplitMaps.deleteTicketGrantingTickets("bob"));
+        for (int i = 0; i < 20; i++) {
+            this.hzTicketRegistryWithSplitMaps.deleteTicket("ST-AGGREGATE-" + i);
+        }
+    }
+
+    @Test
+    public void operationsRecordedToMetrics() throws Exception {
+        final TicketRegistryMetrics metrics = new TicketRegistryMetrics();
+        this.hzTicketRegistryWithSplitMaps.setMetrics(metrics);
+        try {
+            this.hzTicketRegistryWithSplitMaps.addTicket(newTestTgt("TGT-METRICS", "alice"));
+            assertNotNull(this.hzTicketRegistryWithSplitMaps.getTicket("TGT-METRICS"));
+            assertNull(this.hzTicketRegistryWithSplitMaps.getTicket("ST-METRICS"));
+            assertTrue(this.hzTicketRegistryWithSplitMaps.deleteTicket("TGT-METRICS"));
+
+            assertEquals(0.5, metrics.getHitRatio(), 0);
+            assertEquals(1, metrics.getLatency(TicketRegistryMetrics.Operation.ADD, TicketRegistryMetrics.TicketType.TGT).getCount());
+            assertEquals(1, metrics.getLatency(TicketRegistryMetrics.Operation.GET, TicketRegistryMetrics.TicketType.ST).getCount());
+            assertTrue(metrics.getLatencies().containsKey("delete.TGT"));
+            assertTrue(metrics.getLocalMapStatistics().containsKey("tickets-tgt"));
+        }
+        finally {
+            this.hzTicketRegistryWithSplitMaps.setMetrics(null);
+        }
+    }
+
+    @Test
+    public void serviceTicketsWrittenAsynchronouslyAreReadByTheirNodeRightAway() throws Exception {
+        final TicketGrantingTicket tgt = newTestTgt("TGT-ASYNC", "alice");
+        this.hzTicketRegistryWithAsyncWrites.addTicket(tgt);
+        for (int i = 0; i < 10; i++) {
+            this.hzTicketRegistryWithAsyncWrites.addTicket(tgt.grantServiceTicket("ST-ASYNC-" + i, getService(), new NeverExpiresExpirationPolicy(), false));
+            assertNotNull(this.hzTicketRegistryWithAsyncWrites.getTicket("ST-ASYNC-" + i));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(waitForTicket(this.hzTicketRegistry1, "ST-ASYNC-" + i));
+        }
+        this.hzTicketRegistryWithAsyncWrites.addTicket(tgt.grantServiceTicket("ST-ASYNC-DELETED", getService(), new NeverExpiresExpirationPolicy(), false));
+        assertTrue(this.hzTicketRegistryWithAsyncWrites.deleteTicket("ST-ASYNC-DELETED"));
+        Thread.sleep(200);
+        assertNull(this.hzTicketRegistry1.getTicket("ST-ASYNC-DELETED"));
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(this.hzTicketRegistryWithAsyncWrites.deleteTicket("ST-ASYNC-" + i));
+        }
+        assertTrue(this.hzTicketRegistryWithAsyncWrites.deleteTicket("TGT-ASYNC"));
+    }
+
+    private Ticket waitForTicket(final HazelcastTicketRegistry registry, final String ticketId) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            final Ticket ticket = registry.getTicket(ticketId);
+            if (ticket != null) {
+                return ticket;
+            }
+            Thread.sleep(20);
+        }
+        return null;
+    }
+
+    private Set<String> ids(final TicketFilter filter, final int pageSize) {
+        final Set<String> ids = new HashSet<String>();
+        for (final Ticket ticket : this.hzTicketRegistryWithSplitMaps.getTickets(filter, pageSize)) {
+            assertTrue(filter.matches(ticket));
+            assertTrue(ids.add(ticket.getId()));
+        }
+        return ids;
+    }
+
+    private String waitForPrincipalOf(final String ticketGrantingTicketId, final String expected) throws InterruptedException {
+        String principalId = null;
+        for (int i = 0; i < 50 && !expected.equals(principalId); i++) {
+            Thread.sleep(100);
+            principalId = ((TicketGrantingTicket) this.hzTicketRegistryWithNearCache.getTicket(ticketGrantingTicketId))
+                    .getAuthentication().getPrincipal().getId();
+        }
+        return principalId;
+    }
+
     private TicketGrantingTicket newTestTgt() {
-        return new TicketGrantingTicketImpl("TGT-TEST",
-                new ImmutableAuthentication(new SimplePrincipal("test")),
+        return newTestTgt("TGT-TEST", "test");
+    }
+
+    private TicketGrantingTicket newTestTgt(final String id, final String principalId) {
+        return new TicketGrantingTicketImpl(id,
+                TestTickets.newAuthentication(new SimplePrincipal(principalId)),
                 new NeverExpiresExpirationPolicy());
     }
 